@@ -2,7 +2,11 @@ package com.triibiotech.yjs.websocket.config;
 
 import com.triibiotech.yjs.websocket.handler.DocWebSocketHandler;
 import com.triibiotech.yjs.websocket.handler.WebSocketInterceptor;
+import com.triibiotech.yjs.websocket.persistence.DocPersistence;
+import com.triibiotech.yjs.websocket.persistence.FileDocPersistence;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -10,8 +14,11 @@ import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 
+import java.nio.file.Path;
+
 @Configuration
 @EnableWebSocket
+@EnableConfigurationProperties(YjsWebSocketProperties.class)
 public class WebSocketConfig implements WebSocketConfigurer {
 
     @Autowired
@@ -34,4 +41,12 @@ public class WebSocketConfig implements WebSocketConfigurer {
         container.setMaxSessionIdleTimeout(30 * 60 * 1000L);
         return container;
     }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "yjs.websocket.persistence", name = "enabled", havingValue = "true")
+    public DocPersistence docPersistence(YjsWebSocketProperties properties) {
+        YjsWebSocketProperties.Persistence persistence = properties.getPersistence();
+        return new FileDocPersistence(Path.of(persistence.getDirectory()), persistence.getSegmentSize(), persistence.isFsync(),
+                persistence.getCompactThreshold(), persistence.getCompactionThreads(), persistence.getCompactionBytesPerSecond());
+    }
 }
@@ -0,0 +1,296 @@
+package com.triibiotech.yjs.websocket.config;
+
+import com.triibiotech.yjs.websocket.handler.OverflowPolicy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 协同服务配置，对应 application.yml 中的 yjs.websocket.*
+ *
+ * @author zbs
+ * @date 2026/10/18  14:05:33
+ */
+@ConfigurationProperties(prefix = "yjs.websocket")
+public class YjsWebSocketProperties {
+
+    /**
+     * 每个文档绑定独立的串行 mailbox，消息在 mailbox 上按序处理而不是在收到消息的容器线程上处理
+     */
+    private boolean mailbox = false;
+
+    /**
+     * 每个连接发送队列的最大消息数
+     */
+    private int outboundQueueCapacity = 1024;
+
+    /**
+     * 发送队列满时的处理策略
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+
+    /**
+     * 跟踪每个连接已经拥有的状态向量，客户端已经拥有的更新不再发送
+     */
+    private boolean trackPeerState = false;
+
+    /**
+     * 心跳间隔（毫秒），一个间隔内没有收到 pong 的连接会被关闭
+     */
+    private long heartbeatInterval = 30000;
+
+    /**
+     * awareness 更新合并窗口（毫秒），窗口内的状态更新合并为一条消息广播，加入和离开立即广播。0 表示不合并
+     */
+    private long awarenessCoalesceWindow = 0;
+
+    /**
+     * relay 模式：文档只转发和保存更新，内容保存为一个合并后的更新而不是实例化的 Doc，服务端读取内容时才实例化
+     */
+    private boolean relay = false;
+
+    /**
+     * 最后一个连接断开后文档在内存中保留的时间（毫秒），期间重连的客户端直接使用已有文档。0 表示立即卸载
+     */
+    private long documentLinger = 0;
+
+    /**
+     * 每个文档等待缺失更新的 pending struct 数量上限，超出时丢弃等待最久的部分，客户端下次同步时会重新发送。0 表示不限制
+     */
+    private long maxPendingStructs = 0;
+
+    /**
+     * 文档持久化
+     */
+    private final Persistence persistence = new Persistence();
+
+    /**
+     * 空闲文档休眠
+     */
+    private final Hibernation hibernation = new Hibernation();
+
+    public boolean isMailbox() {
+        return mailbox;
+    }
+
+    public void setMailbox(boolean mailbox) {
+        this.mailbox = mailbox;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public boolean isTrackPeerState() {
+        return trackPeerState;
+    }
+
+    public void setTrackPeerState(boolean trackPeerState) {
+        this.trackPeerState = trackPeerState;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public long getAwarenessCoalesceWindow() {
+        return awarenessCoalesceWindow;
+    }
+
+    public void setAwarenessCoalesceWindow(long awarenessCoalesceWindow) {
+        this.awarenessCoalesceWindow = awarenessCoalesceWindow;
+    }
+
+    public boolean isRelay() {
+        return relay;
+    }
+
+    public void setRelay(boolean relay) {
+        this.relay = relay;
+    }
+
+    public long getDocumentLinger() {
+        return documentLinger;
+    }
+
+    public void setDocumentLinger(long documentLinger) {
+        this.documentLinger = documentLinger;
+    }
+
+    public long getMaxPendingStructs() {
+        return maxPendingStructs;
+    }
+
+    public void setMaxPendingStructs(long maxPendingStructs) {
+        this.maxPendingStructs = maxPendingStructs;
+    }
+
+    public Persistence getPersistence() {
+        return persistence;
+    }
+
+    public Hibernation getHibernation() {
+        return hibernation;
+    }
+
+    public static class Persistence {
+        /**
+         * 是否保存文档更新，关闭时最后一个连接断开后文档内容丢失
+         */
+        private boolean enabled = false;
+
+        /**
+         * 数据目录，每个文档一个子目录
+         */
+        private String directory = "data/yjs";
+
+        /**
+         * 单个日志分段文件的大小上限（字节）
+         */
+        private long segmentSize = 64L * 1024 * 1024;
+
+        /**
+         * 每批写入后是否 fsync
+         */
+        private boolean fsync = true;
+
+        /**
+         * 文档追加多少条记录后在后台把日志压缩成一条记录，0 表示不压缩
+         */
+        private long compactThreshold = 1000;
+
+        /**
+         * 压缩线程数
+         */
+        private int compactionThreads = 1;
+
+        /**
+         * 压缩读写磁盘的速率上限（字节/秒），0 表示不限制
+         */
+        private long compactionBytesPerSecond = 0;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public long getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public boolean isFsync() {
+            return fsync;
+        }
+
+        public void setFsync(boolean fsync) {
+            this.fsync = fsync;
+        }
+
+        public long getCompactThreshold() {
+            return compactThreshold;
+        }
+
+        public void setCompactThreshold(long compactThreshold) {
+            this.compactThreshold = compactThreshold;
+        }
+
+        public int getCompactionThreads() {
+            return compactionThreads;
+        }
+
+        public void setCompactionThreads(int compactionThreads) {
+            this.compactionThreads = compactionThreads;
+        }
+
+        public long getCompactionBytesPerSecond() {
+            return compactionBytesPerSecond;
+        }
+
+        public void setCompactionBytesPerSecond(long compactionBytesPerSecond) {
+            this.compactionBytesPerSecond = compactionBytesPerSecond;
+        }
+    }
+
+    public static class Hibernation {
+        /**
+         * 活跃文档的内存预算（字节，按 struct 数量估算），超出时最久未使用的文档先休眠。0 表示不限制
+         */
+        private long memoryBudget = 0;
+
+        /**
+         * 文档空闲多久后休眠（毫秒），0 表示不因空闲休眠
+         */
+        private long idleTimeout = 0;
+
+        /**
+         * 休眠时是否 deflate 压缩文档状态
+         */
+        private boolean compress = true;
+
+        /**
+         * 检查间隔（毫秒）
+         */
+        private long sweepInterval = 10000;
+
+        public long getMemoryBudget() {
+            return memoryBudget;
+        }
+
+        public void setMemoryBudget(long memoryBudget) {
+            this.memoryBudget = memoryBudget;
+        }
+
+        public long getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public boolean isCompress() {
+            return compress;
+        }
+
+        public void setCompress(boolean compress) {
+            this.compress = compress;
+        }
+
+        public long getSweepInterval() {
+            return sweepInterval;
+        }
+
+        public void setSweepInterval(long sweepInterval) {
+            this.sweepInterval = sweepInterval;
+        }
+    }
+}
@@ -1,22 +1,25 @@
 package com.triibiotech.yjs.websocket.handler;
 
-import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import com.triibiotech.yjs.protocol.awareness.Awareness;
-import com.triibiotech.yjs.protocol.sync.SyncProtocol;
+import com.triibiotech.yjs.utils.DocMailbox;
 import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
 import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import com.triibiotech.yjs.websocket.config.YjsWebSocketProperties;
+import com.triibiotech.yjs.websocket.persistence.DocPersistence;
 import jakarta.annotation.Nonnull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.BinaryWebSocketHandler;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * web套接字处理程序
@@ -35,31 +38,55 @@ public class DocWebSocketHandler extends BinaryWebSocketHandler {
      * 意识消息
      */
     public static final int MESSAGE_AWARENESS = 1;
-    /**
-     * docId -> doc
-     */
-    private static final Map<Integer, WSSharedDoc> DOCUMENTS = new ConcurrentHashMap<>();
     /**
      * userId -> docId
      */
     private static final Map<Integer, Integer> USER_DOCUMENTS = new ConcurrentHashMap<>();
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-
+    private final YjsWebSocketProperties properties;
     /**
-     * 心跳处理器
+     * docId -> doc，每个处理器使用自己的注册表和休眠配置
      */
-    private ScheduledFuture<?> pingInterval;
+    private final DocumentRegistry documents = new DocumentRegistry();
     /**
-     * 心跳响应状态
+     * 文档持久化，为 null 时不保存
      */
-    private final AtomicBoolean pongReceived = new AtomicBoolean(true);
+    private final DocPersistence persistence;
+
+    public DocWebSocketHandler() {
+        this(new YjsWebSocketProperties());
+    }
 
+    public DocWebSocketHandler(YjsWebSocketProperties properties) {
+        this(properties, (DocPersistence) null);
+    }
+
+    @Autowired
+    public DocWebSocketHandler(YjsWebSocketProperties properties, ObjectProvider<DocPersistence> persistence) {
+        this(properties, persistence.getIfAvailable());
+    }
+
+    public DocWebSocketHandler(YjsWebSocketProperties properties, DocPersistence persistence) {
+        this.properties = properties;
+        this.persistence = persistence;
+        if (persistence != null) {
+            // 压缩日志时直接使用内存中文档的状态
+            persistence.bindSnapshotSource(this::encodeSnapshot);
+        }
+        YjsWebSocketProperties.Hibernation hibernation = properties.getHibernation();
+        documents.configure(hibernation.getMemoryBudget(), hibernation.getIdleTimeout(),
+                hibernation.isCompress(), hibernation.getSweepInterval());
+        documents.setLinger(properties.getDocumentLinger());
+    }
 
     @Override
     protected void handlePongMessage(@Nonnull WebSocketSession session, @Nonnull PongMessage message) throws Exception {
         super.handlePongMessage(session, message);
-        pongReceived.set(true);
+        WSSharedDoc doc = documents.get((Integer) session.getAttributes().get("documentId"));
+        WSConnection connection = doc == null ? null : doc.connections.get(session);
+        if (connection != null) {
+            connection.pong();
+        }
     }
 
     @Override
@@ -68,77 +95,157 @@ public class DocWebSocketHandler extends BinaryWebSocketHandler {
         Integer documentId = (Integer) attributes.get("documentId");
         WSSharedDoc doc = getDoc(documentId);
         USER_DOCUMENTS.put((Integer) attributes.get("userId"), documentId);
-        doc.connections.put(session, new LinkedHashSet<>());
-        // 心跳
-        this.pingInterval = scheduler.scheduleAtFixedRate(() -> {
-            try {
-                if (!pongReceived.get()) {
-                    if (doc.connections.containsKey(session)) {
-                        closeConnection(doc, session);
-                    }
-                    pingInterval.cancel(false);
-                } else if (doc.connections.containsKey(session)) {
-                    pongReceived.set(false);
-                    try {
-                        session.sendMessage(new PingMessage());
-                    } catch (Exception e) {
-                        closeConnection(doc, session);
-                        pingInterval.cancel(false);
-                    }
-                }
-            } catch (Exception e) {
-                // Log error but don't stop the timer
-                System.err.println("Error in awareness cleanup: " + e.getMessage());
-            }
-        }, 30000, 30000, TimeUnit.MILLISECONDS);
+        WSConnection connection = new WSConnection(doc, session, properties.getOutboundQueueCapacity(),
+                properties.getOverflowPolicy(), properties.isTrackPeerState());
+        doc.connections.put(session, connection);
+        // 心跳，每个连接独立跟踪 pong 状态
+        connection.startHeartbeat(properties.getHeartbeatInterval());
 
+        if (doc.getMailbox() != null) {
+            doc.getMailbox().execute(() -> sendSyncStep1(doc, session));
+        } else {
+            sendSyncStep1(doc, session);
+        }
+        String ip = Objects.requireNonNull(session.getRemoteAddress()).getAddress().getHostAddress();
+        log.info("New connection from {} to {}", ip, documentId);
+    }
+
+    private void sendSyncStep1(WSSharedDoc doc, WebSocketSession session) {
         // Send sync step 1
-        Encoder encoder = Encoder.createEncoder();
-        Encoder.writeVarUint(encoder, MESSAGE_SYNC);
-        SyncProtocol.writeSyncStep1(encoder, doc);
-        send(doc, session, Encoder.toUint8Array(encoder));
+        send(doc, session, Encoder.encode(encoder -> {
+            Encoder.writeVarUint(encoder, MESSAGE_SYNC);
+            documents.acquire(doc);
+            try {
+                doc.writeSyncStep1(encoder);
+            } finally {
+                documents.release(doc);
+            }
+        }));
         Map<Long, JSONObject> awarenessStates = doc.awareness.getStates();
         if (!awarenessStates.isEmpty()) {
-            Encoder awarenessEncoder = Encoder.createEncoder();
-            Encoder.writeVarUint(awarenessEncoder, MESSAGE_AWARENESS);
-            Encoder.writeVarUint8Array(awarenessEncoder, doc.awareness.encodeAwarenessUpdate(awarenessStates.keySet().stream().toList(), null));
-            send(doc, session, Encoder.toUint8Array(encoder));
+            send(doc, session, Encoder.encode(encoder -> {
+                Encoder.writeVarUint(encoder, MESSAGE_AWARENESS);
+                Encoder.writeVarUint8Array(encoder, doc.awareness.encodeAwarenessUpdate(awarenessStates.keySet().stream().toList(), null));
+            }));
         }
-        String ip = Objects.requireNonNull(session.getRemoteAddress()).getAddress().getHostAddress();
-        log.info("New connection from {} to {}", ip, documentId);
     }
 
-    private static WSSharedDoc getDoc(Integer documentId) {
-        WSSharedDoc doc = DOCUMENTS.get(documentId);
-        if (doc != null) {
+    /**
+     * 连接打开文档，和 closeConnection 中的 disconnect 成对
+     */
+    private WSSharedDoc getDoc(Integer documentId) {
+        return documents.connect(documentId, id -> {
+            WSSharedDoc doc = new WSSharedDoc(id, properties.isMailbox(), properties.getAwarenessCoalesceWindow(),
+                    properties.isRelay());
+            doc.gc = true;
+            doc.store.maxPendingStructs = properties.getMaxPendingStructs();
             return doc;
+        }, doc -> {
+            if (persistence != null) {
+                doc.bindPersistence(persistence);
+            }
+        });
+    }
+
+    private byte[] encodeSnapshot(Integer documentId) {
+        WSSharedDoc doc = documents.get(documentId);
+        if (doc == null || doc.state == DocumentState.LOADING || doc.state == DocumentState.CLOSED) {
+            return null;
         }
-        doc = new WSSharedDoc(documentId);
-        doc.gc = true;
-        DOCUMENTS.put(documentId, doc);
-        return doc;
+        return doc.encodeSnapshot();
     }
 
     @Override
     public void handleBinaryMessage(@Nonnull WebSocketSession session, BinaryMessage message) {
         Map<String, Object> attributes = session.getAttributes();
         Integer documentId = (Integer) attributes.get("documentId");
-        WSSharedDoc doc = getDoc(documentId);
+        WSSharedDoc doc = documents.get(documentId);
+        if (doc == null || !doc.connections.containsKey(session)) {
+            // 连接已经关闭
+            return;
+        }
+        // 休眠的文档在这里恢复，处理完之前不会再次休眠
+        documents.acquire(doc);
+        if (doc.getMailbox() != null) {
+            // 帧的缓冲区属于容器，处理器返回后会被下一帧复用，排队之前复制消息的数据
+            Decoder payload = Decoder.createDecoder(copyPayload(message.getPayload()));
+            // 同一文档的消息在 mailbox 上按序处理，容器线程直接返回
+            doc.getMailbox().execute(() -> {
+                try {
+                    handleMessage(doc, session, payload);
+                } finally {
+                    documents.release(doc);
+                }
+            });
+        } else {
+            // 处理器返回前就处理完，直接在消息的缓冲区上解码，堆外缓冲区在这里复制一次
+            Decoder payload = Decoder.createDecoder(message.getPayload());
+            try {
+                handleMessage(doc, session, payload);
+            } finally {
+                documents.release(doc);
+            }
+        }
+    }
+
+    /**
+     * 复制 buffer 中 position 到 limit 之间的数据，不改变 position
+     */
+    private static byte[] copyPayload(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(buffer.position(), bytes);
+        return bytes;
+    }
 
-        Encoder encoder = Encoder.createEncoder();
-        Decoder decoder = Decoder.createDecoder(message.getPayload().array());
+    private static void handleMessage(WSSharedDoc doc, WebSocketSession session, Decoder payload) {
+        // mailbox 每次都在新的虚拟线程上执行，线程的编码器池用不上，使用文档 mailbox 缓存的编码器
+        DocMailbox mailbox = doc.getMailbox();
+        if (mailbox != null && mailbox.inMailbox()) {
+            Encoder encoder = mailbox.acquireEncoder();
+            try {
+                handleMessage(doc, session, payload, encoder);
+            } finally {
+                mailbox.releaseEncoder(encoder);
+            }
+            return;
+        }
+        Encoder encoder = Encoder.acquire();
+        try {
+            handleMessage(doc, session, payload, encoder);
+        } finally {
+            Encoder.release(encoder);
+        }
+    }
+
+    private static void handleMessage(WSSharedDoc doc, WebSocketSession session, Decoder decoder, Encoder encoder) {
         int messageType = Math.toIntExact(Decoder.readVarUint(decoder));
         switch (messageType) {
             case MESSAGE_SYNC: {
                 Encoder.writeVarUint(encoder, MESSAGE_SYNC);
-                SyncProtocol.readSyncMessage(decoder, encoder, doc, session);
+                WSConnection connection = doc.connections.get(session);
+                if (connection != null) {
+                    connection.observeSyncMessage(Decoder.clone(decoder));
+                    // 文档有 pending 数据时，这次应用可能带出其他连接的更新，仍然需要回传
+                    connection.applyingOwnUpdate = !doc.store.hasPending();
+                }
+                try {
+                    doc.readSyncMessage(decoder, encoder, session);
+                } finally {
+                    if (connection != null) {
+                        connection.applyingOwnUpdate = false;
+                    }
+                }
                 if (Encoder.length(encoder) > 1) {
                     send(doc, session, Encoder.toUint8Array(encoder));
+                    if (connection != null) {
+                        // 已经回复了 SyncStep2，客户端会拥有当前文档的全部数据
+                        connection.observeStateVector(doc.getStateVector());
+                    }
                 }
                 break;
             }
             case MESSAGE_AWARENESS: {
-                doc.awareness.applyAwarenessUpdate(Decoder.readVarUint8Array(decoder), session);
+                doc.awareness.applyAwarenessUpdate(Decoder.readVarUint8ArrayView(decoder), session);
                 break;
             }
         }
@@ -154,22 +261,23 @@ public class DocWebSocketHandler extends BinaryWebSocketHandler {
         Map<String, Object> attributes = session.getAttributes();
         Integer documentId = (Integer) attributes.get("documentId");
         USER_DOCUMENTS.remove((Integer) attributes.get("userId"), documentId);
-        WSSharedDoc doc = getDoc(documentId);
         log.info("Connection closed: {} (reason: {})", documentId, closeStatus.getReason());
-        if (pingInterval != null) {
-            pingInterval.cancel(false);
+        WSSharedDoc doc = documents.get(documentId);
+        // 连接可能已经因为心跳超时或发送失败被关闭，文档随之被移除
+        if (doc != null) {
+            closeConnection(doc, session);
         }
-        closeConnection(doc, session);
     }
 
     static void closeConnection(WSSharedDoc doc, WebSocketSession session) {
-        if (doc.connections.containsKey(session)) {
-            Set<Long> controlledIds = doc.connections.get(session);
-            doc.connections.remove(session);
-            doc.awareness.removeAwarenessStates(controlledIds.stream().toList(), null);
-        }
-        if (doc.connections.isEmpty()) {
-            DOCUMENTS.remove(doc.documentId);
+        WSConnection connection = doc.connections.remove(session);
+        if (connection != null) {
+            connection.close();
+            doc.awareness.removeAwarenessStates(connection.controlledIds.stream().toList(), null);
+            // 直接创建、没有通过注册表打开的文档不需要断开
+            if (doc.registry != null) {
+                doc.registry.disconnect(doc);
+            }
         }
         try {
             session.close();
@@ -179,22 +287,35 @@ public class DocWebSocketHandler extends BinaryWebSocketHandler {
 
 
     static void send(WSSharedDoc doc, WebSocketSession session, byte[] m) {
-        if (session.isOpen()) {
-            synchronized (WebSocketSession.class) {
-                try {
-                    session.sendMessage(new BinaryMessage(m));
-                } catch (Exception e) {
-                    log.error("Error sending message to {}:", session.getId(), e);
-                    closeConnection(doc, session);
-                }
-            }
+        WSConnection connection = doc.connections.get(session);
+        if (connection != null && session.isOpen()) {
+            connection.send(m);
         } else {
             closeConnection(doc, session);
         }
     }
 
-    public static void collaboratorUpdated(Integer documentId, List<CollaboratorChangeEvent> events) {
-        if(documentId == null || !DOCUMENTS.containsKey(documentId)) {
+    /**
+     * 这个处理器打开的文档，以及休眠、加载的统计
+     */
+    public DocumentRegistry getDocuments() {
+        return documents;
+    }
+
+    /**
+     * 所有连接的发送队列深度
+     *
+     * @return sessionId -> 队列深度
+     */
+    public Map<String, Integer> getOutboundQueueDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        documents.values().forEach(doc -> doc.connections.values().forEach(connection ->
+                depths.put(connection.session.getId(), connection.getQueueDepth())));
+        return depths;
+    }
+
+    public void collaboratorUpdated(Integer documentId, List<CollaboratorChangeEvent> events) {
+        if(documentId == null || !documents.containsKey(documentId)) {
             return;
         }
         for (CollaboratorChangeEvent event : events) {
@@ -202,22 +323,22 @@ public class DocWebSocketHandler extends BinaryWebSocketHandler {
         }
     }
 
-    public static void editDisabledNotice(Integer documentId) {
+    public void editDisabledNotice(Integer documentId) {
         updateUserState(documentId, user ->
                 user.put("collaboration", new CollaboratorChangeEvent(user.getInteger("userId"), false, true, false, true))
         );
     }
 
-    public static void refreshNotice(Integer documentId) {
+    public void refreshNotice(Integer documentId) {
         updateUserState(documentId, user -> user.put("refresh", true));
     }
 
-    private static void updateUserState(Integer documentId, java.util.function.Consumer<JSONObject> userUpdater) {
+    private void updateUserState(Integer documentId, java.util.function.Consumer<JSONObject> userUpdater) {
         updateUserStateForUser(documentId, null, userUpdater);
     }
 
-    private static void updateUserStateForUser(Integer documentId, Integer targetUserId, java.util.function.Consumer<JSONObject> userUpdater) {
-        WSSharedDoc doc = DOCUMENTS.get(documentId);
+    private void updateUserStateForUser(Integer documentId, Integer targetUserId, java.util.function.Consumer<JSONObject> userUpdater) {
+        WSSharedDoc doc = documents.get(documentId);
         if (doc == null) {
             return;
         }
@@ -238,6 +359,8 @@ public class DocWebSocketHandler extends BinaryWebSocketHandler {
             }
 
             userUpdater.accept(user);
+            // 状态被原地修改，丢弃缓存的编码
+            doc.awareness.invalidateState(clientId);
 
             Encoder encoder = Encoder.createEncoder();
             Encoder.writeVarUint(encoder, MESSAGE_AWARENESS);
@@ -245,13 +368,14 @@ public class DocWebSocketHandler extends BinaryWebSocketHandler {
             Encoder.writeVarUint(dataEncoder, 1);
             Encoder.writeVarUint(dataEncoder, clientId);
             Encoder.writeVarUint(dataEncoder, metaState.clock() + 1);
-            Encoder.writeVarString(dataEncoder, JSON.toJSONString(state));
-            Encoder.writeVarUint8Array(encoder, Encoder.toUint8Array(dataEncoder));
+            Encoder.writeVarUint8Array(dataEncoder, doc.awareness.encodeState(clientId));
+            Encoder.writeVarUint(encoder, Encoder.length(dataEncoder));
+            Encoder.writeBinaryEncoder(encoder, dataEncoder);
 
-            byte[] buff = Encoder.toUint8Array(encoder);
-            doc.connections.forEach((session, clients) -> {
-                if (clients.contains(clientId)) {
-                    send(doc, session, buff);
+            ByteBuffer buff = WSConnection.share(encoder);
+            doc.connections.values().forEach(connection -> {
+                if (connection.controlledIds.contains(clientId)) {
+                    connection.send(buff);
                 }
             });
         });
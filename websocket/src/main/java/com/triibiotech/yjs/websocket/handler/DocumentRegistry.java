@@ -0,0 +1,352 @@
+package com.triibiotech.yjs.websocket.handler;
+
+import com.triibiotech.yjs.utils.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 内存中的文档注册表
+ * <p>
+ * 同一文档只会创建一个实例：第一个连接负责加载，加载在 map 锁之外进行，同时到达的其他连接等待同一次加载完成。
+ * 最后一个连接断开后文档进入 DRAINING，等待 linger 时间后才卸载，页面刷新、部署后的批量重连不会反复卸载和加载文档。
+ * <p>
+ * 文档内容可以在空闲时休眠：编码后（可选 deflate）保存，释放 StructStore，连接和 awareness 不受影响，
+ * 下次使用时透明恢复。后台定期检查：空闲超过 hibernateAfter 的文档休眠；活跃文档估算的内存总量超过 memoryBudget 时，
+ * 按最近使用时间从旧到新休眠，直到回到预算以内。
+ *
+ * @author zbs
+ * @date 2026/10/18  18:20:31
+ */
+public class DocumentRegistry {
+    static final Logger log = LoggerFactory.getLogger("DocumentRegistry");
+
+    private final Map<Integer, WSSharedDoc> documents = new ConcurrentHashMap<>();
+
+    /**
+     * 活跃文档的内存预算（字节），0 表示不限制
+     */
+    private volatile long memoryBudget = 0;
+    /**
+     * 空闲多久后休眠（毫秒），0 表示不因空闲休眠
+     */
+    private volatile long hibernateAfter = 0;
+    private volatile boolean compress = true;
+    /**
+     * 最后一个连接断开后保留文档的时间（毫秒），0 表示立即卸载
+     */
+    private volatile long linger = 0;
+    private HashedWheelTimer.Timeout sweeper;
+    private final AtomicBoolean sweeping = new AtomicBoolean(false);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong unloads = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+    private final AtomicLong hibernations = new AtomicLong();
+    private final AtomicLong rehydrations = new AtomicLong();
+    private final AtomicLong rehydrateNanos = new AtomicLong();
+    private final AtomicLong maxRehydrateNanos = new AtomicLong();
+
+    /**
+     * 配置休眠策略
+     *
+     * @param memoryBudget   活跃文档的内存预算（字节），0 表示不限制
+     * @param hibernateAfter 空闲多久后休眠（毫秒），0 表示不因空闲休眠
+     * @param compress       休眠时是否 deflate 压缩
+     * @param sweepInterval  检查间隔（毫秒）
+     */
+    public synchronized void configure(long memoryBudget, long hibernateAfter, boolean compress, long sweepInterval) {
+        this.memoryBudget = memoryBudget;
+        this.hibernateAfter = hibernateAfter;
+        this.compress = compress;
+        if (sweeper != null) {
+            sweeper.cancel();
+            sweeper = null;
+        }
+        if ((memoryBudget > 0 || hibernateAfter > 0) && sweepInterval > 0) {
+            sweeper = HashedWheelTimer.getDefault().scheduleAtFixedRate(this::scheduleSweep,
+                    sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void setLinger(long linger) {
+        this.linger = linger;
+    }
+
+    public WSSharedDoc get(Integer documentId) {
+        return documents.get(documentId);
+    }
+
+    public boolean containsKey(Integer documentId) {
+        return documents.containsKey(documentId);
+    }
+
+    /**
+     * 连接打开文档，文档不存在时创建并加载。必须和 {@link #disconnect(WSSharedDoc)} 成对调用
+     *
+     * @param factory 创建文档，在 map 锁内调用，不能有耗时操作
+     * @param loader  加载文档内容，只由创建文档的线程在 map 锁之外调用一次
+     */
+    public WSSharedDoc connect(Integer documentId, Function<Integer, WSSharedDoc> factory, Consumer<WSSharedDoc> loader) {
+        while (true) {
+            WSSharedDoc[] created = new WSSharedDoc[1];
+            WSSharedDoc doc = documents.computeIfAbsent(documentId, id -> {
+                WSSharedDoc newDoc = factory.apply(id);
+                newDoc.rehydrateListener = this::recordRehydrate;
+                newDoc.registry = this;
+                return created[0] = newDoc;
+            });
+            if (doc == created[0]) {
+                load(doc, loader);
+            } else {
+                // 等待其他连接发起的加载，加载失败时抛出同样的异常
+                doc.loaded.join();
+            }
+            synchronized (doc.lifecycleLock) {
+                if (doc.state == DocumentState.CLOSED) {
+                    // 拿到的文档刚好被卸载，重新创建
+                    continue;
+                }
+                if (doc.state == DocumentState.DRAINING) {
+                    doc.linger.cancel();
+                    doc.linger = null;
+                    doc.state = DocumentState.ACTIVE;
+                    reuses.incrementAndGet();
+                }
+                doc.sessions++;
+                return doc;
+            }
+        }
+    }
+
+    private void load(WSSharedDoc doc, Consumer<WSSharedDoc> loader) {
+        long start = System.nanoTime();
+        try {
+            loader.accept(doc);
+        } catch (RuntimeException e) {
+            synchronized (doc.lifecycleLock) {
+                doc.state = DocumentState.CLOSED;
+            }
+            documents.remove(doc.documentId, doc);
+            doc.unload();
+            doc.loaded.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (doc.lifecycleLock) {
+            doc.state = DocumentState.ACTIVE;
+        }
+        loads.incrementAndGet();
+        loadNanos.addAndGet(System.nanoTime() - start);
+        doc.loaded.complete(null);
+    }
+
+    /**
+     * 连接不再使用文档，最后一个连接断开时文档进入 DRAINING，linger 时间内没有新连接则卸载
+     */
+    public void disconnect(WSSharedDoc doc) {
+        long delay = linger;
+        synchronized (doc.lifecycleLock) {
+            if (--doc.sessions > 0 || doc.state != DocumentState.ACTIVE) {
+                return;
+            }
+            if (delay > 0) {
+                doc.state = DocumentState.DRAINING;
+                doc.linger = HashedWheelTimer.getDefault().schedule(() -> expire(doc), delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            doc.state = DocumentState.CLOSED;
+        }
+        unload(doc);
+    }
+
+    private void expire(WSSharedDoc doc) {
+        synchronized (doc.lifecycleLock) {
+            if (doc.state != DocumentState.DRAINING || doc.sessions > 0) {
+                return;
+            }
+            doc.linger = null;
+            doc.state = DocumentState.CLOSED;
+        }
+        unload(doc);
+    }
+
+    private void unload(WSSharedDoc doc) {
+        documents.remove(doc.documentId, doc);
+        unloads.incrementAndGet();
+        doc.unload();
+    }
+
+    public Collection<WSSharedDoc> values() {
+        return documents.values();
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * 开始使用文档内容，休眠的文档会被恢复。必须和 {@link #release(WSSharedDoc)} 成对调用
+     */
+    public void acquire(WSSharedDoc doc) {
+        if (doc.acquire()) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+    }
+
+    public void release(WSSharedDoc doc) {
+        doc.release();
+    }
+
+    private void recordRehydrate(long nanos) {
+        rehydrations.incrementAndGet();
+        rehydrateNanos.addAndGet(nanos);
+        maxRehydrateNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void scheduleSweep() {
+        // 休眠需要编码整个文档，不在时间轮线程上进行
+        if (sweeping.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("yjs-registry-sweeper").start(() -> {
+                try {
+                    sweep();
+                } catch (Exception e) {
+                    log.error("Error while hibernating documents", e);
+                } finally {
+                    sweeping.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 执行一次休眠检查
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        List<WSSharedDoc> active = new ArrayList<>();
+        long activeMemory = 0;
+        for (WSSharedDoc doc : documents.values()) {
+            // 加载中的文档不休眠
+            if (doc.isHibernated() || doc.state == DocumentState.LOADING || doc.state == DocumentState.CLOSED) {
+                continue;
+            }
+            if (hibernateAfter > 0 && now - doc.getLastAccess() >= TimeUnit.MILLISECONDS.toNanos(hibernateAfter)) {
+                hibernate(doc);
+                continue;
+            }
+            active.add(doc);
+            activeMemory += doc.estimateMemory();
+        }
+        if (memoryBudget <= 0 || activeMemory <= memoryBudget) {
+            return;
+        }
+        // 最久没有使用的先休眠
+        active.sort(Comparator.comparingLong(WSSharedDoc::getLastAccess));
+        for (WSSharedDoc doc : active) {
+            if (activeMemory <= memoryBudget) {
+                break;
+            }
+            long memory = doc.estimateMemory();
+            if (hibernate(doc)) {
+                activeMemory -= memory;
+            }
+        }
+    }
+
+    private boolean hibernate(WSSharedDoc doc) {
+        if (!doc.tryHibernate(compress)) {
+            return false;
+        }
+        hibernations.incrementAndGet();
+        log.debug("Document {} hibernated ({} bytes)", doc.documentId, doc.estimateMemory());
+        return true;
+    }
+
+    /**
+     * 使用时文档内容已经在内存中的次数
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * 使用时文档处于休眠状态、需要恢复的次数
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 创建（从持久化加载）文档的次数
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * 加载文档的总耗时（纳秒）
+     */
+    public long getLoadNanos() {
+        return loadNanos.get();
+    }
+
+    public long getUnloads() {
+        return unloads.get();
+    }
+
+    /**
+     * DRAINING 状态的文档被新连接重新使用的次数
+     */
+    public long getReuses() {
+        return reuses.get();
+    }
+
+    /**
+     * 处于指定状态的文档数量
+     */
+    public long count(DocumentState state) {
+        return documents.values().stream().filter(doc -> doc.getState() == state).count();
+    }
+
+    public long getHibernations() {
+        return hibernations.get();
+    }
+
+    public long getRehydrations() {
+        return rehydrations.get();
+    }
+
+    /**
+     * 恢复休眠文档的总耗时（纳秒）
+     */
+    public long getRehydrateNanos() {
+        return rehydrateNanos.get();
+    }
+
+    public long getMaxRehydrateNanos() {
+        return maxRehydrateNanos.get();
+    }
+
+    /**
+     * 估算的文档内存占用，休眠文档按保存的状态大小计算
+     */
+    public long getEstimatedMemory() {
+        return documents.values().stream().mapToLong(WSSharedDoc::estimateMemory).sum();
+    }
+}
@@ -0,0 +1,30 @@
+package com.triibiotech.yjs.websocket.handler;
+
+/**
+ * 文档在 {@link DocumentRegistry} 中的生命周期状态
+ *
+ * @author zbs
+ * @date 2026/10/18  19:05:12
+ */
+public enum DocumentState {
+    /**
+     * 正在从持久化加载，同一文档的其他连接等待加载完成
+     */
+    LOADING,
+    /**
+     * 有连接正在使用
+     */
+    ACTIVE,
+    /**
+     * 最后一个连接已经断开，等待 linger 时间后卸载，期间有新连接时回到 ACTIVE
+     */
+    DRAINING,
+    /**
+     * 文档内容已经编码保存，下次使用时恢复
+     */
+    HIBERNATED,
+    /**
+     * 已经从注册表中移除并卸载
+     */
+    CLOSED
+}
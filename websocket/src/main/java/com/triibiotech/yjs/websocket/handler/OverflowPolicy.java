@@ -0,0 +1,22 @@
+package com.triibiotech.yjs.websocket.handler;
+
+/**
+ * 连接发送队列满时的处理策略
+ *
+ * @author zbs
+ * @date 2026/10/18  14:40:18
+ */
+public enum OverflowPolicy {
+    /**
+     * 关闭连接，客户端重连后重新同步
+     */
+    DROP_SESSION,
+    /**
+     * 把队列中所有未发送的文档更新合并成一条，合并后仍然放不下时关闭连接
+     */
+    COALESCE,
+    /**
+     * 丢弃队列中所有未发送的文档更新，改为发送一次完整文档状态（SyncStep2）
+     */
+    RESYNC
+}
@@ -0,0 +1,421 @@
+package com.triibiotech.yjs.websocket.handler;
+
+import com.triibiotech.yjs.protocol.sync.SyncProtocol;
+import com.triibiotech.yjs.utils.HashedWheelTimer;
+import com.triibiotech.yjs.utils.UpdateProcessor;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个客户端连接
+ * <p>
+ * 每个连接有一个有界发送队列，由该连接独占的虚拟线程按序写出，发送慢的客户端只会阻塞自己的队列。
+ * 队列满时按 {@link OverflowPolicy} 处理。
+ *
+ * @author zbs
+ * @date 2026/10/18  14:42:51
+ */
+public class WSConnection {
+    static final Logger log = LoggerFactory.getLogger("WSConnection");
+
+    private static final Executor WRITERS = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("yjs-ws-writer-", 0).factory());
+
+    enum FrameType {
+        /**
+         * 文档更新，update 为原始更新数据，可以被合并
+         */
+        UPDATE,
+        MESSAGE,
+        PING
+    }
+
+    /**
+     * @param payload 只读消息体，可能被多个连接共享，发送时使用各自的 duplicate
+     */
+    record Frame(FrameType type, ByteBuffer payload, byte[] update) {
+        WebSocketMessage<?> toMessage() {
+            return type == FrameType.PING ? new PingMessage() : new BinaryMessage(payload.duplicate());
+        }
+    }
+
+    protected final WSSharedDoc doc;
+    protected final WebSocketSession session;
+    /**
+     * 该连接控制的 awareness clientId
+     */
+    protected final Set<Long> controlledIds = ConcurrentHashMap.newKeySet();
+    /**
+     * 客户端已经拥有的状态向量 client -> clock，为 null 时不跟踪
+     */
+    private final Map<Long, Long> knownState;
+    /**
+     * 正在应用该连接发来的同步消息，并且应用前文档没有 pending 数据。
+     * 此时文档产生的更新全部来自该连接，不需要回传给它
+     */
+    volatile boolean applyingOwnUpdate = false;
+    private final AtomicLong skippedUpdates = new AtomicLong();
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    /**
+     * 写线程是否在运行，由 this 保护
+     */
+    private boolean writing = false;
+    /**
+     * 写线程下次发送前需要先发送完整文档状态，由 this 保护
+     */
+    private boolean resyncRequired = false;
+    private volatile boolean closed = false;
+    private volatile int maxQueueDepth = 0;
+    /**
+     * 心跳，挂在全局时间轮上，不占用线程
+     */
+    private volatile HashedWheelTimer.Timeout heartbeat;
+    /**
+     * 上次 ping 之后是否收到了 pong
+     */
+    private volatile boolean pongReceived = true;
+
+    public WSConnection(WSSharedDoc doc, WebSocketSession session, int capacity, OverflowPolicy overflowPolicy) {
+        this(doc, session, capacity, overflowPolicy, false);
+    }
+
+    public WSConnection(WSSharedDoc doc, WebSocketSession session, int capacity, OverflowPolicy overflowPolicy, boolean trackState) {
+        this.doc = doc;
+        this.session = session;
+        this.capacity = Math.max(1, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.knownState = trackState ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * 发送消息
+     */
+    public void send(byte[] message) {
+        send(share(message));
+    }
+
+    /**
+     * 发送共享消息，message 需要是 {@link #share(byte[])} 返回的只读 buffer
+     */
+    public void send(ByteBuffer message) {
+        enqueue(new Frame(FrameType.MESSAGE, message, null));
+    }
+
+    /**
+     * 发送文档更新
+     *
+     * @param update  原始更新（V1）
+     * @param message 已编码的 sync update 消息，可以在多个连接间共享
+     */
+    public void sendUpdate(byte[] update, ByteBuffer message) {
+        enqueue(new Frame(FrameType.UPDATE, message, update));
+    }
+
+    /**
+     * 把编码好的消息包装成可以在多个连接间共享的只读 buffer
+     */
+    public static ByteBuffer share(byte[] message) {
+        return ByteBuffer.wrap(message).asReadOnlyBuffer();
+    }
+
+    /**
+     * 直接包装编码器的数组，不复制。编码器之后不能再写入，也不能是 {@link Encoder#acquire()} 取得的
+     */
+    public static ByteBuffer share(Encoder encoder) {
+        return Encoder.asByteBuffer(encoder).asReadOnlyBuffer();
+    }
+
+    public boolean isTrackingState() {
+        return knownState != null;
+    }
+
+    /**
+     * 客户端至少拥有 stateVector 中的所有数据
+     */
+    public void observeStateVector(Map<Long, Long> stateVector) {
+        if (knownState == null) {
+            return;
+        }
+        stateVector.forEach((client, clock) -> knownState.merge(client, clock, Math::max));
+    }
+
+    /**
+     * 客户端拥有（发送过或者将会收到）这个更新。
+     * 只有与已知状态连续的部分才能推进已知状态，否则客户端只会把它放进 pending
+     */
+    public void observeUpdate(UpdateProcessor.UpdateMeta meta) {
+        if (knownState == null || meta.hasSkips()) {
+            return;
+        }
+        meta.getTo().forEach((client, to) -> {
+            long from = meta.getFrom().getOrDefault(client, 0L);
+            knownState.compute(client, (k, known) -> {
+                long current = known == null ? 0 : known;
+                return from <= current ? Math.max(current, to) : current;
+            });
+        });
+    }
+
+    /**
+     * 客户端是否已经拥有这个更新中的全部数据
+     */
+    public boolean knowsUpdate(UpdateProcessor.UpdateMeta meta) {
+        if (knownState == null || meta.hasDeletes()) {
+            return false;
+        }
+        for (Map.Entry<Long, Long> entry : meta.getTo().entrySet()) {
+            if (entry.getValue() > knownState.getOrDefault(entry.getKey(), 0L)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从客户端发来的同步消息中更新已知状态
+     *
+     * @param decoder 指向 sync 消息类型的 decoder，会被读取
+     */
+    void observeSyncMessage(Decoder decoder) {
+        if (knownState == null) {
+            return;
+        }
+        try {
+            int type = Math.toIntExact(Decoder.readVarUint(decoder));
+            if (type == SyncProtocol.MESSAGE_YJS_SYNC_STEP1) {
+                observeStateVector(EncodingUtil.decodeStateVector(Decoder.readVarUint8Array(decoder)));
+            } else if (type == SyncProtocol.MESSAGE_YJS_SYNC_STEP2 || type == SyncProtocol.MESSAGE_YJS_UPDATE) {
+                observeUpdate(UpdateProcessor.parseUpdateMeta(Decoder.readVarUint8Array(decoder)));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to read state of sync message from {}", session.getId(), e);
+        }
+    }
+
+    /**
+     * 因为客户端已经拥有而没有发送的更新数
+     */
+    public long getSkippedUpdates() {
+        return skippedUpdates.get();
+    }
+
+    void skipUpdate() {
+        skippedUpdates.incrementAndGet();
+    }
+
+    public void ping() {
+        enqueue(new Frame(FrameType.PING, null, null));
+    }
+
+    /**
+     * 开始心跳：每个间隔发送一次 ping，上一次 ping 在一个间隔内没有收到 pong 时关闭连接
+     */
+    public void startHeartbeat(long intervalMillis) {
+        if (intervalMillis <= 0 || closed) {
+            return;
+        }
+        heartbeat = HashedWheelTimer.getDefault().scheduleAtFixedRate(this::checkHeartbeat,
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void pong() {
+        pongReceived = true;
+    }
+
+    private void checkHeartbeat() {
+        if (closed) {
+            stopHeartbeat();
+        } else if (!pongReceived) {
+            log.info("Heartbeat of {} timed out, closing connection", session.getId());
+            stopHeartbeat();
+            // 在时间轮线程之外关闭，不阻塞其他定时任务
+            WRITERS.execute(() -> DocWebSocketHandler.closeConnection(doc, session));
+        } else {
+            pongReceived = false;
+            ping();
+        }
+    }
+
+    private void stopHeartbeat() {
+        HashedWheelTimer.Timeout timeout = heartbeat;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 当前发送队列深度
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * 发送队列历史最大深度
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public Set<Long> getControlledIds() {
+        return controlledIds;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 停止发送并清空队列，不会关闭 session
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            resyncRequired = false;
+        }
+        stopHeartbeat();
+    }
+
+    private void enqueue(Frame frame) {
+        boolean startWriter = false;
+        boolean overflow = false;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            queue.add(frame);
+            if (queue.size() > capacity) {
+                overflow = !handleOverflow();
+            }
+            if (!overflow) {
+                maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+                if (!writing) {
+                    writing = true;
+                    startWriter = true;
+                }
+            }
+        }
+        if (overflow) {
+            log.warn("Outbound queue of {} overflowed ({} frames), closing connection", session.getId(), capacity);
+            DocWebSocketHandler.closeConnection(doc, session);
+            return;
+        }
+        if (startWriter) {
+            WRITERS.execute(this::drain);
+        }
+    }
+
+    /**
+     * 队列溢出处理，调用时持有 this
+     *
+     * @return 是否腾出了空间
+     */
+    private boolean handleOverflow() {
+        switch (overflowPolicy) {
+            case COALESCE: {
+                List<byte[]> updates = new ArrayList<>();
+                queue.removeIf(queued -> {
+                    if (queued.type() == FrameType.UPDATE) {
+                        updates.add(queued.update());
+                        return true;
+                    }
+                    return false;
+                });
+                if (!updates.isEmpty()) {
+                    byte[] merged = updates.size() == 1 ? updates.getFirst() : UpdateProcessor.mergeUpdates(updates);
+                    queue.add(new Frame(FrameType.UPDATE, share(encodeUpdateMessage(merged)), merged));
+                }
+                return queue.size() <= capacity;
+            }
+            case RESYNC: {
+                // 完整状态在写线程上生成，已经丢弃的更新都包含在其中
+                queue.removeIf(queued -> queued.type() == FrameType.UPDATE);
+                resyncRequired = true;
+                return queue.size() <= capacity;
+            }
+            case DROP_SESSION:
+            default:
+                return false;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Frame frame = null;
+            boolean resync;
+            synchronized (this) {
+                if (closed) {
+                    writing = false;
+                    return;
+                }
+                resync = resyncRequired;
+                resyncRequired = false;
+                if (!resync) {
+                    frame = queue.poll();
+                    if (frame == null) {
+                        writing = false;
+                        return;
+                    }
+                }
+            }
+            try {
+                if (!session.isOpen()) {
+                    DocWebSocketHandler.closeConnection(doc, session);
+                    return;
+                }
+                session.sendMessage(resync ? new BinaryMessage(encodeResyncMessage()) : frame.toMessage());
+            } catch (Exception e) {
+                log.error("Error sending message to {}:", session.getId(), e);
+                DocWebSocketHandler.closeConnection(doc, session);
+                return;
+            }
+        }
+    }
+
+    static byte[] encodeUpdateMessage(byte[] update) {
+        return Encoder.encode(encoder -> {
+            Encoder.writeVarUint(encoder, DocWebSocketHandler.MESSAGE_SYNC);
+            SyncProtocol.writeUpdate(encoder, update);
+        });
+    }
+
+    private byte[] encodeResyncMessage() {
+        return Encoder.encode(encoder -> {
+            Encoder.writeVarUint(encoder, DocWebSocketHandler.MESSAGE_SYNC);
+            // 文档可能已经休眠，不经过注册表打开的文档直接恢复
+            if (doc.registry != null) {
+                doc.registry.acquire(doc);
+            } else {
+                doc.acquire();
+            }
+            try {
+                doc.writeSyncStep2(encoder, null);
+            } finally {
+                doc.release();
+            }
+        });
+    }
+}
@@ -4,13 +4,33 @@ import com.alibaba.fastjson2.JSONObject;
 import com.triibiotech.yjs.protocol.awareness.Awareness;
 import com.triibiotech.yjs.protocol.awareness.AwarenessEventParams;
 import com.triibiotech.yjs.protocol.sync.SyncProtocol;
+import com.triibiotech.yjs.types.AbstractType;
 import com.triibiotech.yjs.utils.Doc;
 import com.triibiotech.yjs.utils.DocOptions;
+import com.triibiotech.yjs.utils.HashedWheelTimer;
+import com.triibiotech.yjs.utils.StructStore;
+import com.triibiotech.yjs.utils.Transaction;
+import com.triibiotech.yjs.utils.UpdateProcessor;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
 import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import com.triibiotech.yjs.websocket.persistence.DocPersistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.socket.WebSocketSession;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * wsshared doc
@@ -19,13 +39,119 @@ import java.util.concurrent.ConcurrentHashMap;
  * @date 2025/08/01  15:47:02
  */
 public class WSSharedDoc extends Doc {
+    static final Logger log = LoggerFactory.getLogger("WSSharedDoc");
+    /**
+     * 恢复内存中没有的文档内容（休眠后恢复、relay 文档实例化）时使用的事务来源，不广播也不保存
+     */
+    static final Object RESTORE_ORIGIN = new Object();
+    /**
+     * 空文档的 V1 更新和状态向量
+     */
+    private static final byte[] EMPTY_UPDATE = {0, 0};
+    private static final byte[] EMPTY_STATE_VECTOR = {0};
+    /**
+     * 每个 struct 估算占用的内存（字节）
+     */
+    private static final long STRUCT_SIZE_ESTIMATE = 160;
+
     protected Integer documentId;
-    protected Map<WebSocketSession, Set<Long>> connections;
+    protected Map<WebSocketSession, WSConnection> connections;
     protected Awareness awareness;
+    /**
+     * awareness 更新合并窗口（毫秒），小于等于 0 时每次变化立即广播
+     */
+    private final long awarenessCoalesceWindow;
+    /**
+     * 窗口内状态有更新、等待合并广播的 clientId，由自身保护
+     */
+    private final Set<Long> pendingAwareness = new LinkedHashSet<>();
+    private HashedWheelTimer.Timeout awarenessFlush;
+    private DocPersistence persistence;
+
+    /**
+     * 正在使用文档内容的调用方数量，大于 0 时不会休眠
+     */
+    private final AtomicInteger users = new AtomicInteger();
+    /**
+     * 保护休眠和恢复
+     */
+    private final Object hibernationLock = new Object();
+    /**
+     * 休眠时保存的文档状态，为 null 表示文档内容在内存中，由 hibernationLock 保护
+     */
+    private volatile byte[] hibernatedState;
+    private boolean hibernatedCompressed;
+    /**
+     * 正在休眠或者已经休眠
+     */
+    private volatile boolean hibernating = false;
+    /**
+     * 服务端通过 {@link #get(String, Class)} 或 {@link #materialize()} 取得过共享类型，可能持有类型或注册了监听，
+     * 休眠会替换 store 和 share，持有的类型之后收不到更新，所以这样的文档不再休眠
+     */
+    private volatile boolean pinned = false;
+    /**
+     * 恢复完成后回调恢复耗时（纳秒）
+     */
+    LongConsumer rehydrateListener;
+    /**
+     * 打开文档的注册表，由 {@link DocumentRegistry#connect} 设置，不经过注册表创建的文档为 null
+     */
+    DocumentRegistry registry;
+    private volatile long lastAccess = System.nanoTime();
+
+    /**
+     * 保护生命周期状态，由 {@link DocumentRegistry} 维护
+     */
+    final Object lifecycleLock = new Object();
+    volatile DocumentState state = DocumentState.LOADING;
+    /**
+     * 通过注册表打开文档的连接数，由 lifecycleLock 保护
+     */
+    int sessions = 0;
+    /**
+     * DRAINING 状态下等待卸载的定时任务
+     */
+    HashedWheelTimer.Timeout linger;
+    /**
+     * 加载完成（或失败）时完成
+     */
+    final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+    /**
+     * relay 模式下合并后的全部更新（V1），为 null 表示文档已经实例化，更新直接集成到 StructStore
+     */
+    private volatile byte[] relayState;
+    /**
+     * relayState 的状态向量
+     */
+    private byte[] relayStateVector;
+    private final Object relayLock = new Object();
 
     public WSSharedDoc(Integer documentId) {
-        super(new DocOptions().withGc(true));
+        this(documentId, false);
+    }
+
+    public WSSharedDoc(Integer documentId, boolean mailbox) {
+        this(documentId, mailbox, 0);
+    }
+
+    public WSSharedDoc(Integer documentId, boolean mailbox, long awarenessCoalesceWindow) {
+        this(documentId, mailbox, awarenessCoalesceWindow, false);
+    }
+
+    /**
+     * @param relay 只转发和保存更新：文档内容保存为一个合并后的更新，不集成到 StructStore，
+     *              直到服务端需要读取内容时（{@link #get(String, Class)}、{@link #materialize()}）才实例化
+     */
+    public WSSharedDoc(Integer documentId, boolean mailbox, long awarenessCoalesceWindow, boolean relay) {
+        super(new DocOptions().withGc(true).withMailbox(mailbox));
         this.documentId = documentId;
+        if (relay) {
+            this.relayState = EMPTY_UPDATE;
+            this.relayStateVector = EMPTY_STATE_VECTOR;
+        }
+        this.awarenessCoalesceWindow = awarenessCoalesceWindow;
         this.connections = new ConcurrentHashMap<>();
         this.awareness = new Awareness(this);
         this.awareness.setLocalState(JSONObject.from(new HashMap<>()));
@@ -34,10 +160,367 @@ public class WSSharedDoc extends Doc {
         this.on("update", (Handler) args -> {
             byte[] update = (byte[]) args[0];
             WSSharedDoc doc = (WSSharedDoc) args[2];
-            updateHandler(update, doc);
+            updateHandler(update, args[1], doc);
         });
     }
 
+    /**
+     * 从持久化加载文档内容，之后文档的每个更新都会追加保存。需要在文档有连接之前调用
+     */
+    public void bindPersistence(DocPersistence persistence) {
+        this.persistence = persistence;
+        List<byte[]> updates = persistence.loadUpdates(documentId);
+        if (!updates.isEmpty() && relayState != null) {
+            synchronized (relayLock) {
+                relayState = UpdateProcessor.mergeUpdates(updates);
+                relayStateVector = UpdateProcessor.encodeStateVectorFromUpdate(relayState);
+            }
+        } else if (!updates.isEmpty()) {
+            // 在一个事务中应用，只做一次事务清理；来源为 persistence，不会被再次保存
+            Transaction.transact(this, transaction -> {
+                updates.forEach(update -> EncodingUtil.applyUpdate(this, update, persistence));
+                return null;
+            }, persistence, false);
+        }
+        this.on("update", (Handler) args -> {
+            if (args[1] != persistence && args[1] != RESTORE_ORIGIN) {
+                persistence.storeUpdate(documentId, (byte[]) args[0]);
+            }
+        });
+    }
+
+    /**
+     * 开始使用文档内容，文档处于休眠状态时先恢复。必须和 {@link #release()} 成对调用。
+     * <p>
+     * 绑定了 mailbox 的文档在 mailbox 上恢复，调用方之后提交到 mailbox 的任务一定在恢复之后执行
+     *
+     * @return 是否需要恢复休眠的文档
+     */
+    boolean acquire() {
+        // 先登记再检查 hibernating，tryHibernate 先设置 hibernating 再检查 users，两边至少有一方能看到对方
+        users.incrementAndGet();
+        lastAccess = System.nanoTime();
+        if (!hibernating) {
+            return false;
+        }
+        if (getMailbox() != null && !getMailbox().inMailbox()) {
+            getMailbox().execute(this::rehydrate);
+            return true;
+        }
+        return rehydrate();
+    }
+
+    void release() {
+        lastAccess = System.nanoTime();
+        users.decrementAndGet();
+    }
+
+    private boolean rehydrate() {
+        synchronized (hibernationLock) {
+            byte[] state = hibernatedState;
+            if (state == null) {
+                return false;
+            }
+            long start = System.nanoTime();
+            byte[] update = hibernatedCompressed ? inflate(state) : state;
+            EncodingUtil.applyUpdate(this, update, RESTORE_ORIGIN);
+            hibernatedState = null;
+            hibernating = false;
+            if (rehydrateListener != null) {
+                rehydrateListener.accept(System.nanoTime() - start);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 休眠：把文档内容编码后保存，释放 StructStore。连接和 awareness 保留，下次 {@link #acquire()} 时恢复
+     *
+     * @param compress 是否 deflate 压缩
+     * @return 是否进入了休眠
+     */
+    boolean tryHibernate(boolean compress) {
+        if (getMailbox() != null && !getMailbox().inMailbox()) {
+            return getMailbox().call(() -> tryHibernate(compress));
+        }
+        synchronized (hibernationLock) {
+            // relay 文档本身就只保存编码后的更新
+            if (hibernatedState != null || relayState != null || pinned) {
+                return false;
+            }
+            hibernating = true;
+            if (users.get() > 0 || store.hasPending() || transaction != null) {
+                hibernating = false;
+                return false;
+            }
+            byte[] state = EncodingUtil.encodeStateAsUpdate(this, null);
+            // 服务端没有取得过共享类型（pinned），原有的类型没有被持有，重建 store 和 share 即可释放全部内容
+            long maxPendingStructs = store.maxPendingStructs;
+            store = new StructStore();
+            store.maxPendingStructs = maxPendingStructs;
+            share = new ConcurrentHashMap<>();
+            stateUpdateCache.clear();
+            stateVersion++;
+            hibernatedCompressed = compress;
+            hibernatedState = compress ? deflate(state) : state;
+            return true;
+        }
+    }
+
+    /**
+     * 生命周期状态，内容休眠的文档返回 {@link DocumentState#HIBERNATED}
+     */
+    public DocumentState getState() {
+        DocumentState current = state;
+        if ((current == DocumentState.ACTIVE || current == DocumentState.DRAINING) && isHibernated()) {
+            return DocumentState.HIBERNATED;
+        }
+        return current;
+    }
+
+    public boolean isHibernated() {
+        return hibernatedState != null;
+    }
+
+    /**
+     * 最近一次使用的时间（System.nanoTime）
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * 估算文档占用的内存：休眠时为保存的状态大小，否则按 struct 数量估算。可以在任意线程调用
+     */
+    public long estimateMemory() {
+        byte[] state = hibernatedState;
+        if (state == null) {
+            state = relayState;
+        }
+        if (state != null) {
+            return state.length;
+        }
+        // 在清理线程上调用，不遍历正在被修改的 client 列表，只读 store 维护的计数
+        return store.getStructCount() * STRUCT_SIZE_ESTIMATE;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated hibernated state");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt hibernated state", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 编码文档的完整状态（V1），用于压缩持久化的日志。文档休眠或者有 pending 的更新时返回 null
+     */
+    byte[] encodeSnapshot() {
+        if (getMailbox() != null && !getMailbox().inMailbox()) {
+            return getMailbox().call(this::encodeSnapshot);
+        }
+        synchronized (relayLock) {
+            if (relayState != null) {
+                return relayState;
+            }
+        }
+        synchronized (hibernationLock) {
+            if (hibernatedState != null || store.hasPending()) {
+                return null;
+            }
+            return EncodingUtil.encodeStateAsUpdateCached(this, null);
+        }
+    }
+
+    /**
+     * 是否处于 relay 模式，即文档内容还没有实例化
+     */
+    public boolean isRelay() {
+        return relayState != null;
+    }
+
+    /**
+     * 实例化 relay 文档：把合并后的更新集成到 StructStore，之后按普通文档处理。不是 relay 文档时什么都不做。
+     * <p>
+     * 通过 {@link #get(String, Class)} 读取共享类型时自动调用；只监听文档事件（afterTransaction 等）时需要先手动调用。
+     * 调用后文档不再休眠，见 {@link #isPinned()}
+     */
+    public void materialize() {
+        pinned = true;
+        if (relayState == null) {
+            return;
+        }
+        if (getMailbox() != null && !getMailbox().inMailbox()) {
+            getMailbox().call(() -> {
+                materialize();
+                return null;
+            });
+            return;
+        }
+        synchronized (relayLock) {
+            byte[] state = relayState;
+            if (state == null) {
+                return;
+            }
+            // 先切换模式，应用更新时解析父类型会再次调用 get
+            relayState = null;
+            relayStateVector = null;
+            EncodingUtil.applyUpdate(this, state, RESTORE_ORIGIN);
+        }
+    }
+
+    @Override
+    public <T extends AbstractType<?>> T get(String name, Class<T> typeConstructor) {
+        if (!resolvingUpdate(typeConstructor)) {
+            pinned = true;
+        }
+        if (relayState != null) {
+            materialize();
+        }
+        return super.get(name, typeConstructor);
+    }
+
+    /**
+     * 应用更新时按名字解析根类型（EncodingUtil 中的 {@code doc.get(name, AbstractType.class)}），不是服务端取得类型
+     */
+    private boolean resolvingUpdate(Class<?> typeConstructor) {
+        return typeConstructor == AbstractType.class && transaction != null
+                && (getMailbox() == null || getMailbox().inMailbox());
+    }
+
+    /**
+     * 是否被服务端取得过共享类型，这样的文档不会休眠
+     */
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * 处理同步消息，relay 模式下直接在合并后的更新上计算，不实例化文档
+     */
+    void readSyncMessage(Decoder decoder, Encoder encoder, Object origin) {
+        if (relayState != null) {
+            synchronized (relayLock) {
+                if (relayState != null) {
+                    readRelaySyncMessage(decoder, encoder, origin);
+                    return;
+                }
+            }
+        }
+        SyncProtocol.readSyncMessage(decoder, encoder, this, origin);
+    }
+
+    private void readRelaySyncMessage(Decoder decoder, Encoder encoder, Object origin) {
+        int messageType = Math.toIntExact(Decoder.readVarUint(decoder));
+        switch (messageType) {
+            case SyncProtocol.MESSAGE_YJS_SYNC_STEP1:
+                Encoder.writeVarUint(encoder, SyncProtocol.MESSAGE_YJS_SYNC_STEP2);
+                Encoder.writeVarUint8Array(encoder, UpdateProcessor.diffUpdate(relayState, Decoder.readVarUint8Array(decoder)));
+                break;
+            case SyncProtocol.MESSAGE_YJS_SYNC_STEP2:
+            case SyncProtocol.MESSAGE_YJS_UPDATE:
+                byte[] update = Decoder.readVarUint8Array(decoder);
+                byte[] merged;
+                try {
+                    merged = UpdateProcessor.mergeUpdates(List.of(relayState, update));
+                } catch (Exception e) {
+                    log.error("Caught error while relaying a Yjs update to {}", documentId, e);
+                    return;
+                }
+                if (Arrays.equals(merged, relayState)) {
+                    // 已经拥有的更新
+                    return;
+                }
+                relayState = merged;
+                relayStateVector = UpdateProcessor.encodeStateVectorFromUpdate(merged);
+                // 和实例化的文档一样通过 update 事件广播和保存
+                emit("update", update, origin, this, null);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message type: " + messageType);
+        }
+    }
+
+    void writeSyncStep1(Encoder encoder) {
+        if (relayState != null) {
+            synchronized (relayLock) {
+                if (relayState != null) {
+                    Encoder.writeVarUint(encoder, SyncProtocol.MESSAGE_YJS_SYNC_STEP1);
+                    Encoder.writeVarUint8Array(encoder, relayStateVector);
+                    return;
+                }
+            }
+        }
+        SyncProtocol.writeSyncStep1(encoder, this);
+    }
+
+    void writeSyncStep2(Encoder encoder, byte[] encodedStateVector) {
+        if (relayState != null) {
+            synchronized (relayLock) {
+                if (relayState != null) {
+                    Encoder.writeVarUint(encoder, SyncProtocol.MESSAGE_YJS_SYNC_STEP2);
+                    Encoder.writeVarUint8Array(encoder, encodedStateVector == null
+                            ? relayState : UpdateProcessor.diffUpdate(relayState, encodedStateVector));
+                    return;
+                }
+            }
+        }
+        SyncProtocol.writeSyncStep2(encoder, this, encodedStateVector);
+    }
+
+    /**
+     * 当前文档的状态向量
+     */
+    Map<Long, Long> getStateVector() {
+        if (relayState != null) {
+            synchronized (relayLock) {
+                if (relayState != null) {
+                    return EncodingUtil.decodeStateVector(relayStateVector);
+                }
+            }
+        }
+        return store.getStateVector();
+    }
+
+    /**
+     * 文档从内存中移除时调用，停止定时任务并释放持久化资源
+     */
+    void unload() {
+        awareness.destroy();
+        if (persistence != null) {
+            persistence.closeDocument(documentId);
+        }
+    }
+
     /**
      * 感知更改处理程序
      *
@@ -55,34 +538,109 @@ public class WSSharedDoc extends Doc {
     }
 
     private void awarenessChangeHandler(AwarenessEventParams params, WebSocketSession conn) {
-        List<Long> changedClients = new ArrayList<>();
-        changedClients.addAll(params.added);
-        changedClients.addAll(params.updated);
-        changedClients.addAll(params.removed);
         if (conn != null) {
-            Set<Long> connControlledIds = this.connections.get(conn);
-            if (connControlledIds != null) {
-                connControlledIds.addAll(params.added);
-                connControlledIds.addAll(params.removed);
+            WSConnection connection = this.connections.get(conn);
+            if (connection != null) {
+                connection.controlledIds.addAll(params.added);
+                connection.controlledIds.addAll(params.removed);
+            }
+        }
+        if (awarenessCoalesceWindow <= 0) {
+            List<Long> changedClients = new ArrayList<>();
+            changedClients.addAll(params.added);
+            changedClients.addAll(params.updated);
+            changedClients.addAll(params.removed);
+            broadcastAwareness(changedClients);
+            return;
+        }
+        // 加入和离开走优先通道立即广播，普通状态更新（光标移动等）在窗口内合并。
+        // 客户端按 clock 应用 awareness，优先通道与合并消息之间的乱序不影响结果
+        List<Long> priority = new ArrayList<>();
+        priority.addAll(params.added);
+        priority.addAll(params.removed);
+        synchronized (pendingAwareness) {
+            priority.forEach(pendingAwareness::remove);
+            if (!params.updated.isEmpty()) {
+                pendingAwareness.addAll(params.updated);
+                if (awarenessFlush == null) {
+                    awarenessFlush = HashedWheelTimer.getDefault().schedule(this::scheduleAwarenessFlush,
+                            awarenessCoalesceWindow, TimeUnit.MILLISECONDS);
+                }
             }
         }
+        if (!priority.isEmpty()) {
+            broadcastAwareness(priority);
+        }
+    }
+
+    private void scheduleAwarenessFlush() {
+        // 编码在文档的 mailbox 上进行，没有 mailbox 时在时间轮线程上进行
+        Executor executor = getMailbox() != null ? getMailbox() : Runnable::run;
+        executor.execute(this::flushAwareness);
+    }
+
+    /**
+     * 把窗口内合并的 awareness 更新作为一条消息广播
+     */
+    void flushAwareness() {
+        List<Long> clients;
+        synchronized (pendingAwareness) {
+            awarenessFlush = null;
+            clients = new ArrayList<>(pendingAwareness);
+            pendingAwareness.clear();
+        }
+        if (!clients.isEmpty()) {
+            broadcastAwareness(clients);
+        }
+    }
+
+    private void broadcastAwareness(List<Long> clients) {
         Encoder encoder = Encoder.createEncoder();
         Encoder.writeVarUint(encoder, DocWebSocketHandler.MESSAGE_AWARENESS);
-        Encoder.writeVarUint8Array(encoder, this.awareness.encodeAwarenessUpdate(changedClients, null));
-        byte[] buff = Encoder.toUint8Array(encoder);
-        this.connections.forEach((session, clients) -> {
-            DocWebSocketHandler.send(this, session, buff);
-        });
+        Encoder.writeVarUint8Array(encoder, this.awareness.encodeAwarenessUpdate(clients, null));
+        broadcast(WSConnection.share(encoder));
+    }
 
+    private void updateHandler(byte[] update, Object origin, WSSharedDoc doc) {
+        if (origin == RESTORE_ORIGIN) {
+            // 恢复休眠前的内容，客户端都已经拥有
+            return;
+        }
+        ByteBuffer message = null;
+        UpdateProcessor.UpdateMeta meta = null;
+        for (WSConnection connection : doc.connections.values()) {
+            // 更新来自该连接本身，不回传
+            boolean own = connection.session == origin && connection.applyingOwnUpdate;
+            if (connection.isTrackingState()) {
+                if (meta == null) {
+                    meta = UpdateProcessor.parseUpdateMeta(update);
+                }
+                boolean known = own || connection.knowsUpdate(meta);
+                connection.observeUpdate(meta);
+                if (known) {
+                    connection.skipUpdate();
+                    continue;
+                }
+            } else if (own) {
+                connection.skipUpdate();
+                continue;
+            }
+            if (message == null) {
+                // 只编码一次，所有连接共享同一个只读 buffer
+                message = WSConnection.share(WSConnection.encodeUpdateMessage(update));
+            }
+            connection.sendUpdate(update, message);
+        }
     }
 
-    private void updateHandler(byte[] update, WSSharedDoc doc) {
-        Encoder encoder = Encoder.createEncoder();
-        Encoder.writeVarUint(encoder, DocWebSocketHandler.MESSAGE_SYNC);
-        SyncProtocol.writeUpdate(encoder, update);
-        byte[] message = Encoder.toUint8Array(encoder);
-        doc.connections.forEach((session, clients) -> {
-            DocWebSocketHandler.send(doc, session, message);
-        });
+    /**
+     * 广播消息，只负责放入各连接的发送队列，实际发送由各连接的写线程完成
+     *
+     * @param message 共享的只读消息
+     */
+    protected void broadcast(ByteBuffer message) {
+        for (WSConnection connection : this.connections.values()) {
+            connection.send(message);
+        }
     }
 }
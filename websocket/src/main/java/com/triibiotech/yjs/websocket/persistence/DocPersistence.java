@@ -0,0 +1,49 @@
+package com.triibiotech.yjs.websocket.persistence;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 文档持久化 SPI
+ * <p>
+ * 文档创建时通过 {@link #loadUpdates(Integer)} 加载已有数据，之后文档产生的每个 update 都会通过
+ * {@link #storeUpdate(Integer, byte[])} 追加保存。storeUpdate 在文档的更新路径上调用，实现不能阻塞。
+ *
+ * @author zbs
+ * @date 2026/10/18  17:40:26
+ */
+public interface DocPersistence extends AutoCloseable {
+
+    /**
+     * 加载文档已保存的全部更新（V1），按保存顺序返回。
+     * 调用前已经提交的 storeUpdate 对返回结果可见
+     *
+     * @return 没有数据时返回空列表
+     */
+    List<byte[]> loadUpdates(Integer documentId);
+
+    /**
+     * 追加保存一个更新（V1），不阻塞调用线程
+     *
+     * @return 更新落盘后完成
+     */
+    CompletableFuture<Void> storeUpdate(Integer documentId, byte[] update);
+
+    /**
+     * 文档已经从内存中卸载，可以释放为它打开的资源。之后仍然可以再次加载
+     */
+    default void closeDocument(Integer documentId) {
+    }
+
+    /**
+     * 提供内存中文档的完整状态（V1），实现可以用它代替合并已保存的更新，例如压缩日志时。
+     * source 对不在内存中的文档返回 null
+     */
+    default void bindSnapshotSource(Function<Integer, byte[]> source) {
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,758 @@
+package com.triibiotech.yjs.websocket.persistence;
+
+import com.triibiotech.yjs.utils.UpdateProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 基于本地文件的文档持久化
+ * <p>
+ * 每个文档一个目录，更新按顺序追加到分段日志文件（{@code <documentId>/<segment>.log}）中，
+ * 每条记录为 {@code [长度 int][crc32 int][update]}。当前分段超过 segmentSize 后切换到下一个分段。
+ * <p>
+ * 所有写入由一个写线程完成：写线程每次取出队列中积压的全部请求依次写入，再对本批写过的文件统一 fsync（group commit），
+ * 然后完成这一批的 future，调用方只负责入队，不会被磁盘 IO 阻塞。
+ * 加载时校验每条记录的长度和 crc，遇到损坏或者写了一半的记录时停止读取该分段，写线程打开文档时会截掉最后一个分段的损坏尾部。
+ * <p>
+ * 一个文档追加的记录数达到 compactThreshold 后，后台压缩线程把它的日志合并成一条记录：先让写线程切换到新的分段，
+ * 之前的分段不再变化；再把这些分段中的更新用 {@link UpdateProcessor#mergeUpdates(List)} 合并（文档在内存中时直接使用文档的完整状态），
+ * 写入临时文件并 fsync 后原子重命名为最后一个旧分段，最后删除其余旧分段。任何一步中断都不会丢失数据，
+ * 最多留下重复的更新，重复应用更新不影响结果。加载时间因此和文档大小而不是编辑次数成正比。
+ *
+ * @author zbs
+ * @date 2026/10/18  17:46:03
+ */
+public class FileDocPersistence implements DocPersistence {
+    static final Logger log = LoggerFactory.getLogger("FileDocPersistence");
+
+    /**
+     * 记录头：长度 + crc32
+     */
+    static final int HEADER_SIZE = 8;
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String COMPACT_FILE = "compact.tmp";
+    /**
+     * 写线程一批最多处理的请求数
+     */
+    private static final int MAX_BATCH = 4096;
+
+    private enum OpType {
+        APPEND,
+        /**
+         * 之前提交的写入全部落盘后完成
+         */
+        BARRIER,
+        CLOSE_DOCUMENT,
+        /**
+         * 切换到新的分段，完成时返回新分段的序号
+         */
+        SEAL,
+        SHUTDOWN
+    }
+
+    private record Op(OpType type, Integer documentId, byte[] update, CompletableFuture<Long> future) {
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean fsync;
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    /**
+     * 打开的文档日志，只在写线程上访问
+     */
+    private final Map<Integer, SegmentWriter> writers = new HashMap<>();
+    /**
+     * writers 的大小，每批处理完后更新
+     */
+    private volatile int openLogs = 0;
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * 追加多少条记录后压缩，0 表示不自动压缩
+     */
+    private final long compactThreshold;
+    /**
+     * 压缩读写磁盘的速率上限（字节/秒），0 表示不限制
+     */
+    private final long compactionBytesPerSecond;
+    private final ExecutorService compactor;
+    /**
+     * 已经提交的压缩，同一文档同时只有一个压缩任务
+     */
+    private final Map<Integer, CompletableFuture<Void>> compacting = new ConcurrentHashMap<>();
+    /**
+     * 加载持有读锁，压缩替换分段时持有写锁，按文档分段加锁
+     */
+    private final ReadWriteLock[] documentLocks = new ReadWriteLock[64];
+    private final Object throttleLock = new Object();
+    private long throttleUntil = 0;
+    private volatile Function<Integer, byte[]> snapshotSource;
+
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong compactedRecords = new AtomicLong();
+    private final AtomicLong compactedBytes = new AtomicLong();
+    private final AtomicLong compactionOutputBytes = new AtomicLong();
+    private final AtomicLong compactionNanos = new AtomicLong();
+
+    /**
+     * 不自动压缩
+     *
+     * @param directory   数据目录
+     * @param segmentSize 单个分段文件的大小上限（字节）
+     * @param fsync       每批写入后是否 fsync
+     */
+    public FileDocPersistence(Path directory, long segmentSize, boolean fsync) {
+        this(directory, segmentSize, fsync, 0, 1, 0);
+    }
+
+    /**
+     * @param directory                数据目录
+     * @param segmentSize              单个分段文件的大小上限（字节）
+     * @param fsync                    每批写入后是否 fsync
+     * @param compactThreshold         文档追加多少条记录后压缩，0 表示不自动压缩
+     * @param compactionThreads        压缩线程数
+     * @param compactionBytesPerSecond 压缩读写磁盘的速率上限（字节/秒），0 表示不限制
+     */
+    public FileDocPersistence(Path directory, long segmentSize, boolean fsync,
+                              long compactThreshold, int compactionThreads, long compactionBytesPerSecond) {
+        this.directory = directory;
+        this.segmentSize = Math.max(segmentSize, HEADER_SIZE);
+        this.fsync = fsync;
+        this.compactThreshold = compactThreshold;
+        this.compactionBytesPerSecond = compactionBytesPerSecond;
+        for (int i = 0; i < documentLocks.length; i++) {
+            documentLocks[i] = new ReentrantReadWriteLock();
+        }
+        AtomicInteger compactorIds = new AtomicInteger();
+        this.compactor = Executors.newFixedThreadPool(Math.max(1, compactionThreads), runnable -> {
+            Thread thread = new Thread(runnable, "yjs-persistence-compactor-" + compactorIds.incrementAndGet());
+            thread.setDaemon(true);
+            // 压缩不和写入、消息处理抢 CPU
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create persistence directory " + directory, e);
+        }
+        this.writer = new Thread(this::run, "yjs-persistence-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public List<byte[]> loadUpdates(Integer documentId) {
+        // 等待该文档之前提交的写入完成
+        submit(OpType.BARRIER, documentId, null).join();
+        List<byte[]> updates = new ArrayList<>();
+        // 压缩替换分段期间不能读取
+        ReadWriteLock lock = documentLock(documentId);
+        lock.readLock().lock();
+        try {
+            for (Path segment : listSegments(documentDirectory(documentId))) {
+                long valid = readSegment(segment, updates);
+                long size = Files.size(segment);
+                if (valid < size) {
+                    log.warn("Ignoring {} corrupt or incomplete bytes at {} of {}", size - valid, valid, segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load document " + documentId, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return updates;
+    }
+
+    @Override
+    public CompletableFuture<Void> storeUpdate(Integer documentId, byte[] update) {
+        return submit(OpType.APPEND, documentId, update).thenApply(index -> null);
+    }
+
+    /**
+     * 压缩时如果文档在内存中，直接使用 source 返回的完整状态（V1），不再合并日志中的更新。
+     * source 返回 null 表示文档不在内存中或者状态不完整（例如有 pending 的更新）
+     */
+    @Override
+    public void bindSnapshotSource(Function<Integer, byte[]> source) {
+        this.snapshotSource = source;
+    }
+
+    @Override
+    public void closeDocument(Integer documentId) {
+        submit(OpType.CLOSE_DOCUMENT, documentId, null);
+    }
+
+    /**
+     * 等待之前提交的全部写入落盘
+     */
+    public void flush() {
+        submit(OpType.BARRIER, null, null).join();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        compactor.shutdown();
+        try {
+            if (!compactor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Compaction did not finish before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CompletableFuture<Long> shutdown = submit(OpType.SHUTDOWN, null, null);
+        closed = true;
+        shutdown.join();
+    }
+
+    /**
+     * 在后台压缩文档的日志，文档正在压缩时返回正在进行的压缩
+     */
+    public CompletableFuture<Void> compact(Integer documentId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> running = compacting.putIfAbsent(documentId, future);
+        if (running != null) {
+            return running;
+        }
+        try {
+            compactor.execute(() -> {
+                try {
+                    compactNow(documentId);
+                    compacting.remove(documentId, future);
+                    future.complete(null);
+                } catch (Exception e) {
+                    log.error("Failed to compact document {}", documentId, e);
+                    compacting.remove(documentId, future);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compacting.remove(documentId, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void compactNow(Integer documentId) throws IOException {
+        long start = System.nanoTime();
+        // 之前的分段之后不会再有写入
+        long active = submit(OpType.SEAL, documentId, null).join();
+        Path documentDirectory = documentDirectory(documentId);
+        List<Path> sealed = listSegments(documentDirectory).stream()
+                .filter(segment -> segmentIndex(segment) < active)
+                .toList();
+        if (sealed.isEmpty()) {
+            return;
+        }
+        List<byte[]> updates = new ArrayList<>();
+        long inputBytes = 0;
+        for (Path segment : sealed) {
+            readSegment(segment, updates);
+            long size = Files.size(segment);
+            inputBytes += size;
+            throttle(size);
+        }
+        if (sealed.size() == 1 && updates.size() <= 1) {
+            return;
+        }
+        // 分段已经写入的更新都已经集成到内存中的文档
+        Function<Integer, byte[]> source = snapshotSource;
+        byte[] merged = source == null ? null : source.apply(documentId);
+        if (merged == null) {
+            merged = updates.isEmpty() ? null : UpdateProcessor.mergeUpdates(updates);
+        }
+
+        Path target = sealed.getLast();
+        if (merged != null) {
+            Path temp = documentDirectory.resolve(COMPACT_FILE);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                CRC32 crc = new CRC32();
+                crc.update(merged);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(merged.length).putInt((int) crc.getValue()).flip();
+                ByteBuffer[] record = {header, ByteBuffer.wrap(merged)};
+                while (record[1].hasRemaining()) {
+                    channel.write(record);
+                }
+                channel.force(true);
+            }
+            throttle(HEADER_SIZE + merged.length);
+        }
+        ReadWriteLock lock = documentLock(documentId);
+        lock.writeLock().lock();
+        try {
+            if (merged != null) {
+                Files.move(documentDirectory.resolve(COMPACT_FILE), target,
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(target);
+            }
+            // 合并后的记录已经替换最后一个旧分段，删除其余旧分段
+            for (Path segment : sealed) {
+                if (segment != target) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        syncDirectory(documentDirectory);
+        compactions.incrementAndGet();
+        compactedRecords.addAndGet(updates.size());
+        compactedBytes.addAndGet(inputBytes);
+        compactionOutputBytes.addAndGet(merged == null ? 0 : HEADER_SIZE + merged.length);
+        compactionNanos.addAndGet(System.nanoTime() - start);
+        log.debug("Compacted {} records ({} bytes) of document {} into {} bytes", updates.size(), inputBytes,
+                documentId, merged == null ? 0 : merged.length);
+    }
+
+    private void syncDirectory(Path documentDirectory) {
+        if (!fsync) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(documentDirectory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 部分平台不支持打开目录
+            log.debug("Cannot sync directory {}", documentDirectory, e);
+        }
+    }
+
+    /**
+     * 按 compactionBytesPerSecond 限制压缩的磁盘读写速率
+     */
+    private void throttle(long bytes) {
+        if (compactionBytesPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (throttleLock) {
+            long now = System.nanoTime();
+            long begin = Math.max(throttleUntil, now);
+            throttleUntil = begin + bytes * 1_000_000_000L / compactionBytesPerSecond;
+            wait = begin - now;
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ReadWriteLock documentLock(Integer documentId) {
+        return documentLocks[Math.floorMod(documentId.hashCode(), documentLocks.length)];
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getAppendedRecords() {
+        return appendedRecords.get();
+    }
+
+    public long getAppendedBytes() {
+        return appendedBytes.get();
+    }
+
+    /**
+     * fsync 次数，和 {@link #getAppendedRecords()} 的比例反映 group commit 的效果
+     */
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    /**
+     * 被压缩合并的记录数
+     */
+    public long getCompactedRecords() {
+        return compactedRecords.get();
+    }
+
+    /**
+     * 压缩前的日志大小（字节）
+     */
+    public long getCompactedBytes() {
+        return compactedBytes.get();
+    }
+
+    /**
+     * 压缩后的日志大小（字节）
+     */
+    public long getCompactionOutputBytes() {
+        return compactionOutputBytes.get();
+    }
+
+    /**
+     * 压缩的总耗时（纳秒）
+     */
+    public long getCompactionNanos() {
+        return compactionNanos.get();
+    }
+
+    /**
+     * 打开的文档日志数，已经关闭的文档不占用文件句柄
+     */
+    public int getOpenLogs() {
+        return openLogs;
+    }
+
+    /**
+     * 等待写线程处理的请求数
+     */
+    public int getPendingOps() {
+        return queue.size();
+    }
+
+    private CompletableFuture<Long> submit(OpType type, Integer documentId, byte[] update) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("Persistence is closed"));
+            return future;
+        }
+        queue.add(new Op(type, documentId, update, future));
+        return future;
+    }
+
+    Path documentDirectory(Integer documentId) {
+        return directory.resolve(String.valueOf(documentId));
+    }
+
+    static List<Path> listSegments(Path documentDirectory) throws IOException {
+        if (!Files.isDirectory(documentDirectory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(documentDirectory)) {
+            // 文件名是定长的分段序号，按名字排序即按写入顺序
+            return files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    static String segmentName(long index) {
+        return String.format("%020d%s", index, SEGMENT_SUFFIX);
+    }
+
+    static long segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * 读取分段中完整且校验通过的记录
+     *
+     * @param updates 读到的记录追加到其中，可以为 null
+     * @return 有效数据的长度
+     */
+    static long readSegment(Path segment, List<byte[]> updates) throws IOException {
+        byte[] data = Files.readAllBytes(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        int pos = 0;
+        while (pos + HEADER_SIZE <= data.length) {
+            int len = buffer.getInt(pos);
+            int checksum = buffer.getInt(pos + 4);
+            if (len < 0 || len > data.length - pos - HEADER_SIZE) {
+                break;
+            }
+            crc.reset();
+            crc.update(data, pos + HEADER_SIZE, len);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            if (updates != null) {
+                updates.add(Arrays.copyOfRange(data, pos + HEADER_SIZE, pos + HEADER_SIZE + len));
+            }
+            pos += HEADER_SIZE + len;
+        }
+        return pos;
+    }
+
+    private void run() {
+        List<Op> batch = new ArrayList<>();
+        boolean shutdown = false;
+        while (!shutdown) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            shutdown = process(batch);
+            batch.clear();
+        }
+        // 关闭之后才入队的请求
+        Op op;
+        while ((op = queue.poll()) != null) {
+            op.future.completeExceptionally(new IllegalStateException("Persistence is closed"));
+        }
+    }
+
+    /**
+     * 处理一批请求
+     *
+     * @return 是否收到了关闭请求
+     */
+    private boolean process(List<Op> batch) {
+        batches.incrementAndGet();
+        boolean shutdown = false;
+        Set<SegmentWriter> dirty = new LinkedHashSet<>();
+        Map<Integer, IOException> failures = new HashMap<>();
+        Map<Op, Long> sealed = new HashMap<>();
+        Set<Integer> compact = new LinkedHashSet<>();
+        for (Op op : batch) {
+            switch (op.type) {
+                case APPEND: {
+                    if (failures.containsKey(op.documentId)) {
+                        break;
+                    }
+                    try {
+                        SegmentWriter segmentWriter = segmentWriter(op.documentId, compact);
+                        segmentWriter.append(op.update);
+                        dirty.add(segmentWriter);
+                        appendedRecords.incrementAndGet();
+                        appendedBytes.addAndGet(op.update.length);
+                        if (compactThreshold > 0 && ++segmentWriter.records >= compactThreshold) {
+                            segmentWriter.records = 0;
+                            compact.add(op.documentId);
+                        }
+                    } catch (IOException e) {
+                        log.error("Failed to append update of document {}", op.documentId, e);
+                        failures.put(op.documentId, e);
+                    }
+                    break;
+                }
+                case CLOSE_DOCUMENT: {
+                    SegmentWriter segmentWriter = writers.remove(op.documentId);
+                    if (segmentWriter != null) {
+                        dirty.remove(segmentWriter);
+                        try {
+                            segmentWriter.close();
+                        } catch (IOException e) {
+                            log.error("Failed to close log of document {}", op.documentId, e);
+                            failures.put(op.documentId, e);
+                        }
+                    }
+                    break;
+                }
+                case SEAL: {
+                    if (failures.containsKey(op.documentId)) {
+                        break;
+                    }
+                    // 文档可能已经关闭（最后一个连接离开后才执行的压缩），封存时临时打开的日志用完就关闭
+                    boolean open = writers.containsKey(op.documentId);
+                    try {
+                        SegmentWriter segmentWriter = segmentWriter(op.documentId, null);
+                        segmentWriter.roll();
+                        dirty.remove(segmentWriter);
+                        sealed.put(op, segmentWriter.segment);
+                    } catch (IOException e) {
+                        log.error("Failed to seal log of document {}", op.documentId, e);
+                        failures.put(op.documentId, e);
+                    } finally {
+                        SegmentWriter segmentWriter = open ? null : writers.remove(op.documentId);
+                        if (segmentWriter != null) {
+                            try {
+                                segmentWriter.close();
+                            } catch (IOException e) {
+                                log.error("Failed to close log of document {}", op.documentId, e);
+                            }
+                        }
+                    }
+                    break;
+                }
+                case SHUTDOWN: {
+                    shutdown = true;
+                    break;
+                }
+                case BARRIER:
+                default:
+                    break;
+            }
+        }
+        // group commit：一批写入只 fsync 一次
+        for (SegmentWriter segmentWriter : dirty) {
+            try {
+                segmentWriter.sync();
+            } catch (IOException e) {
+                log.error("Failed to sync {}", segmentWriter.documentDirectory, e);
+                writers.entrySet().stream()
+                        .filter(entry -> entry.getValue() == segmentWriter)
+                        .forEach(entry -> failures.put(entry.getKey(), e));
+            }
+        }
+        if (shutdown) {
+            for (SegmentWriter segmentWriter : writers.values()) {
+                try {
+                    segmentWriter.close();
+                } catch (IOException e) {
+                    log.error("Failed to close {}", segmentWriter.documentDirectory, e);
+                }
+            }
+            writers.clear();
+        }
+        openLogs = writers.size();
+        for (Op op : batch) {
+            IOException failure = op.documentId == null ? null : failures.get(op.documentId);
+            if (failure != null && (op.type == OpType.APPEND || op.type == OpType.SEAL)) {
+                op.future.completeExceptionally(failure);
+            } else {
+                op.future.complete(sealed.get(op));
+            }
+        }
+        if (!shutdown) {
+            compact.forEach(this::compact);
+        }
+        return shutdown;
+    }
+
+    /**
+     * 打开文档的日志
+     *
+     * @param compact 打开时发现上次留下了多个分段，需要压缩的文档加入其中，可以为 null
+     */
+    private SegmentWriter segmentWriter(Integer documentId, Set<Integer> compact) throws IOException {
+        SegmentWriter segmentWriter = writers.get(documentId);
+        if (segmentWriter == null) {
+            segmentWriter = new SegmentWriter(documentDirectory(documentId));
+            writers.put(documentId, segmentWriter);
+            if (compact != null && compactThreshold > 0 && segmentWriter.segments > 2) {
+                compact.add(documentId);
+            }
+        }
+        return segmentWriter;
+    }
+
+    /**
+     * 一个文档的日志，只在写线程上访问
+     */
+    private final class SegmentWriter {
+        private final Path documentDirectory;
+        private long segment;
+        private FileChannel channel;
+        private long size;
+        private boolean dirty = false;
+        /**
+         * 打开时已有的分段数
+         */
+        private int segments = 0;
+        /**
+         * 上次压缩之后追加的记录数
+         */
+        private long records = 0;
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private final CRC32 crc = new CRC32();
+
+        SegmentWriter(Path documentDirectory) throws IOException {
+            this.documentDirectory = documentDirectory;
+            Files.createDirectories(documentDirectory);
+            List<Path> segments = listSegments(documentDirectory);
+            this.segments = segments.size();
+            if (segments.isEmpty()) {
+                open(0);
+                return;
+            }
+            Path last = segments.getLast();
+            long valid = readSegment(last, null);
+            this.segment = segmentIndex(last);
+            this.channel = FileChannel.open(last, StandardOpenOption.WRITE);
+            if (channel.size() > valid) {
+                // 上次写了一半的记录
+                log.warn("Truncating {} from {} to {} bytes", last, channel.size(), valid);
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            channel.position(valid);
+            this.size = valid;
+        }
+
+        private void open(long index) throws IOException {
+            this.segment = index;
+            this.channel = FileChannel.open(documentDirectory.resolve(segmentName(index)),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.size = channel.size();
+        }
+
+        void append(byte[] update) throws IOException {
+            long recordSize = HEADER_SIZE + (long) update.length;
+            if (size + recordSize > segmentSize) {
+                roll();
+            }
+            crc.reset();
+            crc.update(update);
+            header.clear();
+            header.putInt(update.length).putInt((int) crc.getValue()).flip();
+            ByteBuffer[] record = {header, ByteBuffer.wrap(update)};
+            while (record[1].hasRemaining()) {
+                channel.write(record);
+            }
+            size += recordSize;
+            dirty = true;
+        }
+
+        /**
+         * 切换到新的分段，当前分段为空时不切换
+         */
+        void roll() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            sync();
+            channel.close();
+            open(segment + 1);
+        }
+
+        void sync() throws IOException {
+            if (dirty && fsync) {
+                channel.force(false);
+                syncs.incrementAndGet();
+            }
+            dirty = false;
+        }
+
+        void close() throws IOException {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
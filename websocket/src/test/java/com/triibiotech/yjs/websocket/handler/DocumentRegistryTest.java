@@ -0,0 +1,98 @@
+package com.triibiotech.yjs.websocket.handler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentRegistryTest {
+
+    @Test
+    void testConcurrentConnectsLoadOnce() throws Exception {
+        DocumentRegistry registry = new DocumentRegistry();
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger loaded = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<WSSharedDoc>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return registry.connect(1, id -> {
+                        created.incrementAndGet();
+                        return new WSSharedDoc(id);
+                    }, doc -> {
+                        loaded.incrementAndGet();
+                        // 加载期间其他连接等待
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        assertEquals(DocumentState.LOADING, doc.getState());
+                    });
+                }));
+            }
+            start.countDown();
+            WSSharedDoc doc = futures.getFirst().get();
+            for (Future<WSSharedDoc> future : futures) {
+                assertSame(doc, future.get());
+            }
+            assertEquals(1, created.get());
+            assertEquals(1, loaded.get());
+            assertEquals(DocumentState.ACTIVE, doc.getState());
+
+            for (int i = 0; i < 8; i++) {
+                registry.disconnect(doc);
+            }
+            assertEquals(DocumentState.CLOSED, doc.getState());
+            assertNull(registry.get(1));
+        }
+    }
+
+    @Test
+    void testDrainingDocumentIsReused() throws Exception {
+        DocumentRegistry registry = new DocumentRegistry();
+        registry.setLinger(200);
+        AtomicInteger loaded = new AtomicInteger();
+        WSSharedDoc doc = registry.connect(2, WSSharedDoc::new, d -> loaded.incrementAndGet());
+        registry.disconnect(doc);
+        assertEquals(DocumentState.DRAINING, doc.getState());
+
+        // linger 时间内重连
+        assertSame(doc, registry.connect(2, WSSharedDoc::new, d -> loaded.incrementAndGet()));
+        assertEquals(DocumentState.ACTIVE, doc.getState());
+        assertEquals(1, loaded.get());
+        assertEquals(1, registry.getReuses());
+
+        registry.disconnect(doc);
+        Thread.sleep(500);
+        assertEquals(DocumentState.CLOSED, doc.getState());
+        assertNull(registry.get(2));
+        assertEquals(1, registry.getUnloads());
+
+        WSSharedDoc reloaded = registry.connect(2, WSSharedDoc::new, d -> loaded.incrementAndGet());
+        assertNotSame(doc, reloaded);
+        assertEquals(2, loaded.get());
+        registry.disconnect(reloaded);
+    }
+
+    @Test
+    void testFailedLoadIsRetried() {
+        DocumentRegistry registry = new DocumentRegistry();
+        assertThrows(IllegalStateException.class, () -> registry.connect(3, WSSharedDoc::new, doc -> {
+            throw new IllegalStateException("storage unavailable");
+        }));
+        assertNull(registry.get(3));
+        WSSharedDoc doc = registry.connect(3, WSSharedDoc::new, d -> {});
+        assertEquals(DocumentState.ACTIVE, doc.getState());
+        registry.disconnect(doc);
+    }
+}
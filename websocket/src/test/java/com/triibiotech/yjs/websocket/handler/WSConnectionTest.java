@@ -0,0 +1,195 @@
+package com.triibiotech.yjs.websocket.handler;
+
+import com.triibiotech.yjs.protocol.sync.SyncProtocol;
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WSConnectionTest {
+    private static final byte MESSAGE_PLACEHOLDER = 9;
+
+    private static WSConnection connect(WSSharedDoc doc, TestWebSocketSession session, int capacity, OverflowPolicy policy) {
+        WSConnection connection = new WSConnection(doc, session, capacity, policy);
+        doc.connections.put(session, connection);
+        return connection;
+    }
+
+    /**
+     * 阻塞写线程：先发送一条消息，等写线程把它取走并阻塞在发送上
+     */
+    private static void stall(WSConnection connection, TestWebSocketSession session) throws InterruptedException {
+        session.block();
+        connection.send(new byte[]{MESSAGE_PLACEHOLDER});
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, connection.getQueueDepth());
+    }
+
+    private static List<WebSocketMessage<?>> receive(TestWebSocketSession session, int atLeast) throws InterruptedException {
+        List<WebSocketMessage<?>> messages = new ArrayList<>();
+        while (messages.size() < atLeast) {
+            WebSocketMessage<?> message = session.sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message, "expected " + atLeast + " messages, got " + messages.size());
+            messages.add(message);
+        }
+        // 等待可能还在路上的消息
+        WebSocketMessage<?> message;
+        while ((message = session.sent.poll(200, TimeUnit.MILLISECONDS)) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static Doc replay(List<WebSocketMessage<?>> messages) {
+        Doc target = new Doc();
+        for (WebSocketMessage<?> message : messages) {
+            ByteBuffer payload = ((BinaryMessage) message).getPayload();
+            byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            Decoder decoder = Decoder.createDecoder(bytes);
+            if (Decoder.readVarUint(decoder) == DocWebSocketHandler.MESSAGE_SYNC) {
+                SyncProtocol.readSyncMessage(decoder, Encoder.createEncoder(), target, null);
+            }
+        }
+        return target;
+    }
+
+    @Test
+    void testSlowSessionDoesNotBlockOthers() throws Exception {
+        WSSharedDoc doc = new WSSharedDoc(-1);
+        TestWebSocketSession slow = new TestWebSocketSession("slow");
+        TestWebSocketSession fast = new TestWebSocketSession("fast");
+        WSConnection slowConnection = connect(doc, slow, 1024, OverflowPolicy.DROP_SESSION);
+        connect(doc, fast, 1024, OverflowPolicy.DROP_SESSION);
+        stall(slowConnection, slow);
+
+        doc.getText("text").insert(0, "hello");
+
+        Doc received = replay(receive(fast, 1));
+        assertEquals("hello", received.getText("text").toString());
+        assertEquals(1, slowConnection.getQueueDepth());
+        slow.unblock();
+    }
+
+    @Test
+    void testBroadcastSharesEncodedMessage() throws Exception {
+        WSSharedDoc doc = new WSSharedDoc(-1);
+        List<TestWebSocketSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            TestWebSocketSession session = new TestWebSocketSession("viewer-" + i);
+            connect(doc, session, 16, OverflowPolicy.DROP_SESSION);
+            sessions.add(session);
+        }
+        // 一个卡住的客户端不影响更新的应用和其他客户端
+        stall(doc.connections.get(sessions.getFirst()), sessions.getFirst());
+
+        doc.getText("text").insert(0, "shared");
+
+        ByteBuffer first = null;
+        for (TestWebSocketSession session : sessions.subList(1, sessions.size())) {
+            WebSocketMessage<?> message = session.sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message);
+            ByteBuffer payload = ((BinaryMessage) message).getPayload();
+            assertTrue(payload.isReadOnly());
+            if (first == null) {
+                first = payload;
+            }
+            assertEquals(first, payload);
+            assertEquals("shared", replay(List.of(message)).getText("text").toString());
+        }
+        sessions.getFirst().unblock();
+    }
+
+    @Test
+    void testCoalesce() throws Exception {
+        WSSharedDoc doc = new WSSharedDoc(-1);
+        TestWebSocketSession session = new TestWebSocketSession("coalesce");
+        WSConnection connection = connect(doc, session, 4, OverflowPolicy.COALESCE);
+        stall(connection, session);
+
+        for (int i = 0; i < 20; i++) {
+            doc.getText("text").insert(i, String.valueOf(i % 10));
+        }
+        assertTrue(connection.getQueueDepth() <= 4);
+        assertTrue(connection.getMaxQueueDepth() <= 4);
+        assertFalse(connection.isClosed());
+
+        session.unblock();
+        List<WebSocketMessage<?>> messages = receive(session, 2);
+        assertTrue(messages.size() <= 5);
+        assertEquals(doc.getText("text").toString(), replay(messages).getText("text").toString());
+    }
+
+    @Test
+    void testResync() throws Exception {
+        WSSharedDoc doc = new WSSharedDoc(-1);
+        TestWebSocketSession session = new TestWebSocketSession("resync");
+        WSConnection connection = connect(doc, session, 3, OverflowPolicy.RESYNC);
+        stall(connection, session);
+
+        for (int i = 0; i < 10; i++) {
+            doc.getText("text").insert(0, "a");
+        }
+        assertTrue(connection.getQueueDepth() <= 3);
+
+        session.unblock();
+        List<WebSocketMessage<?>> messages = receive(session, 2);
+        assertEquals("aaaaaaaaaa", replay(messages).getText("text").toString());
+    }
+
+    @Test
+    void testDropSession() throws Exception {
+        WSSharedDoc doc = new WSSharedDoc(-1);
+        TestWebSocketSession session = new TestWebSocketSession("drop");
+        WSConnection connection = connect(doc, session, 2, OverflowPolicy.DROP_SESSION);
+        stall(connection, session);
+
+        for (int i = 0; i < 3; i++) {
+            doc.getText("text").insert(0, "a");
+        }
+        assertTrue(connection.isClosed());
+        assertFalse(session.isOpen());
+        assertFalse(doc.connections.containsKey(session));
+        assertEquals(0, connection.getQueueDepth());
+        session.unblock();
+    }
+
+    @Test
+    void testHeartbeat() throws Exception {
+        WSSharedDoc doc = new WSSharedDoc(-1);
+        TestWebSocketSession alive = new TestWebSocketSession("alive");
+        TestWebSocketSession dead = new TestWebSocketSession("dead");
+        WSConnection aliveConnection = connect(doc, alive, 16, OverflowPolicy.DROP_SESSION);
+        WSConnection deadConnection = connect(doc, dead, 16, OverflowPolicy.DROP_SESSION);
+        aliveConnection.startHeartbeat(200);
+        deadConnection.startHeartbeat(200);
+
+        for (int i = 0; i < 3; i++) {
+            assertInstanceOf(PingMessage.class, alive.sent.poll(5, TimeUnit.SECONDS));
+            aliveConnection.pong();
+        }
+        // dead 从不回复 pong，第二个间隔到达时被关闭
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dead.isOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(dead.isOpen());
+        assertTrue(deadConnection.isClosed());
+        assertFalse(aliveConnection.isClosed());
+        assertTrue(alive.isOpen());
+        aliveConnection.close();
+    }
+}
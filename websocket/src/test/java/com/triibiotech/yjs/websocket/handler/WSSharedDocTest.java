@@ -0,0 +1,452 @@
+package com.triibiotech.yjs.websocket.handler;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.triibiotech.yjs.protocol.awareness.Awareness;
+import com.triibiotech.yjs.protocol.sync.SyncProtocol;
+import com.triibiotech.yjs.types.YText;
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import com.triibiotech.yjs.websocket.config.YjsWebSocketProperties;
+import com.triibiotech.yjs.websocket.persistence.FileDocPersistence;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WSSharedDocTest {
+    private static final AtomicInteger DOCUMENT_IDS = new AtomicInteger(100000);
+
+    private static TestWebSocketSession open(DocWebSocketHandler handler, int documentId, int userId) {
+        TestWebSocketSession session = new TestWebSocketSession("session-" + userId);
+        session.getAttributes().put("documentId", documentId);
+        session.getAttributes().put("userId", userId);
+        handler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    private static List<byte[]> drain(TestWebSocketSession session) throws InterruptedException {
+        List<byte[]> messages = new ArrayList<>();
+        WebSocketMessage<?> message;
+        while ((message = session.sent.poll(300, TimeUnit.MILLISECONDS)) != null) {
+            ByteBuffer payload = ((BinaryMessage) message).getPayload();
+            byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            messages.add(bytes);
+        }
+        return messages;
+    }
+
+    private static long countSyncUpdates(List<byte[]> messages) {
+        return messages.stream().filter(bytes -> {
+            Decoder decoder = Decoder.createDecoder(bytes);
+            return Decoder.readVarUint(decoder) == DocWebSocketHandler.MESSAGE_SYNC
+                    && Decoder.readVarUint(decoder) == SyncProtocol.MESSAGE_YJS_UPDATE;
+        }).count();
+    }
+
+    private static BinaryMessage updateMessage(byte[] update) {
+        Encoder encoder = Encoder.createEncoder();
+        Encoder.writeVarUint(encoder, DocWebSocketHandler.MESSAGE_SYNC);
+        SyncProtocol.writeUpdate(encoder, update);
+        return new BinaryMessage(Encoder.toUint8Array(encoder));
+    }
+
+    private static List<byte[]> awarenessMessages(List<byte[]> messages) {
+        return messages.stream().filter(bytes -> Decoder.readVarUint(Decoder.createDecoder(bytes)) == DocWebSocketHandler.MESSAGE_AWARENESS).toList();
+    }
+
+    private static BinaryMessage awarenessMessage(Awareness awareness) {
+        Encoder encoder = Encoder.createEncoder();
+        Encoder.writeVarUint(encoder, DocWebSocketHandler.MESSAGE_AWARENESS);
+        Encoder.writeVarUint8Array(encoder, awareness.encodeAwarenessUpdate(List.of(awareness.getClientId()), null));
+        return new BinaryMessage(Encoder.toUint8Array(encoder));
+    }
+
+    private static BinaryMessage syncStep1Message(Doc doc) {
+        Encoder encoder = Encoder.createEncoder();
+        Encoder.writeVarUint(encoder, DocWebSocketHandler.MESSAGE_SYNC);
+        SyncProtocol.writeSyncStep1(encoder, doc);
+        return new BinaryMessage(Encoder.toUint8Array(encoder));
+    }
+
+    @Test
+    void testUpdateIsNotEchoedToOrigin() throws Exception {
+        DocWebSocketHandler handler = new DocWebSocketHandler();
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+        TestWebSocketSession a = open(handler, documentId, 1);
+        TestWebSocketSession b = open(handler, documentId, 2);
+        drain(a);
+        drain(b);
+
+        Doc client = new Doc();
+        client.getText("text").insert(0, "hello");
+        handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)));
+
+        assertEquals(0, countSyncUpdates(drain(a)));
+        assertEquals(1, countSyncUpdates(drain(b)));
+
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(b, CloseStatus.NORMAL);
+    }
+
+    @Test
+    void testKnownStateSkipsUpdatesPeerAlreadyHas() throws Exception {
+        YjsWebSocketProperties properties = new YjsWebSocketProperties();
+        properties.setTrackPeerState(true);
+        DocWebSocketHandler handler = new DocWebSocketHandler(properties);
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+        TestWebSocketSession a = open(handler, documentId, 1);
+        TestWebSocketSession b = open(handler, documentId, 2);
+
+        Doc clientA = new Doc();
+        clientA.getText("text").insert(0, "hello");
+        byte[] update = EncodingUtil.encodeStateAsUpdate(clientA, null);
+
+        // b 已经通过其他途径拿到了 a 的数据，SyncStep1 中带上了对应的状态向量
+        Doc clientB = new Doc();
+        EncodingUtil.applyUpdate(clientB, update);
+        handler.handleBinaryMessage(b, syncStep1Message(clientB));
+        drain(a);
+        drain(b);
+
+        handler.handleBinaryMessage(a, updateMessage(update));
+        assertEquals(0, countSyncUpdates(drain(b)));
+
+        // 新的数据仍然会发送
+        clientA.getText("text").insert(5, " world");
+        handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(clientA, EncodingUtil.encodeStateVector(clientB))));
+        List<byte[]> received = drain(b);
+        assertEquals(1, countSyncUpdates(received));
+        // 删除总是发送
+        clientA.getText("text").delete(0, 1);
+        handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(clientA, null)));
+        received.addAll(drain(b));
+        assertEquals(2, countSyncUpdates(received));
+
+        for (byte[] bytes : received) {
+            Decoder decoder = Decoder.createDecoder(bytes);
+            Decoder.readVarUint(decoder);
+            SyncProtocol.readSyncMessage(decoder, Encoder.createEncoder(), clientB, null);
+        }
+        assertEquals("ello world", clientB.getText("text").toString());
+
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(b, CloseStatus.NORMAL);
+    }
+
+    @Test
+    void testAwarenessUpdatesAreCoalesced() throws Exception {
+        YjsWebSocketProperties properties = new YjsWebSocketProperties();
+        properties.setAwarenessCoalesceWindow(50);
+        DocWebSocketHandler handler = new DocWebSocketHandler(properties);
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+        TestWebSocketSession a = open(handler, documentId, 1);
+        TestWebSocketSession b = open(handler, documentId, 2);
+        drain(a);
+        drain(b);
+
+        Doc clientA = new Doc();
+        Awareness awarenessA = new Awareness(clientA);
+        awarenessA.setLocalState(JSONObject.of("cursor", -1));
+        // 加入立即广播
+        handler.handleBinaryMessage(a, awarenessMessage(awarenessA));
+        assertNotNull(b.sent.poll(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 30; i++) {
+            awarenessA.setLocalState(JSONObject.of("cursor", i));
+            handler.handleBinaryMessage(a, awarenessMessage(awarenessA));
+        }
+        List<byte[]> received = awarenessMessages(drain(b));
+        assertFalse(received.isEmpty());
+        assertTrue(received.size() < 5, "expected coalesced awareness updates, got " + received.size());
+        Decoder decoder = Decoder.createDecoder(received.getLast());
+        Decoder.readVarUint(decoder);
+        Decoder update = Decoder.createDecoder(Decoder.readVarUint8Array(decoder));
+        assertEquals(1, Decoder.readVarUint(update));
+        assertEquals(awarenessA.getClientId(), Decoder.readVarUint(update));
+        assertEquals(awarenessA.getMeta(awarenessA.getClientId()).clock(), Decoder.readVarUint(update));
+        assertEquals(29, JSON.parseObject(Decoder.readVarString(update)).getIntValue("cursor"));
+
+        // 离开立即广播
+        awarenessA.setLocalState(null);
+        handler.handleBinaryMessage(a, awarenessMessage(awarenessA));
+        assertEquals(1, awarenessMessages(List.of(drain(b).getFirst())).size());
+
+        awarenessA.destroy();
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(b, CloseStatus.NORMAL);
+    }
+
+    @Test
+    void testDocumentIsRestoredFromPersistence(@TempDir Path directory) throws Exception {
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 1024 * 1024, true)) {
+            DocWebSocketHandler handler = new DocWebSocketHandler(new YjsWebSocketProperties(), persistence);
+            TestWebSocketSession a = open(handler, documentId, 1);
+            Doc client = new Doc();
+            client.getText("text").insert(0, "persisted");
+            handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)));
+            // 最后一个连接断开，文档从内存中移除
+            handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+            persistence.flush();
+            assertEquals(1, persistence.getAppendedRecords());
+
+            TestWebSocketSession b = open(handler, documentId, 2);
+            drain(b);
+            handler.handleBinaryMessage(b, syncStep1Message(new Doc()));
+            Doc restored = new Doc();
+            for (byte[] bytes : drain(b)) {
+                Decoder decoder = Decoder.createDecoder(bytes);
+                if (Decoder.readVarUint(decoder) == DocWebSocketHandler.MESSAGE_SYNC) {
+                    SyncProtocol.readSyncMessage(decoder, Encoder.createEncoder(), restored, null);
+                }
+            }
+            assertEquals("persisted", restored.getText("text").toString());
+            // 加载的数据不会被再次保存
+            persistence.flush();
+            assertEquals(1, persistence.getAppendedRecords());
+            handler.afterConnectionClosed(b, CloseStatus.NORMAL);
+        }
+    }
+
+    @Test
+    void testHibernatedDocumentIsRehydratedOnNextMessage() throws Exception {
+        for (boolean mailbox : new boolean[]{false, true}) {
+            YjsWebSocketProperties properties = new YjsWebSocketProperties();
+            properties.setMailbox(mailbox);
+            DocWebSocketHandler handler = new DocWebSocketHandler(properties);
+            int documentId = DOCUMENT_IDS.incrementAndGet();
+            TestWebSocketSession a = open(handler, documentId, 1);
+            TestWebSocketSession b = open(handler, documentId, 2);
+            Doc client = new Doc();
+            client.getText("text").insert(0, "hibernated");
+            handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)));
+            drain(a);
+            drain(b);
+
+            WSSharedDoc doc = handler.getDocuments().get(documentId);
+            long rehydrations = handler.getDocuments().getRehydrations();
+            assertTrue(doc.tryHibernate(true));
+            assertTrue(doc.isHibernated());
+            assertTrue(doc.store.getClients().isEmpty());
+
+            handler.handleBinaryMessage(b, syncStep1Message(new Doc()));
+            Doc restored = new Doc();
+            for (byte[] bytes : drain(b)) {
+                Decoder decoder = Decoder.createDecoder(bytes);
+                if (Decoder.readVarUint(decoder) == DocWebSocketHandler.MESSAGE_SYNC) {
+                    SyncProtocol.readSyncMessage(decoder, Encoder.createEncoder(), restored, null);
+                }
+            }
+            assertEquals("hibernated", restored.getText("text").toString());
+            assertFalse(doc.isHibernated());
+            assertEquals(rehydrations + 1, handler.getDocuments().getRehydrations());
+            // 恢复的内容不会广播给其他连接
+            assertEquals(0, countSyncUpdates(drain(a)));
+
+            handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+            handler.afterConnectionClosed(b, CloseStatus.NORMAL);
+        }
+    }
+
+    @Test
+    void testQueuedMessageSurvivesFrameBufferReuse() throws Exception {
+        YjsWebSocketProperties properties = new YjsWebSocketProperties();
+        properties.setMailbox(true);
+        DocWebSocketHandler handler = new DocWebSocketHandler(properties);
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+        TestWebSocketSession a = open(handler, documentId, 1);
+        WSSharedDoc doc = handler.getDocuments().get(documentId);
+        // 先让 mailbox 阻塞，消息在处理器返回之后才会被解码
+        CountDownLatch blocked = new CountDownLatch(1);
+        doc.getMailbox().execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Doc client = new Doc();
+        client.getText("text").insert(0, "queued");
+        byte[] message = updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)).getPayload().array();
+        // 容器复用的帧缓冲区，消息不在数组的开头
+        byte[] frame = new byte[message.length + 16];
+        System.arraycopy(message, 0, frame, 5, message.length);
+        handler.handleBinaryMessage(a, new BinaryMessage(ByteBuffer.wrap(frame, 5, message.length).slice()));
+        // 处理器返回后，下一帧写入了同一个缓冲区
+        Arrays.fill(frame, (byte) 0x7F);
+
+        blocked.countDown();
+        doc.getMailbox().submit(() -> null).get(5, TimeUnit.SECONDS);
+        assertEquals("queued", doc.getText("text").toString());
+
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+    }
+
+    @Test
+    void testHandlersKeepTheirOwnDocuments() {
+        YjsWebSocketProperties lingering = new YjsWebSocketProperties();
+        lingering.setDocumentLinger(60_000);
+        DocWebSocketHandler first = new DocWebSocketHandler(lingering);
+        // 后创建的处理器不能覆盖前一个的配置
+        DocWebSocketHandler second = new DocWebSocketHandler(new YjsWebSocketProperties());
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+
+        TestWebSocketSession a = open(first, documentId, 1);
+        assertNotNull(first.getDocuments().get(documentId));
+        assertNull(second.getDocuments().get(documentId));
+        first.afterConnectionClosed(a, CloseStatus.NORMAL);
+        // 最后一个连接断开后仍在 linger 时间内
+        WSSharedDoc lingered = first.getDocuments().get(documentId);
+        assertNotNull(lingered);
+        assertEquals(DocumentState.DRAINING, lingered.state);
+
+        TestWebSocketSession b = open(second, documentId, 2);
+        assertNotSame(lingered, second.getDocuments().get(documentId));
+        second.afterConnectionClosed(b, CloseStatus.NORMAL);
+        assertNull(second.getDocuments().get(documentId));
+
+        // 重新连接复用 linger 中的文档
+        TestWebSocketSession c = open(first, documentId, 3);
+        assertSame(lingered, first.getDocuments().get(documentId));
+        assertEquals(1, first.getDocuments().getReuses());
+        first.afterConnectionClosed(c, CloseStatus.NORMAL);
+    }
+
+    @Test
+    void testLeastRecentlyUsedDocumentsHibernateOverBudget() throws Exception {
+        DocumentRegistry registry = new DocumentRegistry();
+        List<WSSharedDoc> docs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            WSSharedDoc doc = registry.connect(DOCUMENT_IDS.incrementAndGet(), WSSharedDoc::new, loaded -> {});
+            Doc client = new Doc();
+            client.getText("text").insert(0, "document " + i);
+            // 内容来自客户端的更新，服务端没有取得类型，文档可以休眠
+            registry.acquire(doc);
+            EncodingUtil.applyUpdate(doc, EncodingUtil.encodeStateAsUpdate(client, null));
+            registry.release(doc);
+            assertFalse(doc.isPinned());
+            docs.add(doc);
+            Thread.sleep(2);
+        }
+        long budget = docs.get(1).estimateMemory() + docs.get(2).estimateMemory();
+        registry.configure(budget, 0, true, 0);
+        // 正在使用的文档不会休眠
+        registry.acquire(docs.get(0));
+        registry.sweep();
+        assertFalse(docs.get(0).isHibernated());
+        assertTrue(docs.get(1).isHibernated());
+        assertFalse(docs.get(2).isHibernated());
+        registry.release(docs.get(0));
+
+        registry.acquire(docs.get(1));
+        assertEquals("document 1", docs.get(1).getText("text").toString());
+        registry.release(docs.get(1));
+        assertEquals(1, registry.getMisses());
+        assertEquals(1, registry.getRehydrations());
+        docs.forEach(WSSharedDoc::unload);
+    }
+
+    @Test
+    void testRelayDocumentIsMaterializedOnRead() throws Exception {
+        YjsWebSocketProperties properties = new YjsWebSocketProperties();
+        properties.setRelay(true);
+        DocWebSocketHandler handler = new DocWebSocketHandler(properties);
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+        TestWebSocketSession a = open(handler, documentId, 1);
+        TestWebSocketSession b = open(handler, documentId, 2);
+        drain(a);
+        drain(b);
+
+        Doc client = new Doc();
+        client.getText("text").insert(0, "hello");
+        handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)));
+        client.getText("text").insert(5, " world");
+        byte[] second = EncodingUtil.encodeStateAsUpdate(client, null);
+        handler.handleBinaryMessage(a, updateMessage(second));
+        assertEquals(0, countSyncUpdates(drain(a)));
+        assertEquals(2, countSyncUpdates(drain(b)));
+        // 重复的更新不再广播
+        handler.handleBinaryMessage(a, updateMessage(second));
+        assertEquals(0, countSyncUpdates(drain(b)));
+
+        WSSharedDoc doc = handler.getDocuments().get(documentId);
+        assertTrue(doc.isRelay());
+        assertTrue(doc.store.getClients().isEmpty());
+
+        // SyncStep1 由合并后的更新回复
+        handler.handleBinaryMessage(b, syncStep1Message(new Doc()));
+        Doc restored = new Doc();
+        for (byte[] bytes : drain(b)) {
+            Decoder decoder = Decoder.createDecoder(bytes);
+            if (Decoder.readVarUint(decoder) == DocWebSocketHandler.MESSAGE_SYNC) {
+                SyncProtocol.readSyncMessage(decoder, Encoder.createEncoder(), restored, null);
+            }
+        }
+        assertEquals("hello world", restored.getText("text").toString());
+
+        // 服务端读取时实例化
+        assertEquals("hello world", doc.getText("text").toString());
+        assertFalse(doc.isRelay());
+        assertEquals(0, countSyncUpdates(drain(a)));
+        client.getText("text").insert(0, ">");
+        handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)));
+        assertEquals(1, countSyncUpdates(drain(b)));
+        assertEquals(">hello world", doc.getText("text").toString());
+
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+        handler.afterConnectionClosed(b, CloseStatus.NORMAL);
+    }
+
+    @Test
+    void testMaterializedDocumentDoesNotHibernate() throws Exception {
+        YjsWebSocketProperties properties = new YjsWebSocketProperties();
+        properties.setRelay(true);
+        DocWebSocketHandler handler = new DocWebSocketHandler(properties);
+        int documentId = DOCUMENT_IDS.incrementAndGet();
+        TestWebSocketSession a = open(handler, documentId, 1);
+        drain(a);
+        Doc client = new Doc();
+        client.getText("text").insert(0, "hello");
+        handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)));
+
+        WSSharedDoc doc = handler.getDocuments().get(documentId);
+        assertFalse(doc.isPinned());
+        // 服务端持有类型并监听
+        YText held = doc.getText("text");
+        List<String> observed = new ArrayList<>();
+        held.observe((event, transaction) -> observed.add(held.toString()));
+        assertTrue(doc.isPinned());
+        assertFalse(doc.isRelay());
+
+        DocumentRegistry registry = handler.getDocuments();
+        registry.configure(1, 1, true, 0);
+        Thread.sleep(5);
+        registry.sweep();
+        assertFalse(doc.isHibernated());
+        assertEquals(0, registry.getHibernations());
+
+        client.getText("text").insert(5, " world");
+        handler.handleBinaryMessage(a, updateMessage(EncodingUtil.encodeStateAsUpdate(client, null)));
+        assertEquals("hello world", held.toString());
+        assertEquals(List.of("hello world"), observed);
+
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+    }
+}
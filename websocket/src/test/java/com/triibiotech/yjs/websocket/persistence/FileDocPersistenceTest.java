@@ -0,0 +1,206 @@
+package com.triibiotech.yjs.websocket.persistence;
+
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.ObservableV2;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileDocPersistenceTest {
+
+    private static Doc replay(List<byte[]> updates) {
+        Doc doc = new Doc();
+        updates.forEach(update -> EncodingUtil.applyUpdate(doc, update));
+        return doc;
+    }
+
+    @Test
+    void testAppendAndLoad(@TempDir Path directory) {
+        Doc doc = new Doc();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 64 * 1024 * 1024, true)) {
+            doc.on("update", new ObservableV2.Handler1<byte[]>() {
+                @Override
+                public void apply(byte[] update) {
+                    futures.add(persistence.storeUpdate(1, update));
+                }
+            });
+            for (int i = 0; i < 2000; i++) {
+                doc.getText("text").insert(i, String.valueOf(i % 10));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            assertEquals(2000, persistence.getAppendedRecords());
+            // 一批写入只 fsync 一次
+            assertTrue(persistence.getSyncs() <= persistence.getBatches());
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(1)).getText("text").toString());
+            assertTrue(persistence.loadUpdates(2).isEmpty());
+        }
+        // 重新打开
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 64 * 1024 * 1024, true)) {
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(1)).getText("text").toString());
+        }
+    }
+
+    @Test
+    void testSegments(@TempDir Path directory) throws Exception {
+        Doc doc = new Doc();
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 256, false)) {
+            doc.on("update", new ObservableV2.Handler1<byte[]>() {
+                @Override
+                public void apply(byte[] update) {
+                    persistence.storeUpdate(7, update);
+                }
+            });
+            for (int i = 0; i < 200; i++) {
+                doc.getText("text").insert(0, "abc");
+            }
+            persistence.flush();
+            List<Path> segments = FileDocPersistence.listSegments(persistence.documentDirectory(7));
+            assertTrue(segments.size() > 1);
+            for (Path segment : segments) {
+                assertTrue(Files.size(segment) <= 256);
+            }
+            persistence.closeDocument(7);
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(7)).getText("text").toString());
+            // 关闭后可以继续写入
+            doc.getText("text").insert(0, "tail");
+            persistence.flush();
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(7)).getText("text").toString());
+        }
+    }
+
+    @Test
+    void testTornTail(@TempDir Path directory) throws Exception {
+        Doc doc = new Doc();
+        doc.getText("text").insert(0, "hello");
+        byte[] first = EncodingUtil.encodeStateAsUpdate(doc, null);
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 1024 * 1024, true)) {
+            persistence.storeUpdate(3, first).join();
+            persistence.closeDocument(3);
+            persistence.flush();
+        }
+        // 模拟写了一半的记录
+        Path segment = FileDocPersistence.listSegments(directory.resolve("3")).getFirst();
+        long valid = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(java.nio.ByteBuffer.wrap(new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5}));
+        }
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 1024 * 1024, true)) {
+            List<byte[]> updates = persistence.loadUpdates(3);
+            assertEquals(1, updates.size());
+            assertArrayEquals(first, updates.getFirst());
+
+            // 追加前截掉损坏的尾部
+            doc.getText("text").insert(5, " world");
+            persistence.storeUpdate(3, EncodingUtil.encodeStateAsUpdate(doc, EncodingUtil.encodeStateVector(replay(updates)))).join();
+            assertTrue(Files.size(segment) > valid);
+            assertEquals("hello world", replay(persistence.loadUpdates(3)).getText("text").toString());
+        }
+
+        // 校验和不匹配
+        byte[] data = Files.readAllBytes(segment);
+        data[data.length - 1] ^= 0x7f;
+        Files.write(segment, data);
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 1024 * 1024, true)) {
+            assertEquals(1, persistence.loadUpdates(3).size());
+        }
+    }
+
+    @Test
+    void testCompaction(@TempDir Path directory) throws Exception {
+        Doc doc = new Doc();
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 1024, true, 0, 1, 0)) {
+            doc.on("update", new ObservableV2.Handler1<byte[]>() {
+                @Override
+                public void apply(byte[] update) {
+                    persistence.storeUpdate(5, update);
+                }
+            });
+            for (int i = 0; i < 500; i++) {
+                doc.getText("text").insert(i, String.valueOf(i % 10));
+            }
+            persistence.flush();
+            assertTrue(FileDocPersistence.listSegments(persistence.documentDirectory(5)).size() > 2);
+
+            persistence.compact(5).join();
+            assertEquals(1, persistence.getCompactions());
+            assertEquals(500, persistence.getCompactedRecords());
+            assertTrue(persistence.getCompactionOutputBytes() < persistence.getCompactedBytes());
+            // 合并后的一条记录 + 新的空分段
+            assertEquals(1, persistence.loadUpdates(5).size());
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(5)).getText("text").toString());
+            assertFalse(Files.exists(persistence.documentDirectory(5).resolve(FileDocPersistence.COMPACT_FILE)));
+
+            // 压缩之后继续追加
+            doc.getText("text").insert(0, "tail");
+            persistence.flush();
+            assertEquals(2, persistence.loadUpdates(5).size());
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(5)).getText("text").toString());
+        }
+    }
+
+    @Test
+    void testCompactionAfterCloseDocument(@TempDir Path directory) throws Exception {
+        Doc doc = new Doc();
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 256, true, 0, 1, 0)) {
+            doc.on("update", new ObservableV2.Handler1<byte[]>() {
+                @Override
+                public void apply(byte[] update) {
+                    persistence.storeUpdate(8, update);
+                }
+            });
+            for (int i = 0; i < 100; i++) {
+                doc.getText("text").insert(i, String.valueOf(i % 10));
+            }
+            // 最后一个连接离开，文档关闭之后才执行压缩
+            persistence.closeDocument(8);
+            persistence.compact(8).join();
+            persistence.flush();
+            assertEquals(1, persistence.getCompactions());
+            assertEquals(0, persistence.getOpenLogs());
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(8)).getText("text").toString());
+
+            // 再次打开后继续追加
+            doc.getText("text").insert(0, "tail");
+            persistence.flush();
+            assertEquals(1, persistence.getOpenLogs());
+            assertEquals(doc.getText("text").toString(), replay(persistence.loadUpdates(8)).getText("text").toString());
+        }
+    }
+
+    @Test
+    void testCompactionThresholdAndSnapshot(@TempDir Path directory) throws Exception {
+        Doc doc = new Doc();
+        try (FileDocPersistence persistence = new FileDocPersistence(directory, 64 * 1024 * 1024, true, 100, 1, 1024 * 1024)) {
+            persistence.bindSnapshotSource(id -> id == 6 ? EncodingUtil.encodeStateAsUpdate(doc, null) : null);
+            doc.on("update", new ObservableV2.Handler1<byte[]>() {
+                @Override
+                public void apply(byte[] update) {
+                    persistence.storeUpdate(6, update);
+                }
+            });
+            for (int i = 0; i < 250; i++) {
+                doc.getText("text").insert(i, String.valueOf(i % 10));
+            }
+            persistence.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (persistence.getCompactions() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            persistence.compact(6).join();
+            assertTrue(persistence.getCompactions() >= 2);
+            assertEquals(1, persistence.loadUpdates(6).size());
+            assertArrayEquals(EncodingUtil.encodeStateAsUpdate(doc, null), persistence.loadUpdates(6).getFirst());
+        }
+    }
+}
@@ -3,12 +3,14 @@ package com.triibiotech.yjs.protocol.awareness;
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.HashedWheelTimer;
 import com.triibiotech.yjs.utils.Observable;
 import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
 import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Function;
@@ -29,8 +31,14 @@ public class Awareness extends Observable<String> {
      */
     public final Map<Long, JSONObject> states = new ConcurrentHashMap<>();
     public final Map<Long, MetaClientState> meta = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final ScheduledFuture<?> checkInterval;
+    /**
+     * Maps from client id to the encoded (UTF-8 JSON) state of a clock, reused until the state changes
+     */
+    private final Map<Long, EncodedState> encodedStates = new ConcurrentHashMap<>();
+    /**
+     * Outdated state check, driven by the process-wide timer instead of a thread per instance
+     */
+    private final HashedWheelTimer.Timeout checkInterval;
 
     public static final long OUTDATED_TIMEOUT = 30000;
 
@@ -46,6 +54,14 @@ public class Awareness extends Observable<String> {
     public record MetaClientState(long clock, long lastUpdated) {
     }
 
+    /**
+     * Encoded state of a client at a clock
+     */
+    private record EncodedState(long clock, byte[] json) {
+    }
+
+    private static final byte[] NULL_STATE = "null".getBytes(StandardCharsets.UTF_8);
+
     /**
      * Constructor
      */
@@ -53,7 +69,7 @@ public class Awareness extends Observable<String> {
         this.doc = doc;
         this.clientId = doc.getClientId();
         // Start cleanup interval - runs every 3 seconds (OUTDATED_TIMEOUT / 10)
-        this.checkInterval = scheduler.scheduleAtFixedRate(() -> {
+        this.checkInterval = HashedWheelTimer.getDefault().scheduleAtFixedRate(() -> {
             try {
                 long now = System.currentTimeMillis();
                 JSONObject localState = getLocalState();
@@ -98,9 +114,8 @@ public class Awareness extends Observable<String> {
         setLocalState(null);
         super.destroy();
         if (checkInterval != null) {
-            checkInterval.cancel(false);
+            checkInterval.cancel();
         }
-        scheduler.shutdown();
     }
 
     /**
@@ -123,6 +138,7 @@ public class Awareness extends Observable<String> {
         } else {
             states.put(clientId, state);
         }
+        encodedStates.remove(clientId);
 
         meta.put(clientId, new MetaClientState(clock, System.currentTimeMillis()));
 
@@ -182,6 +198,7 @@ public class Awareness extends Observable<String> {
         for (Long clientId : clients) {
             if (states.containsKey(clientId)) {
                 states.remove(clientId);
+                encodedStates.remove(clientId);
                 if (clientId == this.clientId) {
                     MetaClientState curMeta = meta.get(clientId);
                     if (curMeta != null) {
@@ -202,18 +219,60 @@ public class Awareness extends Observable<String> {
         if (states == null) {
             states = this.states;
         }
+        Encoder encoder = Encoder.acquire();
+        try {
+            writeAwarenessUpdate(encoder, clients, states);
+            return Encoder.toUint8Array(encoder);
+        } finally {
+            Encoder.release(encoder);
+        }
+    }
+
+    private void writeAwarenessUpdate(Encoder encoder, List<Long> clients, Map<Long, JSONObject> states) {
         int len = clients.size();
-        Encoder encoder = Encoder.createEncoder();
         Encoder.writeVarUint(encoder, len);
         for (int i = 0; i < len; i++) {
             Long clientId = clients.get(i);
-            JSONObject state = states.get(clientId);
             long clock = meta.get(clientId).clock;
             Encoder.writeVarUint(encoder, clientId);
             Encoder.writeVarUint(encoder, clock);
-            Encoder.writeVarString(encoder, JSON.toJSONString(state));
+            if (states == this.states) {
+                // same wire format as writeVarString
+                Encoder.writeVarUint8Array(encoder, encodeState(clientId, clock));
+            } else {
+                Encoder.writeVarString(encoder, JSON.toJSONString(states.get(clientId)));
+            }
         }
-        return Encoder.toUint8Array(encoder);
+    }
+
+    /**
+     * Get the UTF-8 JSON of the current state of a client. The bytes are cached per (clientId, clock) and must not be
+     * modified.
+     */
+    public byte[] encodeState(long clientId) {
+        MetaClientState clientMeta = meta.get(clientId);
+        return encodeState(clientId, clientMeta == null ? 0 : clientMeta.clock);
+    }
+
+    private byte[] encodeState(long clientId, long clock) {
+        JSONObject state = states.get(clientId);
+        if (state == null) {
+            return NULL_STATE;
+        }
+        EncodedState cached = encodedStates.get(clientId);
+        if (cached != null && cached.clock == clock) {
+            return cached.json;
+        }
+        byte[] json = JSON.toJSONString(state).getBytes(StandardCharsets.UTF_8);
+        encodedStates.put(clientId, new EncodedState(clock, json));
+        return json;
+    }
+
+    /**
+     * Drop the cached encoding of a client state. Must be called after the state object has been modified in place.
+     */
+    public void invalidateState(long clientId) {
+        encodedStates.remove(clientId);
     }
 
     public static byte[] modifyAwarenessUpdate(byte[] update, Function<Object, Object> modify) {
@@ -234,7 +293,14 @@ public class Awareness extends Observable<String> {
     }
 
     public void applyAwarenessUpdate(byte[] update, Object origin) {
-        Decoder decoder = Decoder.createDecoder(update);
+        applyAwarenessUpdate(Decoder.createDecoder(update), origin);
+    }
+
+    /**
+     * Apply an update read from a decoder, e.g. a view of a received message. Only the states that are applied are
+     * copied out of it.
+     */
+    public void applyAwarenessUpdate(Decoder decoder, Object origin) {
         long timestamp = System.currentTimeMillis();
         List<Long> added = new ArrayList<>();
         List<Long> updated = new ArrayList<>();
@@ -245,22 +311,28 @@ public class Awareness extends Observable<String> {
         for (int i = 0; i < len; i++) {
             long clientId = Decoder.readVarUint(decoder);
             long clock = Decoder.readVarUint(decoder);
-            String json = Decoder.readVarString(decoder);
-            JSONObject state = "null".equals(json) ? null : JSON.parseObject(json);
+            Decoder json = Decoder.readVarUint8ArrayView(decoder);
+            boolean nullState = Arrays.equals(json.getArr(), json.getPos(), json.getEnd(), NULL_STATE, 0, NULL_STATE.length);
 
             MetaClientState clientMeta = meta.get(clientId) == null ? null : meta.get(clientId);
             Object prevState = states.get(clientId);
             long currClock = clientMeta == null ? 0 : clientMeta.clock;
 
-            if (currClock < clock || (currClock == clock && state == null && states.containsKey(clientId))) {
+            if (currClock < clock || (currClock == clock && nullState && states.containsKey(clientId))) {
+                // only copy and parse states that are applied
+                byte[] jsonBytes = nullState ? null : Decoder.readTailAsUint8Array(json);
+                JSONObject state = nullState ? null : JSON.parseObject(jsonBytes);
                 if (state == null) {
                     if (clientId == this.clientId && getLocalState() != null) {
                         clock++;
                     } else {
                         states.remove(clientId);
                     }
+                    encodedStates.remove(clientId);
                 } else {
                     states.put(clientId, state);
+                    // forward the received bytes instead of serializing the state again
+                    encodedStates.put(clientId, new EncodedState(clock, jsonBytes));
                 }
 
                 meta.put(clientId, new MetaClientState(clock, timestamp));
@@ -24,13 +24,12 @@ public class SyncProtocol {
 
     public static void writeSyncStep1(Encoder encoder, Doc doc) {
         Encoder.writeVarUint(encoder, MESSAGE_YJS_SYNC_STEP1);
-        byte[] sv = EncodingUtil.encodeStateVector(doc);
-        Encoder.writeVarUint8Array(encoder, sv);
+        EncodingUtil.writeEncodedStateVector(encoder, doc);
     }
 
     public static void writeSyncStep2(Encoder encoder, Doc doc, byte[] encodedStateVector) {
         Encoder.writeVarUint(encoder, MESSAGE_YJS_SYNC_STEP2);
-        byte[] sv = EncodingUtil.encodeStateAsUpdate(doc, encodedStateVector);
+        byte[] sv = EncodingUtil.encodeStateAsUpdateCached(doc, encodedStateVector);
         Encoder.writeVarUint8Array(encoder, sv);
     }
 
@@ -47,11 +46,11 @@ public class SyncProtocol {
     }
 
     /**
-     * Read and apply SyncStep2 message
+     * Read and apply SyncStep2 message. The update is applied from a view of the message, it is not copied
      */
     public static void readSyncStep2(Decoder decoder, Doc doc, Object transactionOrigin) {
         try {
-            EncodingUtil.applyUpdate(doc, Decoder.readVarUint8Array(decoder), transactionOrigin);
+            EncodingUtil.readUpdate(Decoder.readVarUint8ArrayView(decoder), doc, transactionOrigin);
         } catch (Exception error) {
             System.err.println("Caught error while handling a Yjs update: " + error.getMessage());
         }
@@ -1,7 +1,6 @@
 package com.triibiotech.yjs.structs;
 
 import com.triibiotech.yjs.utils.DSEncoder;
-import com.triibiotech.yjs.utils.Doc;
 import com.triibiotech.yjs.utils.StructStore;
 import com.triibiotech.yjs.utils.Transaction;
 
@@ -13,16 +12,6 @@ import com.triibiotech.yjs.utils.Transaction;
  */
 public abstract class AbstractContent {
 
-    protected Doc doc;
-
-    public Doc getDoc() {
-        return doc;
-    }
-
-    public void setDoc(Doc doc) {
-        this.doc = doc;
-    }
-
     /**
      * Get the length of this content
      */
@@ -15,6 +15,7 @@ import java.util.Map;
  */
 public class ContentDoc extends AbstractContent {
 
+    private Doc doc;
     private Map<String, Object> opts;
 
     public ContentDoc(Doc doc) {
@@ -70,7 +70,7 @@ public class ContentType extends AbstractContent {
         while (struct != null) {
             if (!struct.isDeleted()) {
                 struct.delete(transaction);
-            } else if (struct.id.clock < (transaction.beforeState.get(struct.id.client) == null ? 0 : transaction.beforeState.get(struct.id.client))) {
+            } else if (struct.id.clock < transaction.beforeState.getClock(struct.id.client)) {
                 transaction._mergeStructs.addLast(struct);
             }
             if (struct instanceof Item) {
@@ -82,7 +82,7 @@ public class ContentType extends AbstractContent {
         this.type.getMap().forEach((key, value) -> {
             if (!value.isDeleted()) {
                 value.delete(transaction);
-            } else if (value.id.clock < (transaction.beforeState.get(value.id.client) == null ? 0 : transaction.beforeState.get(value.id.client))) {
+            } else if (value.id.clock < transaction.beforeState.getClock(value.id.client)) {
                 // same as above
                 transaction._mergeStructs.addLast(value);
             }
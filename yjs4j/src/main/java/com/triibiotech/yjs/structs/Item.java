@@ -39,11 +39,6 @@ public class Item extends AbstractStruct {
      */
     public String parentSub;
 
-    /**
-     * If this type's effect is redone this type refers to the type that undid this operation
-     */
-    public ID redone;
-
     /**
      * The content of this item
      */
@@ -54,7 +49,8 @@ public class Item extends AbstractStruct {
      * bit1: keep, <br/>
      * bit2: countable, <br/>
      * bit3: deleted, <br/>
-     * bit4: marker
+     * bit4: marker, <br/>
+     * bit5: redone, the id is kept in {@link StructStore#getRedone(Item)}
      */
     private int info;
 
@@ -70,7 +66,6 @@ public class Item extends AbstractStruct {
         this.rightOrigin = rightOrigin;
         this.parent = parent;
         this.parentSub = parentSub;
-        this.redone = null;
         this.content = content;
         this.info = (content != null && content.isCountable()) ? Binary.BIT2 : 0;
     }
@@ -115,6 +110,10 @@ public class Item extends AbstractStruct {
         this.info |= Binary.BIT3;
     }
 
+    public boolean isRedone() {
+        return (this.info & Binary.BIT5) > 0;
+    }
+
     /**
      * Get missing dependencies (matching JS getMissing)
      */
@@ -181,7 +180,7 @@ public class Item extends AbstractStruct {
     public void integrate(Transaction transaction, long offset) {
         if (offset > 0) {
             this.id.clock += offset;
-            this.left = transaction.doc.store.getItemCleanEnd(transaction, ID.createId(this.id.client, this.id.clock - 1));
+            this.left = transaction.doc.store.getItemCleanEnd(transaction, this.id.client, this.id.clock - 1);
             this.origin = this.left instanceof Item leftItem ? leftItem.getLastId() : null;
             this.content = this.content.splice((int) offset);
             this.length -= offset;
@@ -337,7 +336,7 @@ public class Item extends AbstractStruct {
                 this.id.client == rightItem.id.client &&
                 this.id.clock + this.length == rightItem.id.clock &&
                 this.isDeleted() == rightItem.isDeleted() &&
-                this.redone == null && rightItem.redone == null &&
+                !this.isRedone() && !rightItem.isRedone() &&
                 this.content != null && rightItem.content != null &&
                 this.content.getClass() == rightItem.content.getClass() &&
                 this.content.mergeWith(rightItem.content)) {
@@ -396,6 +395,9 @@ public class Item extends AbstractStruct {
 
         this.content.gc(store);
         if (parentGcD) {
+            if (isRedone()) {
+                setRedone(store, null);
+            }
             store.replaceStruct(this, new GC(this.id, this.length));
         } else {
             this.content = new ContentDeleted(this.length);
@@ -410,23 +412,26 @@ public class Item extends AbstractStruct {
      */
     @Override
     public void write(DSEncoder encoder, long offset) {
-        ID origin = offset > 0 ? ID.createId(this.id.client, this.id.clock + offset - 1) : this.origin;
+        ID origin = this.origin;
         ID rightOrigin = this.rightOrigin;
         String parentSub = this.parentSub;
 
         int info = (this.content.getRef() & Binary.BITS5) |
-                (origin == null ? 0 : Binary.BIT8) |
+                (origin == null && offset == 0 ? 0 : Binary.BIT8) |
                 (rightOrigin == null ? 0 : Binary.BIT7) |
                 (parentSub == null ? 0 : Binary.BIT6);
 
         encoder.writeInfo(info);
-        if (origin != null) {
+        if (offset > 0) {
+            // the origin of the written part is the clock before it, written without creating an ID
+            encoder.writeLeftID(this.id.client, this.id.clock + offset - 1);
+        } else if (origin != null) {
             encoder.writeLeftID(origin);
         }
         if (rightOrigin != null) {
             encoder.writeRightID(rightOrigin);
         }
-        if (origin == null && rightOrigin == null) {
+        if (origin == null && offset == 0 && rightOrigin == null) {
             Object parent = this.parent;
             if (this.parent instanceof AbstractType<?> parentType) {
                 Item parentItem = parentType.getItem();
@@ -485,7 +490,7 @@ public class Item extends AbstractStruct {
                 break;
             }
             diff = nextId.clock - item.id.clock;
-            nextId = ((Item) item).redone;
+            nextId = store.getRedone((Item) item);
         } while (nextId != null);
 
         return Map.of("item", item, "diff", diff);
@@ -523,8 +528,10 @@ public class Item extends AbstractStruct {
         if (leftItem instanceof Item && ((Item) leftItem).keep()) {
             rightItem.setKeep(true);
         }
-        if (leftItem instanceof Item lItem && lItem.redone != null) {
-            rightItem.redone = ID.createId(lItem.redone.client, lItem.redone.clock + diff);
+        if (leftItem instanceof Item lItem && lItem.isRedone()) {
+            StructStore store = transaction.doc.store;
+            ID redone = store.getRedone(lItem);
+            rightItem.setRedone(store, ID.createId(redone.client, redone.clock + diff));
         }
         // update left (do not set leftItem.rightOrigin as it will lead to problems when syncing)
         if (leftItem instanceof Item lItem) {
@@ -564,8 +571,8 @@ public class Item extends AbstractStruct {
         StructStore store = doc.store;
         long ownClientId = doc.clientId;
 
-        if (abstractStruct instanceof Item item && item.redone != null) {
-            return StructStore.getItemCleanStart(transaction, item.redone);
+        if (abstractStruct instanceof Item item && item.isRedone()) {
+            return StructStore.getItemCleanStart(transaction, store.getRedone(item));
         }
 
         Item parentItem = null;
@@ -580,12 +587,12 @@ public class Item extends AbstractStruct {
 
         // 处理父节点已删除情况
         if (parentItem != null && parentItem.isDeleted()) {
-            if (parentItem.redone == null &&
+            if (!parentItem.isRedone() &&
                     (!redoItems.contains(parentItem) || redoItem(transaction, parentItem, redoItems, itemsToDelete, ignoreRemoteMapChanges, um) == null)) {
                 return null;
             }
-            while (parentItem.redone != null) {
-                AbstractStruct struct = StructStore.getItemCleanStart(transaction, parentItem.redone);
+            while (parentItem.isRedone()) {
+                AbstractStruct struct = StructStore.getItemCleanStart(transaction, store.getRedone(parentItem));
                 if (struct instanceof Item) {
                     parentItem = (Item) struct;
                 } else {
@@ -611,11 +618,11 @@ public class Item extends AbstractStruct {
             while (left != null) {
                 Item leftTrace = left;
                 while (getParentItem(leftTrace) != parentItem) {
-                    if (leftTrace.redone == null) {
+                    if (!leftTrace.isRedone()) {
                         leftTrace = null;
                         break;
                     }
-                    AbstractStruct struct = StructStore.getItemCleanStart(transaction, leftTrace.redone);
+                    AbstractStruct struct = StructStore.getItemCleanStart(transaction, store.getRedone(leftTrace));
                     if (struct instanceof Item) {
                         leftTrace = (Item) struct;
                     } else {
@@ -633,11 +640,11 @@ public class Item extends AbstractStruct {
             while (right != null) {
                 Item rightTrace = right;
                 while (getParentItem(rightTrace) != parentItem) {
-                    if (rightTrace.redone == null) {
+                    if (!rightTrace.isRedone()) {
                         rightTrace = null;
                         break;
                     }
-                    AbstractStruct struct = StructStore.getItemCleanStart(transaction, rightTrace.redone);
+                    AbstractStruct struct = StructStore.getItemCleanStart(transaction, store.getRedone(rightTrace));
                     if (struct instanceof Item) {
                         rightTrace = (Item) struct;
                     } else {
@@ -658,14 +665,14 @@ public class Item extends AbstractStruct {
             if ((abstractStruct instanceof Item item) && item.right != null && !ignoreRemoteMapChanges) {
                 left = item;
                 while (left != null && left.right != null &&
-                        (((Item) left.right).redone != null
+                        (((Item) left.right).isRedone()
                                 || itemsToDelete.isDeleted(left.right.id)
                                 || isDeletedByUndoStack(um.getUndoStack().stream().toList(), left.right.id)
                                 || isDeletedByUndoStack(um.getRedoStack().stream().toList(), left.right.id))) {
 
                     left = left.right == null ? null : (Item) left.right;
-                    while (left != null && left.redone != null) {
-                        AbstractStruct struct = StructStore.getItemCleanStart(transaction, left.redone);
+                    while (left != null && left.isRedone()) {
+                        AbstractStruct struct = StructStore.getItemCleanStart(transaction, store.getRedone(left));
                         if (struct instanceof Item) {
                             left = (Item) struct;
                         } else {
@@ -704,7 +711,7 @@ public class Item extends AbstractStruct {
         );
 
         if (abstractStruct instanceof Item item) {
-            item.redone = nextId;
+            item.setRedone(store, nextId);
         }
         keepItem(redoneItem, true);
         redoneItem.integrate(transaction, 0);
@@ -722,7 +729,7 @@ public class Item extends AbstractStruct {
             return false;
         }
         Item item = (Item) o;
-        return info == item.info && Objects.equals(origin, item.origin) && Objects.equals(left, item.left) && Objects.equals(right, item.right) && Objects.equals(rightOrigin, item.rightOrigin) && Objects.equals(parent, item.parent) && Objects.equals(parentSub, item.parentSub) && Objects.equals(redone, item.redone) && Objects.equals(content, item.content);
+        return info == item.info && Objects.equals(origin, item.origin) && Objects.equals(left, item.left) && Objects.equals(right, item.right) && Objects.equals(rightOrigin, item.rightOrigin) && Objects.equals(parent, item.parent) && Objects.equals(parentSub, item.parentSub) && Objects.equals(content, item.content);
     }
 
     @Override
@@ -778,12 +785,47 @@ public class Item extends AbstractStruct {
         this.parentSub = parentSub;
     }
 
+    /**
+     * If this item's effect is redone, the id of the item that redid it. Replaces the removed public field
+     * {@code redone}, the store is resolved through the parent type.
+     *
+     * @throws IllegalStateException if the item is redone but not integrated into a type of a document
+     * @deprecated use {@link #getRedone(StructStore)}
+     */
+    @Deprecated
     public ID getRedone() {
-        return redone;
+        return isRedone() ? getRedone(parentStore()) : null;
+    }
+
+    public ID getRedone(StructStore store) {
+        return isRedone() ? store.getRedone(this) : null;
     }
 
+    /**
+     * Replaces the removed public field {@code redone}, the store is resolved through the parent type.
+     *
+     * @throws IllegalStateException if the item is not integrated into a type of a document
+     * @deprecated use {@link #setRedone(StructStore, ID)}
+     */
+    @Deprecated
     public void setRedone(ID redone) {
-        this.redone = redone;
+        setRedone(parentStore(), redone);
+    }
+
+    public void setRedone(StructStore store, ID redone) {
+        store.setRedone(this, redone);
+        this.info = redone == null ? this.info & ~Binary.BIT5 : this.info | Binary.BIT5;
+    }
+
+    /**
+     * The redo ids are kept in the store of the document, which is only reachable once the item is integrated
+     */
+    private StructStore parentStore() {
+        if (parent instanceof AbstractType<?> type && type.getDoc() != null) {
+            return type.getDoc().getStore();
+        }
+        throw new IllegalStateException("Item " + id + " is not integrated into a type of a document, " +
+                "pass the StructStore explicitly");
     }
 
     public AbstractContent getContent() {
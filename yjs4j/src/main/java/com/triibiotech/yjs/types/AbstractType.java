@@ -581,7 +581,7 @@ public abstract class AbstractType<EventType extends YEvent<?>> {
                 if (index <= n.length) {
                     if (index < n.length) {
                         // insert in-between
-                        StructStore.getItemCleanStart(transaction, ID.createId(n.id.client, n.id.clock + index));
+                        StructStore.getItemCleanStart(transaction, n.id.client, n.id.clock + index);
                     }
                     break;
                 }
@@ -718,7 +718,7 @@ public abstract class AbstractType<EventType extends YEvent<?>> {
         while (n != null && index > 0) {
             if (!n.isDeleted() && n.countable()) {
                 if (index < n.length) {
-                    StructStore.getItemCleanStart(transaction, ID.createId(n.id.client, n.id.clock + index));
+                    StructStore.getItemCleanStart(transaction, n.id.client, n.id.clock + index);
                 }
                 index -= n.length;
             }
@@ -729,7 +729,7 @@ public abstract class AbstractType<EventType extends YEvent<?>> {
         while (length > 0 && n != null) {
             if (!n.isDeleted()) {
                 if (length < n.length) {
-                    StructStore.getItemCleanStart(transaction, ID.createId(n.id.client, n.id.clock + length));
+                    StructStore.getItemCleanStart(transaction, n.id.client, n.id.clock + length);
                 }
                 n.delete(transaction);
                 length -= n.length;
@@ -76,7 +76,7 @@ public class ItemTextListPosition {
                 if (!pos.right.isDeleted()) {
                     if (count < pos.right.length) {
                         // split right
-                        StructStore.getItemCleanStart(transaction, ID.createId(pos.right.id.client, pos.right.id.clock + count));
+                        StructStore.getItemCleanStart(transaction, pos.right.id.client, pos.right.id.clock + count);
                     }
                     pos.index += pos.right.length;
                     count -= pos.right.length;
@@ -348,10 +348,10 @@ public class ItemTextListPosition {
                     }
                 } else {
                     if (length < currPos.right.getLength()) {
-                        StructStore.getItemCleanStart(transaction, new ID(
+                        StructStore.getItemCleanStart(transaction,
                                 currPos.right.getId().getClient(),
                                 currPos.right.getId().getClock() + length
-                        ));
+                        );
                     }
                     length -= currPos.right.getLength();
                 }
@@ -538,22 +538,20 @@ public class ItemTextListPosition {
         Set<YText> needFullCleanup = new LinkedHashSet<>();
         Doc doc = transaction.getDoc();
         // 找出所有新增的格式项
-        for (Map.Entry<Long, Long> entry : transaction.getAfterState().entrySet()) {
-            Long client = entry.getKey();
-            Long afterClock = entry.getValue();
-            Long beforeClock = transaction.getBeforeState().getOrDefault(client, 0L);
+        transaction.getAfterState().forEachClock((client, afterClock) -> {
+            long beforeClock = transaction.getBeforeState().getClock(client);
 
-            if (Objects.equals(afterClock, beforeClock)) {
-                continue;
+            if (afterClock == beforeClock) {
+                return;
             }
 
-            LinkedList<AbstractStruct> structs = doc.getStore().getClientStructs(client);
+            StructList structs = doc.getStore().getClientStructs(client);
             StructStore.iterateStructs(transaction, structs, beforeClock, afterClock, struct -> {
                 if (!struct.isDeleted() && struct instanceof Item item && item.getContent() instanceof ContentFormat) {
                     needFullCleanup.add((YText) item.getParent());
                 }
             });
-        }
+        });
 
         // 再次开启事务做清理
         doc.transact(t -> {
@@ -597,7 +595,7 @@ public class ItemTextListPosition {
                         || item.getContent() instanceof ContentType) {
 
                     if (length < item.getLength()) {
-                        StructStore.getItemCleanStart(transaction, ID.createId(item.getId().getClient(), item.getId().getClock() + length));
+                        StructStore.getItemCleanStart(transaction, item.getId().getClient(), item.getId().getClock() + length);
                     }
                     length -= item.getLength();
                     item.delete(transaction);
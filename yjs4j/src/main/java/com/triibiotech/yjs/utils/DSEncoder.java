@@ -15,8 +15,12 @@ public interface DSEncoder {
 
     void writeLeftID(ID id);
 
+    void writeLeftID(long client, long clock);
+
     void writeRightID(ID id);
 
+    void writeRightID(long client, long clock);
+
     void writeClient(long client);
 
     void writeInfo(long info);
@@ -7,27 +7,27 @@ public class DeleteItem {
     /**
      * Clock value where deletion starts
      */
-    public final Long clock;
+    public final long clock;
 
     /**
      * Length of the deleted range
      */
-    public Long len;
+    public long len;
 
     /**
      * @param clock Clock value where deletion starts
      * @param len Length of the deleted range
      */
-    public DeleteItem(Long clock, Long len) {
+    public DeleteItem(long clock, long len) {
         this.clock = clock;
         this.len = len;
     }
 
-    public Long getClock() {
+    public long getClock() {
         return clock;
     }
 
-    public Long getLen() {
+    public long getLen() {
         return len;
     }
 
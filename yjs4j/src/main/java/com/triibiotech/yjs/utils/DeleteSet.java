@@ -24,17 +24,17 @@ public class DeleteSet {
     /**
      * Map from client ID to list of DeleteItems
      */
-    public SafeLinkedHashMap<Long, List<DeleteItem>> clients;
+    public LongObjectMap<List<DeleteItem>> clients;
 
     public DeleteSet() {
-        clients = new SafeLinkedHashMap<>();
+        clients = new LongObjectMap<>();
     }
 
-    public SafeLinkedHashMap<Long, List<DeleteItem>> getClients() {
+    public LongObjectMap<List<DeleteItem>> getClients() {
         return clients;
     }
 
-    public void setClients(SafeLinkedHashMap<Long, List<DeleteItem>> clients) {
+    public void setClients(LongObjectMap<List<DeleteItem>> clients) {
         this.clients = clients;
     }
 
@@ -45,13 +45,11 @@ public class DeleteSet {
      */
     public static void iterateDeletedStructs(Transaction transaction, DeleteSet ds, Consumer<AbstractStruct> consumer) {
         StructStore store = transaction.getDoc().getStore();
-        for (Map.Entry<Long, List<DeleteItem>> entry : ds.getClients().entrySet()) {
-            long clientId = entry.getKey();
-            List<DeleteItem> deletes = entry.getValue();
-            LinkedList<AbstractStruct> structs = store.getClients().get(clientId);
+        ds.getClients().forEachEntry((clientId, deletes) -> {
+            StructList structs = store.getClients().get(clientId);
 
             if (structs == null || structs.isEmpty()) {
-                continue;
+                return;
             }
             AbstractStruct lastStruct = structs.get(structs.size() - 1);
             long clockState = lastStruct.getId().getClock() + lastStruct.getLength();
@@ -62,7 +60,7 @@ public class DeleteSet {
                 }
                 StructStore.iterateStructs(transaction, structs, del.getClock(), del.getLen(), consumer);
             }
-        }
+        });
     }
 
     /**
@@ -72,7 +70,7 @@ public class DeleteSet {
      * @param clock Clock to find
      * @return Index or null if not found
      */
-    public static Integer findIndexDs(List<DeleteItem> dis, Long clock) {
+    public static Integer findIndexDs(List<DeleteItem> dis, long clock) {
         int left = 0;
         int right = dis.size() - 1;
         while (left <= right) {
@@ -103,7 +101,7 @@ public class DeleteSet {
      * Sort and merge delete set
      */
     public void sortAndMergeDeleteSet() {
-        this.clients.forEach((client, dels) -> {
+        this.clients.forEachEntry((client, dels) -> {
             dels.sort(Comparator.comparingLong(a -> a.clock));
             // merge items without filtering or splicing the array
             // i is the current pointer
@@ -137,7 +135,7 @@ public class DeleteSet {
         for (int dssI = 0; dssI < dss.size(); dssI++) {
             DeleteSet ds = dss.get(dssI);
             final int currentIndex = dssI;
-            ds.clients.forEach((client, delsLeft) -> {
+            ds.clients.forEachEntry((client, delsLeft) -> {
                 if (!merged.clients.containsKey(client)) {
                     // Write all missing keys from current ds and all following.
                     // If merged already contains `client` current ds has already been added.
@@ -176,8 +174,8 @@ public class DeleteSet {
 
     public static DeleteSet createDeleteSetFromStructStore(StructStore ss) {
         DeleteSet ds = createDeleteSet();
-        ss.getClients().forEach((client, structs) -> {
-            LinkedList<DeleteItem> deleteItems = new LinkedList<>();
+        ss.getClients().forEachEntry((client, structs) -> {
+            List<DeleteItem> deleteItems = new ArrayList<>();
             for (int i = 0; i < structs.size(); i++) {
                 AbstractStruct struct = structs.get(i);
                 if (struct.isDeleted()) {
@@ -191,7 +189,7 @@ public class DeleteSet {
                         }
 
                     }
-                    deleteItems.addLast(new DeleteItem(clock, len));
+                    deleteItems.add(new DeleteItem(clock, len));
                 }
             }
             if (!deleteItems.isEmpty()) {
@@ -204,17 +202,15 @@ public class DeleteSet {
     public static void writeDeleteSet(DSEncoder encoder, DeleteSet ds) {
         Encoder.writeVarUint(encoder.getRestEncoder(), ds.clients.size());
         // 确保按客户端 ID 从大到小排序
-        List<Map.Entry<Long, List<DeleteItem>>> sortedEntries = new ArrayList<>(ds.getClients().entrySet());
-        // 降序排列客户端 ID
-        sortedEntries.sort((a, b) -> Long.compare(b.getKey(), a.getKey()));
-        // 遍历排序后的客户端条目
-        for (Map.Entry<Long, List<DeleteItem>> entry : sortedEntries) {
-            Long client = entry.getKey();
-            List<DeleteItem> dsItems = entry.getValue();
+        long[] sortedClients = ds.getClients().sortedKeys();
+        // 从大到小遍历客户端
+        for (int i = sortedClients.length - 1; i >= 0; i--) {
+            long client = sortedClients[i];
+            List<DeleteItem> dsItems = ds.getClients().get(client);
 
             encoder.resetDsCurVal();
             Encoder.writeVarUint(encoder.getRestEncoder(), client);
-            int len = entry.getValue().size();
+            int len = dsItems.size();
             Encoder.writeVarUint(encoder.getRestEncoder(), len);
             for (DeleteItem item : dsItems) {
                 encoder.writeDsClock(item.clock);
@@ -253,6 +249,24 @@ public class DeleteSet {
      * @return 若存在未应用的删除集，返回其编码后的字节数组；否则返回 null
      */
     public static byte[] readAndApplyDeleteSet(DSDecoder decoder, Transaction transaction, StructStore store) {
+        DeleteSet unappliedDs = readAndApplyDeleteSetRanges(decoder, transaction, store);
+        if (unappliedDs != null) {
+            UpdateEncoderV2 dsEncoder = new UpdateEncoderV2();
+            // encode 0 structs
+            Encoder.writeVarUint(dsEncoder.restEncoder, 0);
+            DeleteSet.writeDeleteSet(dsEncoder, unappliedDs);
+            return dsEncoder.toUint8Array();
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #readAndApplyDeleteSet(DSDecoder, Transaction, StructStore)}, but returns the ranges that
+     * couldn't be applied as a delete set instead of an encoded update
+     *
+     * @return the ranges of structs that are not integrated yet, or null
+     */
+    public static DeleteSet readAndApplyDeleteSetRanges(DSDecoder decoder, Transaction transaction, StructStore store) {
         DeleteSet unappliedDs = new DeleteSet();
         long numClients = Decoder.readVarUint(decoder.getRestDecoder());
 
@@ -261,55 +275,71 @@ public class DeleteSet {
             long client = Decoder.readVarUint(decoder.getRestDecoder());
             long numDeletes = Decoder.readVarUint(decoder.getRestDecoder());
 
-            LinkedList<AbstractStruct> structs = store.getClients().getOrDefault(client, new LinkedList<>());
+            StructList structs = store.getClientStructs(client);
             long state = StructStore.getState(store, client);
 
             for (int j = 0; j < numDeletes; j++) {
                 long clock = decoder.readDsClock();
                 long clockEnd = clock + decoder.readDsLen();
+                applyDeleteRange(transaction, structs, state, unappliedDs, client, clock, clockEnd);
+            }
+        }
+        return unappliedDs.getClients().isEmpty() ? null : unappliedDs;
+    }
 
-                if (clock < state) {
-                    if (state < clockEnd) {
-                        DeleteSet.addToDeleteSet(unappliedDs, client, state, clockEnd - state);
-                    }
+    /**
+     * Apply a delete set, typically the pending delete set of a store
+     *
+     * @return the ranges of structs that are not integrated yet, or null
+     */
+    public static DeleteSet applyDeleteSet(DeleteSet ds, Transaction transaction, StructStore store) {
+        DeleteSet unappliedDs = new DeleteSet();
+        ds.clients.forEachEntry((client, deleteItems) -> {
+            StructList structs = store.getClientStructs(client);
+            long state = StructStore.getState(store, client);
+            for (DeleteItem deleteItem : deleteItems) {
+                applyDeleteRange(transaction, structs, state, unappliedDs, client,
+                        deleteItem.clock, deleteItem.clock + deleteItem.len);
+            }
+        });
+        return unappliedDs.getClients().isEmpty() ? null : unappliedDs;
+    }
 
-                    int index = StructStore.findIndexSS(structs, clock);
-                    AbstractStruct struct = structs.get(index);
+    private static void applyDeleteRange(Transaction transaction, StructList structs, long state, DeleteSet unappliedDs,
+                                         long client, long clock, long clockEnd) {
+        if (clock < state) {
+            if (state < clockEnd) {
+                DeleteSet.addToDeleteSet(unappliedDs, client, state, clockEnd - state);
+            }
 
-                    if (struct instanceof Item item && !item.isDeleted() && item.getId().getClock() < clock) {
-                        Item split = Item.splitItem(transaction, item, clock - item.getId().getClock());
-                        structs.add(index + 1, split);
-                        index++; // increase we now want to use the next struct
-                    }
+            int index = StructStore.findIndexSS(structs, clock);
+            AbstractStruct struct = structs.get(index);
+
+            if (struct instanceof Item item && !item.isDeleted() && item.getId().getClock() < clock) {
+                Item split = Item.splitItem(transaction, item, clock - item.getId().getClock());
+                structs.add(index + 1, split);
+                transaction.doc.store.countStructs(1);
+                index++; // increase we now want to use the next struct
+            }
 
-                    while (index < structs.size()) {
-                        struct = structs.get(index++);
-                        if (struct.getId().getClock() < clockEnd) {
-                            if (struct instanceof Item item && !item.isDeleted()) {
-                                if (clockEnd < item.getId().getClock() + item.getLength()) {
-                                    Item split = Item.splitItem(transaction, item, clockEnd - item.getId().getClock());
-                                    structs.add(index, split);
-                                }
-                                item.delete(transaction);
-                            }
-                        } else {
-                            break;
+            while (index < structs.size()) {
+                struct = structs.get(index++);
+                if (struct.getId().getClock() < clockEnd) {
+                    if (struct instanceof Item item && !item.isDeleted()) {
+                        if (clockEnd < item.getId().getClock() + item.getLength()) {
+                            Item split = Item.splitItem(transaction, item, clockEnd - item.getId().getClock());
+                            structs.add(index, split);
+                            transaction.doc.store.countStructs(1);
                         }
+                        item.delete(transaction);
                     }
                 } else {
-                    DeleteSet.addToDeleteSet(unappliedDs, client, clock, clockEnd - clock);
+                    break;
                 }
             }
+        } else {
+            DeleteSet.addToDeleteSet(unappliedDs, client, clock, clockEnd - clock);
         }
-
-        if (!unappliedDs.getClients().isEmpty()) {
-            UpdateEncoderV2 dsEncoder = new UpdateEncoderV2();
-            // encode 0 structs
-            Encoder.writeVarUint(dsEncoder.restEncoder, 0);
-            DeleteSet.writeDeleteSet(dsEncoder, unappliedDs);
-            return dsEncoder.toUint8Array();
-        }
-        return null;
     }
 
     /**
@@ -319,9 +349,8 @@ public class DeleteSet {
         if (ds1.clients.size() != ds2.clients.size()) {
             return false;
         }
-        for (Map.Entry<Long, List<DeleteItem>> entry : ds1.clients.entrySet()) {
-            long client = entry.getKey();
-            List<DeleteItem> deleteItems1 = entry.getValue();
+        for (long client : ds1.clients.sortedKeys()) {
+            List<DeleteItem> deleteItems1 = ds1.clients.get(client);
             List<DeleteItem> deleteItems2 = ds2.clients.get(client);
             if (deleteItems2 == null || deleteItems1.size() != deleteItems2.size()) {
                 return false;
@@ -329,7 +358,7 @@ public class DeleteSet {
             for (int i = 0; i < deleteItems1.size(); i++) {
                 DeleteItem di1 = deleteItems1.get(i);
                 DeleteItem di2 = deleteItems2.get(i);
-                if (!Objects.equals(di1.clock, di2.clock) || !Objects.equals(di1.len, di2.len)) {
+                if (di1.clock != di2.clock || di1.len != di2.len) {
                     return false;
                 }
             }
@@ -355,7 +384,7 @@ public class DeleteSet {
 
     public static void sortAndMergeDeleteSet(DeleteSet ds) {
         ds.clients.values().forEach(dels -> {
-            dels.sort(Comparator.comparing(a -> a.clock));
+            dels.sort(Comparator.comparingLong(a -> a.clock));
             int i, j;
             for (i = 1, j = 1; i < dels.size(); i++) {
                 DeleteItem left = dels.get(j - 1);
@@ -4,15 +4,18 @@ import cn.hutool.core.bean.BeanUtil;
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import com.triibiotech.yjs.structs.AbstractContent;
+import com.triibiotech.yjs.structs.AbstractStruct;
 import com.triibiotech.yjs.structs.ContentDoc;
 import com.triibiotech.yjs.structs.Item;
 import com.triibiotech.yjs.types.*;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * A Yjs instance handles the state of shared data.
@@ -39,6 +42,18 @@ public class Doc extends ObservableV2<String> {
     public boolean isLoaded = false;
     public boolean isSynced = false;
     public boolean isDestroyed = false;
+    /**
+     * Serialized mailbox the document is bound to, null if the document is not thread-safe
+     */
+    public DocMailbox mailbox = null;
+    /**
+     * Increased at the end of every transaction, identifies the state vector and delete set of the document
+     */
+    public volatile long stateVersion = 0;
+    /**
+     * Encoded full state of the current {@link #stateVersion}, shared by all peers that sync with this document
+     */
+    public final StateUpdateCache stateUpdateCache = new StateUpdateCache();
 
     public CompletableFuture<Doc> whenLoaded;
     public Consumer<Doc> loadListener;
@@ -76,6 +91,8 @@ public class Doc extends ObservableV2<String> {
         this.isLoaded = false;
         this.isSynced = false;
         this.isDestroyed = false;
+        this.mailbox = opts.mailbox ? new DocMailbox() : null;
+        this.store.maxPendingStructs = opts.maxPendingStructs;
         this.whenLoaded = new CompletableFuture<>();
 
         // 设置加载监听器
@@ -165,6 +182,46 @@ public class Doc extends ObservableV2<String> {
         return Transaction.transact(this, f, null, true);
     }
 
+    /**
+     * Same as {@link #transact(Function, Object)}, but does not block the caller when the document is bound to a
+     * mailbox. Without a mailbox the transaction runs inline.
+     *
+     * @param f      The function that should be executed as a transaction
+     * @param origin of who started the transaction. Will be stored on transaction.origin
+     * @return future completed with the result of f, after observers have been called
+     */
+    public <T> CompletableFuture<T> transactAsync(Function<Transaction, T> f, Object origin) {
+        return execute(() -> Transaction.transact(this, f, origin, true));
+    }
+
+    /**
+     * Apply an update (V1) on the mailbox of this document.
+     */
+    public CompletableFuture<Void> applyUpdateAsync(byte[] update, Object origin) {
+        return execute(() -> {
+            EncodingUtil.applyUpdate(this, update, origin);
+            return null;
+        });
+    }
+
+    /**
+     * Run a task on the mailbox of this document. Without a mailbox the task runs inline.
+     */
+    public <T> CompletableFuture<T> execute(Supplier<T> task) {
+        if (mailbox != null) {
+            return mailbox.submit(task);
+        }
+        try {
+            return CompletableFuture.completedFuture(task.get());
+        } catch (Throwable e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public DocMailbox getMailbox() {
+        return mailbox;
+    }
+
     /**
      * Define a shared data type.
      * Multiple calls of `ydoc.get(name, TypeConstructor)` yield the same result
@@ -202,6 +259,15 @@ public class Doc extends ObservableV2<String> {
             // 类型转换：从占位符转为具体类型
             T newInstance = createInstance(typeConstructor);
             BeanUtil.copyProperties(existing, newInstance);
+            // Items integrated into the placeholder must point to the new instance
+            for (Item n : newInstance.map.values()) {
+                for (AbstractStruct s = n; s instanceof Item i; s = i.left) {
+                    i.parent = newInstance;
+                }
+            }
+            for (AbstractStruct s = newInstance.start; s instanceof Item i; s = i.right) {
+                i.parent = newInstance;
+            }
             share.put(name, newInstance);
             existing = newInstance;
         }
@@ -313,9 +379,11 @@ public class Doc extends ObservableV2<String> {
             }
             Doc contentDoc = new Doc(opts);
             contentDoc.item = item;
-            content.setDoc(contentDoc);
+            if (content instanceof ContentDoc) {
+                ((ContentDoc) content).setDoc(contentDoc);
+            }
             Transaction.transact(((AbstractType<?>) item.parent).getDocument(), transaction -> {
-                final Doc doc = content.getDoc();
+                final Doc doc = contentDoc;
                 if (!item.isDeleted()) {
                     transaction.subDocsAdded.add(doc);
                 }
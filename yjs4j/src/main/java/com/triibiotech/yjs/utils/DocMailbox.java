@@ -0,0 +1,177 @@
+package com.triibiotech.yjs.utils;
+
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Serialized mailbox of a single {@link Doc}.
+ * <p>
+ * Tasks submitted to the mailbox run one at a time and in submission order, so everything that touches the
+ * document (transactions, applied updates, observer callbacks) is confined to one logical thread at a time.
+ * The queue is drained on a virtual thread that only exists while there is work, so different documents are
+ * processed in parallel without a global lock and an idle document costs nothing but the queue.
+ * <p>
+ * A task submitted from inside the mailbox runs inline, which keeps nested {@code transact} calls working.
+ *
+ * @author zbs
+ * @date 2026/10/18  13:20:45
+ */
+public class DocMailbox implements Executor {
+    static final Logger log = LoggerFactory.getLogger("DocMailbox");
+
+    /**
+     * Max tasks executed per drain, afterwards the drain is rescheduled so that busy documents yield the carrier
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private static final Executor VIRTUAL_THREADS = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("yjs-doc-mailbox-", 0).factory());
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Executor executor;
+    /**
+     * Thread currently draining the mailbox
+     */
+    private volatile Thread owner;
+    /**
+     * Encoder reused by the tasks of this mailbox, see {@link #acquireEncoder()}. Only touched by the draining
+     * thread, the hand-over between drains is ordered by {@link #scheduled}
+     */
+    private Encoder encoder;
+
+    public DocMailbox() {
+        this(VIRTUAL_THREADS);
+    }
+
+    public DocMailbox(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return whether the caller is the thread that currently owns the mailbox
+     */
+    public boolean inMailbox() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * Take the encoder cached by this mailbox, or a new one when it is already taken by an enclosing task.
+     * <p>
+     * Every drain runs on a fresh virtual thread, so a thread local pool is never hit here; the mailbox runs its
+     * tasks one at a time and keeps the encoder instead. Must be called from inside the mailbox, and the encoder
+     * handed back with {@link #releaseEncoder(Encoder)} before the task returns.
+     */
+    public Encoder acquireEncoder() {
+        if (!inMailbox()) {
+            throw new IllegalStateException("Mailbox encoder used outside of the mailbox");
+        }
+        Encoder cached = encoder;
+        if (cached == null) {
+            return new Encoder();
+        }
+        encoder = null;
+        return cached;
+    }
+
+    public void releaseEncoder(Encoder encoder) {
+        if (inMailbox() && Encoder.reset(encoder)) {
+            this.encoder = encoder;
+        }
+    }
+
+    /**
+     * Number of tasks waiting to be executed
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    /**
+     * Run the task on the mailbox. The task runs inline when called from the mailbox itself.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        if (inMailbox()) {
+            try {
+                return CompletableFuture.completedFuture(task.get());
+            } catch (Throwable e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Run the task on the mailbox and wait for its result. Exceptions thrown by the task are rethrown as is.
+     */
+    public <T> T call(Supplier<T> task) {
+        if (inMailbox()) {
+            return task.get();
+        }
+        try {
+            return submit(task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        owner = Thread.currentThread();
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    log.error("Error in doc mailbox task", e);
+                }
+            }
+        } finally {
+            owner = null;
+            scheduled.set(false);
+        }
+        if (!tasks.isEmpty()) {
+            schedule();
+        }
+    }
+}
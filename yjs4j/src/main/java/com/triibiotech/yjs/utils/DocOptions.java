@@ -45,8 +45,30 @@ public class DocOptions {
      */
     public boolean shouldLoad = true;
 
+    /**
+     * Bind the document to its own serialized {@link DocMailbox}. All transactions run on the mailbox,
+     * which makes the document safe to use from multiple threads (default: false).
+     */
+    public boolean mailbox = false;
+
+    /**
+     * Maximum number of structs kept while waiting for missing updates, see {@link StructStore#maxPendingStructs}
+     * (default: 0, no limit).
+     */
+    public long maxPendingStructs = 0;
+
     public DocOptions withGc(boolean gc) {
         this.gc = gc;
         return this;
     }
+
+    public DocOptions withMailbox(boolean mailbox) {
+        this.mailbox = mailbox;
+        return this;
+    }
+
+    public DocOptions withMaxPendingStructs(long maxPendingStructs) {
+        this.maxPendingStructs = maxPendingStructs;
+        return this;
+    }
 }
@@ -0,0 +1,323 @@
+package com.triibiotech.yjs.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Hashed timing wheel for large numbers of coarse timeouts (heartbeats, awareness expiry, ...).
+ * <p>
+ * All timeouts of a timer are driven by one daemon thread that advances the wheel once per tick, so the cost of an
+ * idle document or connection is one small object in a bucket instead of a parked thread. Scheduling and
+ * cancelling are lock-free; tasks run on the timer thread and must be short, hand heavy work off to another
+ * executor.
+ * <p>
+ * Based on the design of George Varghese and Tony Lauck, "Hashed and Hierarchical Timing Wheels".
+ *
+ * @author zbs
+ * @date 2026/10/18  16:02:17
+ */
+public class HashedWheelTimer {
+    static final Logger log = LoggerFactory.getLogger("HashedWheelTimer");
+
+    private static final class DefaultHolder {
+        static final HashedWheelTimer INSTANCE = new HashedWheelTimer("yjs-timer", 10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * Process-wide timer shared by all documents and connections, tick 10ms
+     */
+    public static HashedWheelTimer getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+    /**
+     * Ticks passed since start, only accessed by the worker
+     */
+    private long tick;
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be in (0, 2^30]: " + ticksPerWheel);
+        }
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        size = Math.max(size, 1);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Run the task once after the given delay
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(new Timeout(this, task, deadlineOf(delay, unit), 0));
+    }
+
+    /**
+     * Run the task repeatedly, first after initialDelay and then every period, until the timeout is cancelled
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than 0: " + period);
+        }
+        return add(new Timeout(this, task, deadlineOf(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    /**
+     * Number of timeouts waiting to be expired (including the ones not yet put into the wheel)
+     */
+    public int pendingTimeouts() {
+        int count = pendingTimeouts.size();
+        for (Bucket bucket : wheel) {
+            count += bucket.size;
+        }
+        return count;
+    }
+
+    /**
+     * Stop the worker thread, pending timeouts are discarded. The default timer must not be stopped.
+     */
+    public void stop() {
+        if (this == DefaultHolder.INSTANCE) {
+            throw new IllegalStateException("The default timer can not be stopped");
+        }
+        running = false;
+        worker.interrupt();
+    }
+
+    private long deadlineOf(long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - startTime;
+        // guard against overflow
+        return deadline < 0 ? Long.MAX_VALUE : deadline;
+    }
+
+    private Timeout add(Timeout timeout) {
+        if (!running) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                continue;
+            }
+            removeCancelledTimeouts();
+            transferTimeoutsToBuckets();
+            wheel[(int) (tick & mask)].expireTimeouts(deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * @return current time relative to startTime, or -1 if interrupted
+     */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long currentTime = System.nanoTime() - startTime;
+            long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+            if (sleepTimeMs <= 0) {
+                return currentTime;
+            }
+            try {
+                Thread.sleep(sleepTimeMs);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void transferTimeoutsToBuckets() {
+        // bounded, so that a burst of new timeouts can not stall the wheel
+        for (int i = 0; i < 100000; i++) {
+            Timeout timeout = pendingTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.state != Timeout.ST_INIT) {
+                continue;
+            }
+            place(timeout);
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long calculated = timeout.deadline / tickNanos;
+        timeout.remainingRounds = (calculated - tick) / wheel.length;
+        // a timeout in the past is expired on the current tick
+        long ticks = Math.max(calculated, tick);
+        wheel[(int) (ticks & mask)].add(timeout);
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void expire(Timeout timeout) {
+        if (timeout.period == 0 && !Timeout.STATE_UPDATER.compareAndSet(timeout, Timeout.ST_INIT, Timeout.ST_EXPIRED)) {
+            return;
+        }
+        if (timeout.state == Timeout.ST_CANCELLED) {
+            return;
+        }
+        try {
+            timeout.task.run();
+        } catch (Throwable e) {
+            log.error("Error in timer task", e);
+        }
+        if (timeout.period > 0 && timeout.state == Timeout.ST_INIT) {
+            long now = System.nanoTime() - startTime;
+            timeout.deadline = Math.max(timeout.deadline + timeout.period, now);
+            place(timeout);
+        }
+    }
+
+    /**
+     * Handle of a scheduled task
+     */
+    public static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private long remainingRounds;
+        private volatile int state = ST_INIT;
+
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline, long period) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Cancel the task. A periodic task that is running finishes its current run.
+         *
+         * @return false if the task was already cancelled or (one shot) has already run
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, only accessed by the worker
+     */
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+        private volatile int size;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+            size++;
+        }
+
+        void expireTimeouts(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state == Timeout.ST_CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        expire(timeout);
+                    } else {
+                        // placed into a wrong slot, should never happen
+                        place(timeout);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.triibiotech.yjs.utils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Growable array of primitive longs, e.g. the client ids that still have structs to integrate.
+ *
+ * @author zbs
+ * @date 2026/10/18  22:15:12
+ */
+public class LongArrayList {
+
+    private long[] elements;
+    private int size;
+
+    public LongArrayList() {
+        this(8);
+    }
+
+    public LongArrayList(int capacity) {
+        elements = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * Wraps the array without copying it
+     */
+    public static LongArrayList wrap(long[] elements) {
+        LongArrayList list = new LongArrayList(0);
+        list.elements = elements;
+        list.size = elements.length;
+        return list;
+    }
+
+    public void add(long value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = value;
+    }
+
+    public long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return elements[index];
+    }
+
+    public long getLast() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[size - 1];
+    }
+
+    public long removeLast() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return elements[--size];
+    }
+
+    /**
+     * Remove every occurrence of the value, keeping the order of the other elements
+     */
+    public void removeValue(long value) {
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            if (elements[i] != value) {
+                elements[j++] = elements[i];
+            }
+        }
+        size = j;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
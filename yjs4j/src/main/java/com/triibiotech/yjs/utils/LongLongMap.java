@@ -0,0 +1,264 @@
+package com.triibiotech.yjs.utils;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Map from primitive long keys to primitive long values, used for decoded state vectors (client -> clock).
+ * <p>
+ * Same layout as {@link LongObjectMap}: dense key and value arrays indexed by an open addressing table. Removing an
+ * entry moves the last entry into its place, so the iteration order is not the insertion order. Not thread safe.
+ *
+ * @author zbs
+ * @date 2026/10/18  22:08:40
+ */
+public class LongLongMap extends AbstractMap<Long, Long> {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] keys;
+    private long[] values;
+    /**
+     * Dense position + 1 of every key, 0 is an empty slot
+     */
+    private int[] table;
+    private int size;
+    private int modCount;
+    private Set<Entry<Long, Long>> entrySet;
+
+    public LongLongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongLongMap(int expectedSize) {
+        int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        keys = new long[capacity];
+        values = new long[capacity];
+        table = new int[LongObjectMap.tableSize(capacity)];
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    private int slotOf(long key) {
+        int mask = table.length - 1;
+        for (int slot = LongObjectMap.hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int position = table[slot];
+            if (position == 0 || keys[position - 1] == key) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return the value of the key, or defaultValue if the key is absent
+     */
+    public long get(long key, long defaultValue) {
+        int position = table[slotOf(key)] - 1;
+        return position < 0 ? defaultValue : values[position];
+    }
+
+    public boolean containsKey(long key) {
+        return table[slotOf(key)] != 0;
+    }
+
+    public void put(long key, long value) {
+        int slot = slotOf(key);
+        int position = table[slot] - 1;
+        if (position >= 0) {
+            values[position] = value;
+            return;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            rehash();
+            slot = slotOf(key);
+        }
+        keys[size] = key;
+        values[size] = value;
+        table[slot] = ++size;
+        modCount++;
+    }
+
+    /**
+     * @return true if the key was present
+     */
+    public boolean remove(long key) {
+        int slot = slotOf(key);
+        int position = table[slot] - 1;
+        if (position < 0) {
+            return false;
+        }
+        deleteSlot(slot);
+        int last = --size;
+        if (position != last) {
+            // move the last entry into the gap
+            table[slotOf(keys[last])] = position + 1;
+            keys[position] = keys[last];
+            values[position] = values[last];
+        }
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Backward shift deletion, keeps the probe sequences of the following keys intact
+     */
+    private void deleteSlot(int slot) {
+        int mask = table.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = LongObjectMap.hash(keys[table[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table[free] = table[next];
+                free = next;
+            }
+        }
+        table[free] = 0;
+    }
+
+    private void rehash() {
+        table = new int[LongObjectMap.tableSize(keys.length)];
+        int mask = table.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = LongObjectMap.hash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    public void forEachEntry(EntryConsumer action) {
+        int expectedModCount = modCount;
+        for (int i = 0; i < size; i++) {
+            action.accept(keys[i], values[i]);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Long get(Object key) {
+        if (!(key instanceof Long k)) {
+            return null;
+        }
+        int position = table[slotOf(k)] - 1;
+        return position < 0 ? null : values[position];
+    }
+
+    @Override
+    public Long getOrDefault(Object key, Long defaultValue) {
+        Long value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long k && containsKey(k.longValue());
+    }
+
+    @Override
+    public Long put(Long key, Long value) {
+        Long previous = get(key);
+        put(key.longValue(), value.longValue());
+        return previous;
+    }
+
+    @Override
+    public Long remove(Object key) {
+        Long previous = get(key);
+        if (previous != null) {
+            remove(((Long) key).longValue());
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(table, 0);
+            size = 0;
+            modCount++;
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Long, ? super Long> action) {
+        forEachEntry(action::accept);
+    }
+
+    @Override
+    public Set<Entry<Long, Long>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Long, Long>> iterator() {
+                    return new Iterator<>() {
+                        private int next = 0;
+                        private boolean canRemove = false;
+                        private int expectedModCount = modCount;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<Long, Long> next() {
+                            if (modCount != expectedModCount) {
+                                throw new ConcurrentModificationException();
+                            }
+                            if (next >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Long, Long> entry = new SimpleImmutableEntry<>(keys[next], values[next]);
+                            next++;
+                            canRemove = true;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (!canRemove) {
+                                throw new IllegalStateException();
+                            }
+                            if (modCount != expectedModCount) {
+                                throw new ConcurrentModificationException();
+                            }
+                            // the last entry moves into the removed position, visit it next
+                            LongLongMap.this.remove(keys[--next]);
+                            canRemove = false;
+                            expectedModCount = modCount;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    LongLongMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+}
@@ -0,0 +1,353 @@
+package com.triibiotech.yjs.utils;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * Insertion ordered map from primitive long keys (client ids) to objects.
+ * <p>
+ * Entries are kept in dense key and value arrays in insertion order, an open addressing table of dense positions
+ * indexes them. The primitive methods ({@link #get(long)}, {@link #put(long, Object)}, {@link #forEachEntry})
+ * don't box the key. It also implements {@link Map}, iteration over it fails fast when the map is structurally
+ * modified, like {@link LinkedHashMap}. Not thread safe.
+ *
+ * @author zbs
+ * @date 2026/10/18  21:52:03
+ */
+public class LongObjectMap<V> extends AbstractMap<Long, V> {
+
+    private static final Object REMOVED = new Object();
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] keys;
+    private Object[] values;
+    /**
+     * Dense position + 1 of every key, 0 is an empty slot
+     */
+    private int[] table;
+    /**
+     * Number of used dense positions, including removed entries
+     */
+    private int count;
+    private int size;
+    private int modCount;
+    private Set<Entry<Long, V>> entrySet;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        keys = new long[capacity];
+        values = new Object[capacity];
+        table = new int[tableSize(capacity)];
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    static int tableSize(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slotOf(long key) {
+        int mask = table.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int position = table[slot];
+            if (position == 0 || keys[position - 1] == key) {
+                return slot;
+            }
+        }
+    }
+
+    private int positionOf(long key) {
+        return table[slotOf(key)] - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int position = positionOf(key);
+        return position < 0 ? null : (V) values[position];
+    }
+
+    public V getOrDefault(long key, V defaultValue) {
+        int position = positionOf(key);
+        return position < 0 ? defaultValue : valueAt(position);
+    }
+
+    public boolean containsKey(long key) {
+        return positionOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int position) {
+        return (V) values[position];
+    }
+
+    public V put(long key, V value) {
+        int slot = slotOf(key);
+        int position = table[slot] - 1;
+        if (position >= 0) {
+            V previous = valueAt(position);
+            values[position] = value;
+            return previous;
+        }
+        if (count == keys.length) {
+            grow();
+            slot = slotOf(key);
+        }
+        keys[count] = key;
+        values[count] = value;
+        table[slot] = ++count;
+        size++;
+        modCount++;
+        return null;
+    }
+
+    public V computeIfAbsent(long key, LongFunction<? extends V> mappingFunction) {
+        int position = positionOf(key);
+        if (position >= 0) {
+            return valueAt(position);
+        }
+        V value = mappingFunction.apply(key);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    public V remove(long key) {
+        int slot = slotOf(key);
+        int position = table[slot] - 1;
+        if (position < 0) {
+            return null;
+        }
+        V previous = valueAt(position);
+        values[position] = REMOVED;
+        size--;
+        modCount++;
+        deleteSlot(slot);
+        return previous;
+    }
+
+    /**
+     * Backward shift deletion, keeps the probe sequences of the following keys intact
+     */
+    private void deleteSlot(int slot) {
+        int mask = table.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = hash(keys[table[next] - 1]) & mask;
+            // move the entry to the free slot if the free slot lies on its probe sequence
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table[free] = table[next];
+                free = next;
+            }
+        }
+        table[free] = 0;
+    }
+
+    private void grow() {
+        int capacity = size * 2 > keys.length ? keys.length * 2 : keys.length;
+        long[] newKeys = new long[capacity];
+        Object[] newValues = new Object[capacity];
+        int newCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != REMOVED) {
+                newKeys[newCount] = keys[i];
+                newValues[newCount++] = values[i];
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        count = newCount;
+        rehash();
+    }
+
+    private void rehash() {
+        table = new int[tableSize(keys.length)];
+        int mask = table.length - 1;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != REMOVED) {
+                int slot = hash(keys[i]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Iterate in insertion order without boxing the keys
+     */
+    public void forEachEntry(EntryConsumer<? super V> action) {
+        int expectedModCount = modCount;
+        for (int i = 0; i < count; i++) {
+            Object value = values[i];
+            if (value != REMOVED) {
+                action.accept(keys[i], valueAt(i));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the keys in ascending order
+     */
+    public long[] sortedKeys() {
+        long[] sorted = new long[size];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != REMOVED) {
+                sorted[n++] = keys[i];
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Long k ? get(k.longValue()) : null;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return key instanceof Long k ? getOrDefault(k.longValue(), defaultValue) : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long k && containsKey(k.longValue());
+    }
+
+    @Override
+    public V put(Long key, V value) {
+        return put(key.longValue(), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof Long k ? remove(k.longValue()) : null;
+    }
+
+    @Override
+    public void clear() {
+        if (count > 0) {
+            Arrays.fill(values, 0, count, null);
+            Arrays.fill(table, 0);
+            count = 0;
+            size = 0;
+            modCount++;
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Long, ? super V> action) {
+        forEachEntry(action::accept);
+    }
+
+    @Override
+    public Set<Entry<Long, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Long, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    LongObjectMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class EntryIterator implements Iterator<Entry<Long, V>> {
+        private int next = advance(0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int position) {
+            while (position < count && values[position] == REMOVED) {
+                position++;
+            }
+            return position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        @Override
+        public Entry<Long, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= count) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = advance(next + 1);
+            return new MapEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            LongObjectMap.this.remove(keys[last]);
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class MapEntry extends SimpleEntry<Long, V> {
+        private final int position;
+
+        MapEntry(int position) {
+            super(keys[position], valueAt(position));
+            this.position = position;
+        }
+
+        @Override
+        public V setValue(V value) {
+            values[position] = value;
+            return super.setValue(value);
+        }
+    }
+}
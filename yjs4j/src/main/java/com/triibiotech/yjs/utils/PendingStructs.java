@@ -0,0 +1,266 @@
+package com.triibiotech.yjs.utils;
+
+import com.triibiotech.yjs.structs.AbstractStruct;
+import com.triibiotech.yjs.structs.Item;
+import com.triibiotech.yjs.structs.Skip;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+
+import java.util.*;
+
+/**
+ * Structs that could not be integrated yet, because a struct they depend on has not been received.
+ * <p>
+ * The structs are kept decoded and indexed by client and clock. Every client with pending structs waits on a single
+ * dependency: the first ID its lowest pending struct needs. When the state of the client of a dependency passes it,
+ * {@link #takeReady(StructStore)} hands back the structs of exactly the clients that were waiting on it, so a peer
+ * that is many updates behind does not make every following update re-encode and re-merge everything pending.
+ *
+ * @author zbs
+ * @date 2026/10/18  20:15:42
+ */
+public class PendingStructs {
+
+    /**
+     * client -> clock -> struct
+     */
+    private final Map<Long, TreeMap<Long, AbstractStruct>> structs = new HashMap<>();
+    /**
+     * client of a dependency -> clock that must be integrated -> waiting clients
+     */
+    private final Map<Long, TreeMap<Long, Set<Long>>> waiting = new HashMap<>();
+    /**
+     * waiting client -> its dependency
+     */
+    private final Map<Long, ID> dependencies = new HashMap<>();
+    /**
+     * client -> {@link System#nanoTime()} when the client got pending structs
+     */
+    private final Map<Long, Long> since = new HashMap<>();
+    private int size = 0;
+
+    /**
+     * Add structs of a client. Skips and structs below the local state of the client are dropped.
+     */
+    public void add(long client, Collection<? extends AbstractStruct> clientStructs, StructStore store) {
+        long state = StructStore.getState(store, client);
+        TreeMap<Long, AbstractStruct> pending = structs.get(client);
+        boolean added = false;
+        for (AbstractStruct struct : clientStructs) {
+            if (struct instanceof Skip || struct.id.clock + struct.length <= state) {
+                continue;
+            }
+            if (pending == null) {
+                pending = new TreeMap<>();
+                structs.put(client, pending);
+                since.put(client, System.nanoTime());
+            }
+            AbstractStruct existing = pending.get(struct.id.clock);
+            if (existing == null) {
+                pending.put(struct.id.clock, struct);
+                size++;
+            } else if (existing.length < struct.length) {
+                pending.put(struct.id.clock, struct);
+            }
+            added = true;
+        }
+        if (added) {
+            updateDependency(client, store);
+        }
+    }
+
+    /**
+     * Move all structs of another instance into this one
+     */
+    public void merge(PendingStructs other, StructStore store) {
+        other.structs.forEach((client, clientStructs) -> add(client, clientStructs.values(), store));
+    }
+
+    /**
+     * Remove and return the structs of every client whose dependency has been integrated meanwhile.
+     *
+     * @return structs by client, sorted by clock. Ranges of a client may overlap or have gaps.
+     */
+    public Map<Long, List<AbstractStruct>> takeReady(StructStore store) {
+        Set<Long> readyClients = new LinkedHashSet<>();
+        Iterator<Map.Entry<Long, TreeMap<Long, Set<Long>>>> iterator = waiting.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, TreeMap<Long, Set<Long>>> entry = iterator.next();
+            SortedMap<Long, Set<Long>> unblocked = entry.getValue().headMap(StructStore.getState(store, entry.getKey()));
+            unblocked.values().forEach(readyClients::addAll);
+            unblocked.clear();
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+        Map<Long, List<AbstractStruct>> ready = new LinkedHashMap<>();
+        for (Long client : readyClients) {
+            dependencies.remove(client);
+            since.remove(client);
+            TreeMap<Long, AbstractStruct> clientStructs = structs.remove(client);
+            size -= clientStructs.size();
+            ready.put(client, new ArrayList<>(clientStructs.values()));
+        }
+        return ready;
+    }
+
+    /**
+     * Drop the clients that have been pending the longest until at most maxSize structs are left.
+     *
+     * @param maxSize maximum number of pending structs, 0 means no limit
+     * @return number of dropped structs
+     */
+    public int evict(long maxSize) {
+        if (maxSize <= 0 || size <= maxSize) {
+            return 0;
+        }
+        List<Long> oldest = since.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .toList();
+        int dropped = 0;
+        for (Long client : oldest) {
+            if (size <= maxSize) {
+                break;
+            }
+            unwait(client);
+            since.remove(client);
+            int count = structs.remove(client).size();
+            size -= count;
+            dropped += count;
+        }
+        return dropped;
+    }
+
+    private void updateDependency(long client, StructStore store) {
+        unwait(client);
+        TreeMap<Long, AbstractStruct> clientStructs = structs.get(client);
+        long state = StructStore.getState(store, client);
+        while (!clientStructs.isEmpty()) {
+            AbstractStruct first = clientStructs.firstEntry().getValue();
+            if (first.id.clock + first.length > state) {
+                break;
+            }
+            clientStructs.pollFirstEntry();
+            size--;
+        }
+        if (clientStructs.isEmpty()) {
+            structs.remove(client);
+            since.remove(client);
+            return;
+        }
+        ID dependency = getDependency(clientStructs.firstEntry().getValue(), state, store);
+        dependencies.put(client, dependency);
+        waiting.computeIfAbsent(dependency.client, k -> new TreeMap<>())
+                .computeIfAbsent(dependency.clock, k -> new HashSet<>())
+                .add(client);
+    }
+
+    private void unwait(long client) {
+        ID dependency = dependencies.remove(client);
+        if (dependency == null) {
+            return;
+        }
+        TreeMap<Long, Set<Long>> clocks = waiting.get(dependency.client);
+        Set<Long> clients = clocks.get(dependency.clock);
+        clients.remove(client);
+        if (clients.isEmpty()) {
+            clocks.remove(dependency.clock);
+            if (clocks.isEmpty()) {
+                waiting.remove(dependency.client);
+            }
+        }
+    }
+
+    /**
+     * The struct can be integrated once the state of the client of the returned ID is greater than its clock.
+     * Mirrors the checks of
+     * {@link com.triibiotech.yjs.utils.encoding.EncodingUtil#integrateStructs} and {@link Item#getMissing}.
+     */
+    private static ID getDependency(AbstractStruct struct, long state, StructStore store) {
+        if (struct.id.clock <= state && struct instanceof Item item) {
+            long client = item.id.client;
+            if (isMissing(item.origin, client, store)) {
+                return new ID(item.origin.client, item.origin.clock);
+            }
+            if (isMissing(item.rightOrigin, client, store)) {
+                return new ID(item.rightOrigin.client, item.rightOrigin.clock);
+            }
+            if (item.parent instanceof ID parent && isMissing(parent, client, store)) {
+                return new ID(parent.client, parent.clock);
+            }
+        }
+        // the previous clock of the same client
+        return new ID(struct.id.client, struct.id.clock - 1);
+    }
+
+    private static boolean isMissing(ID id, long client, StructStore store) {
+        return id != null && id.client != client && id.clock >= StructStore.getState(store, id.client);
+    }
+
+    /**
+     * Write the pending structs that are not covered by the target state vector, gaps are written as skips
+     */
+    public void writeStructs(DSEncoder encoder, Map<Long, Long> targetStateVector) {
+        // higher client ids first, merging updates relies on it
+        Map<Long, List<AbstractStruct>> toWrite = new TreeMap<>(Comparator.reverseOrder());
+        Map<Long, long[]> offsets = new HashMap<>();
+        structs.forEach((client, clientStructs) -> {
+            long clock = targetStateVector.getOrDefault(client, 0L);
+            List<AbstractStruct> write = new ArrayList<>();
+            long[] structOffsets = new long[clientStructs.size() * 2];
+            for (AbstractStruct struct : clientStructs.values()) {
+                long end = struct.id.clock + struct.length;
+                if (end <= clock) {
+                    continue;
+                }
+                if (!write.isEmpty() && struct.id.clock > clock) {
+                    write.add(new Skip(ID.createId(client, clock), struct.id.clock - clock));
+                }
+                structOffsets[write.size()] = Math.max(0, clock - struct.id.clock);
+                write.add(struct);
+                clock = end;
+            }
+            if (!write.isEmpty()) {
+                toWrite.put(client, write);
+                offsets.put(client, structOffsets);
+            }
+        });
+        Encoder.writeVarUint(encoder.getRestEncoder(), toWrite.size());
+        toWrite.forEach((client, write) -> {
+            long[] structOffsets = offsets.get(client);
+            Encoder.writeVarUint(encoder.getRestEncoder(), write.size());
+            encoder.writeClient(client);
+            Encoder.writeVarUint(encoder.getRestEncoder(), write.getFirst().id.clock + structOffsets[0]);
+            for (int i = 0; i < write.size(); i++) {
+                write.get(i).write(encoder, structOffsets[i]);
+            }
+        });
+    }
+
+    /**
+     * Lowest clock every client with a pending dependency is waiting for
+     */
+    public Map<Long, Long> getMissing() {
+        Map<Long, Long> missing = new HashMap<>();
+        waiting.forEach((client, clocks) -> missing.put(client, clocks.firstKey()));
+        return missing;
+    }
+
+    /**
+     * Number of pending structs
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return structs.isEmpty();
+    }
+
+    /**
+     * Nanoseconds since the oldest pending structs were added
+     */
+    public long getAgeNanos() {
+        return since.values().stream().mapToLong(start -> System.nanoTime() - start).max().orElse(0);
+    }
+}
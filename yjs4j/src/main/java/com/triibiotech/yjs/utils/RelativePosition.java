@@ -225,9 +225,7 @@ public class RelativePosition {
     }
 
     public static byte[] encodeRelativePosition(RelativePosition rpos) {
-        Encoder encoder = Encoder.createEncoder();
-        writeRelativePosition(encoder, rpos);
-        return Encoder.toUint8Array(encoder);
+        return Encoder.encode(encoder -> writeRelativePosition(encoder, rpos));
     }
 
     public static RelativePosition readRelativePosition(Decoder decoder) {
@@ -47,8 +47,8 @@ public class Snapshot {
     }
 
     public static boolean equalSnapshots(Snapshot snap1, Snapshot snap2) {
-        SafeLinkedHashMap<Long, List<DeleteItem>> ds1 = snap1.ds.clients;
-        SafeLinkedHashMap<Long, List<DeleteItem>> ds2 = snap2.ds.clients;
+        LongObjectMap<List<DeleteItem>> ds1 = snap1.ds.clients;
+        LongObjectMap<List<DeleteItem>> ds2 = snap2.ds.clients;
         Map<Long, Long> sv1 = snap1.sv;
         Map<Long, Long> sv2 = snap2.sv;
 
@@ -62,10 +62,9 @@ public class Snapshot {
             }
         }
 
-        for (Map.Entry<Long, List<DeleteItem>> entry : ds1.entrySet()) {
-            Long client = entry.getKey();
-            List<DeleteItem> dsitems1 = entry.getValue();
-            List<DeleteItem> dsitems2 = ds2.getOrDefault(client, new ArrayList<>());
+        for (long client : ds1.sortedKeys()) {
+            List<DeleteItem> dsitems1 = ds1.get(client);
+            List<DeleteItem> dsitems2 = ds2.getOrDefault(client, Collections.emptyList());
 
             if (dsitems1.size() != dsitems2.size()) {
                 return false;
@@ -74,7 +73,7 @@ public class Snapshot {
             for (int i = 0; i < dsitems1.size(); i++) {
                 DeleteItem dsitem1 = dsitems1.get(i);
                 DeleteItem dsitem2 = dsitems2.get(i);
-                if (!Objects.equals(dsitem1.clock, dsitem2.clock) || !Objects.equals(dsitem1.len, dsitem2.len)) {
+                if (dsitem1.clock != dsitem2.clock || dsitem1.len != dsitem2.len) {
                     return false;
                 }
             }
@@ -141,7 +140,7 @@ public class Snapshot {
         if (!meta.contains(snapshot)) {
             snapshot.sv.forEach((client, clock) -> {
                 if (clock < store.getState(client)) {
-                    StructStore.getItemCleanStart(transaction, ID.createId(client, clock));
+                    StructStore.getItemCleanStart(transaction, client, clock);
                 }
             });
             DeleteSet.iterateDeletedStructs(transaction, snapshot.ds, item -> {
@@ -182,10 +181,10 @@ public class Snapshot {
                 }
 
                 if (clock < originDoc.store.getState(client)) {
-                    StructStore.getItemCleanStart(transaction, ID.createId(client, clock));
+                    StructStore.getItemCleanStart(transaction, client, clock);
                 }
 
-                LinkedList<AbstractStruct> structs = originDoc.store.getClients().getOrDefault(client, new LinkedList<>());
+                StructList structs = originDoc.store.getClients().getOrDefault(client, new StructList());
                 int lastStructIndex = StructStore.findIndexSS(structs, clock - 1);
 
                 // write # encoded structs
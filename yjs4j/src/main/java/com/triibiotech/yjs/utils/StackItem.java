@@ -72,11 +72,11 @@ public class StackItem {
 
                 DeleteSet.iterateDeletedStructs(transaction, stackItem.insertions, struct -> {
                     if (struct instanceof Item item) {
-                        if (item.redone != null) {
+                        if (item.isRedone()) {
                             Map<String, Object> res = Item.followRedone(store, item.id);
                             AbstractStruct resItem = (AbstractStruct) res.get("item");
                             if ((Long) res.get("diff") > 0) {
-                                resItem = StructStore.getItemCleanStart(transaction, ID.createId(resItem.id.client, resItem.id.clock + (Long) res.get("diff")));
+                                resItem = StructStore.getItemCleanStart(transaction, resItem.id.client, resItem.id.clock + (Long) res.get("diff"));
                             }
                             struct = resItem;
                         }
@@ -0,0 +1,72 @@
+package com.triibiotech.yjs.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the encoded (V1) full state and delete set of a document.
+ * <p>
+ * Entries are keyed by {@link Doc#stateVersion}, which is increased by every transaction. A transaction is the only
+ * way to change the state vector or the delete set, so an entry of the current version is always up-to-date and
+ * stale entries are simply never hit again.
+ *
+ * @author zbs
+ * @date 2026/10/18  17:12:40
+ * @see com.triibiotech.yjs.utils.encoding.EncodingUtil#encodeStateAsUpdateCached(Doc, byte[])
+ */
+public class StateUpdateCache {
+
+    private record Entry(long version, byte[] bytes) {
+    }
+
+    private volatile Entry fullState;
+    private volatile Entry deleteSet;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Encoded full state of the given version, or null
+     */
+    public byte[] getFullState(long version) {
+        return get(fullState, version);
+    }
+
+    public void putFullState(long version, byte[] update) {
+        fullState = new Entry(version, update);
+    }
+
+    /**
+     * Encoded delete set of the given version, or null
+     */
+    public byte[] getDeleteSet(long version) {
+        return get(deleteSet, version);
+    }
+
+    public void putDeleteSet(long version, byte[] ds) {
+        deleteSet = new Entry(version, ds);
+    }
+
+    /**
+     * Drop all entries, e.g. before a document is hibernated
+     */
+    public void clear() {
+        fullState = null;
+        deleteSet = null;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private byte[] get(Entry entry, long version) {
+        if (entry != null && entry.version == version) {
+            hits.incrementAndGet();
+            return entry.bytes;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+}
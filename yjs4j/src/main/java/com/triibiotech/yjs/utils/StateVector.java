@@ -0,0 +1,211 @@
+package com.triibiotech.yjs.utils;
+
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable snapshot of the state vector of a {@link StructStore}, client -> next expected clock.
+ * <p>
+ * Clients and clocks are kept in two sorted primitive arrays. The store hands out the same snapshot until its state
+ * changes, so the state before and after a transaction and the state vector of a sync step are shared instead of
+ * rebuilt, and the encoded V1/V2 forms are computed once per snapshot.
+ *
+ * @author zbs
+ * @date 2026/10/18  21:05:27
+ */
+public final class StateVector extends AbstractMap<Long, Long> {
+
+    public static final StateVector EMPTY = new StateVector(new long[0], new long[0], 0);
+
+    private final long[] clients;
+    private final long[] clocks;
+    private final int size;
+    private volatile byte[] encodedV1;
+    private volatile byte[] encodedV2;
+    private Set<Entry<Long, Long>> entrySet;
+
+    /**
+     * @param clients sorted client ids, not copied
+     * @param clocks  clock of each client, not copied
+     */
+    StateVector(long[] clients, long[] clocks, int size) {
+        this.clients = clients;
+        this.clocks = clocks;
+        this.size = size;
+    }
+
+    /**
+     * @return the next expected clock of the client, 0 if the client is unknown
+     */
+    public long getClock(long client) {
+        int index = Arrays.binarySearch(clients, 0, size, client);
+        return index < 0 ? 0 : clocks[index];
+    }
+
+    /**
+     * Encoded in the V1 format of {@link com.triibiotech.yjs.utils.encoding.EncodingUtil#encodeStateVector(Object)}.
+     * The array is shared and must not be modified.
+     */
+    public byte[] encodeV1() {
+        byte[] encoded = encodedV1;
+        if (encoded == null) {
+            encodedV1 = encoded = encode(new UpdateEncoderV1());
+        }
+        return encoded;
+    }
+
+    /**
+     * Encoded in the V2 format. The array is shared and must not be modified.
+     */
+    public byte[] encodeV2() {
+        byte[] encoded = encodedV2;
+        if (encoded == null) {
+            encodedV2 = encoded = encode(new UpdateEncoderV2());
+        }
+        return encoded;
+    }
+
+    private byte[] encode(DSEncoder encoder) {
+        write(encoder);
+        return encoder.toUint8Array();
+    }
+
+    /**
+     * Write the state vector, higher client ids first
+     */
+    public void write(DSEncoder encoder) {
+        Encoder.writeVarUint(encoder.getRestEncoder(), size);
+        for (int i = size - 1; i >= 0; i--) {
+            Encoder.writeVarUint(encoder.getRestEncoder(), clients[i]);
+            Encoder.writeVarUint(encoder.getRestEncoder(), clocks[i]);
+        }
+    }
+
+    /**
+     * Iterate in ascending client order without boxing
+     */
+    public void forEachClock(LongLongMap.EntryConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(clients[i], clocks[i]);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long client && Arrays.binarySearch(clients, 0, size, client) >= 0;
+    }
+
+    @Override
+    public Long get(Object key) {
+        if (!(key instanceof Long client)) {
+            return null;
+        }
+        int index = Arrays.binarySearch(clients, 0, size, client);
+        return index < 0 ? null : clocks[index];
+    }
+
+    @Override
+    public Long getOrDefault(Object key, Long defaultValue) {
+        Long clock = get(key);
+        return clock == null ? defaultValue : clock;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Long, ? super Long> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(clients[i], clocks[i]);
+        }
+    }
+
+    @Override
+    public Set<Entry<Long, Long>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Long, Long>> iterator() {
+                    return new Iterator<>() {
+                        private int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < size;
+                        }
+
+                        @Override
+                        public Entry<Long, Long> next() {
+                            if (index >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Long, Long> entry = new SimpleImmutableEntry<>(clients[index], clocks[index]);
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Mutable state of a store, snapshots copy the arrays
+     */
+    static final class Builder {
+        private long[] clients = new long[8];
+        private long[] clocks = new long[8];
+        private int size = 0;
+        private StateVector snapshot = EMPTY;
+
+        void set(long client, long clock) {
+            int index = Arrays.binarySearch(clients, 0, size, client);
+            if (index >= 0) {
+                if (clocks[index] == clock) {
+                    return;
+                }
+                clocks[index] = clock;
+            } else {
+                index = -index - 1;
+                if (size == clients.length) {
+                    clients = Arrays.copyOf(clients, size * 2);
+                    clocks = Arrays.copyOf(clocks, size * 2);
+                }
+                System.arraycopy(clients, index, clients, index + 1, size - index);
+                System.arraycopy(clocks, index, clocks, index + 1, size - index);
+                clients[index] = client;
+                clocks[index] = clock;
+                size++;
+            }
+            snapshot = null;
+        }
+
+        long get(long client) {
+            int index = Arrays.binarySearch(clients, 0, size, client);
+            return index < 0 ? 0 : clocks[index];
+        }
+
+        StateVector snapshot() {
+            StateVector current = snapshot;
+            if (current == null) {
+                snapshot = current = new StateVector(Arrays.copyOf(clients, size), Arrays.copyOf(clocks, size), size);
+            }
+            return current;
+        }
+
+        void clear() {
+            size = 0;
+            snapshot = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.triibiotech.yjs.utils;
+
+import com.triibiotech.yjs.structs.AbstractStruct;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Per-client struct container used by {@link StructStore}.
+ * <p>
+ * Structs are kept in a list of bounded chunks, so that positional access is
+ * O(log chunks) (the struct store binary searches on it all the time) while an
+ * insert in the middle - which happens whenever an item is split - only moves
+ * the elements of a single chunk instead of the whole history of a client.
+ *
+ * @author zbs
+ * @date 2026/10/18  10:12:40
+ */
+public class StructList extends AbstractList<AbstractStruct> implements RandomAccess {
+
+    /**
+     * Maximum number of structs per chunk. A full chunk is split in half on insert.
+     */
+    static final int CHUNK_CAPACITY = 512;
+
+    private static final int INITIAL_CHUNK_CAPACITY = 8;
+
+    private AbstractStruct[][] chunks = new AbstractStruct[4][];
+    private int[] chunkSizes = new int[4];
+    /**
+     * Index of the first struct of each chunk
+     */
+    private int[] chunkStarts = new int[4];
+    private int chunkCount = 0;
+    private int size = 0;
+    /**
+     * Chunk of the last lookup, binary searches and iterations mostly stay close to it
+     */
+    private int hint = 0;
+
+    public StructList() {
+    }
+
+    public StructList(Collection<? extends AbstractStruct> structs) {
+        for (AbstractStruct struct : structs) {
+            add(struct);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public AbstractStruct get(int index) {
+        checkIndex(index);
+        int c = chunkOf(index);
+        return chunks[c][index - chunkStarts[c]];
+    }
+
+    @Override
+    public AbstractStruct set(int index, AbstractStruct struct) {
+        checkIndex(index);
+        int c = chunkOf(index);
+        AbstractStruct[] chunk = chunks[c];
+        int i = index - chunkStarts[c];
+        AbstractStruct old = chunk[i];
+        chunk[i] = struct;
+        return old;
+    }
+
+    @Override
+    public boolean add(AbstractStruct struct) {
+        appendLast(struct);
+        return true;
+    }
+
+    @Override
+    public void add(int index, AbstractStruct struct) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (index == size) {
+            appendLast(struct);
+            return;
+        }
+        int c = chunkOf(index);
+        if (chunkSizes[c] == CHUNK_CAPACITY) {
+            splitChunk(c);
+            if (index >= chunkStarts[c + 1]) {
+                c++;
+            }
+        }
+        int i = index - chunkStarts[c];
+        AbstractStruct[] chunk = ensureChunkCapacity(c, chunkSizes[c] + 1);
+        System.arraycopy(chunk, i, chunk, i + 1, chunkSizes[c] - i);
+        chunk[i] = struct;
+        chunkSizes[c]++;
+        for (int j = c + 1; j < chunkCount; j++) {
+            chunkStarts[j]++;
+        }
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public AbstractStruct remove(int index) {
+        checkIndex(index);
+        int c = chunkOf(index);
+        AbstractStruct[] chunk = chunks[c];
+        int i = index - chunkStarts[c];
+        AbstractStruct old = chunk[i];
+        int moved = chunkSizes[c] - i - 1;
+        if (moved > 0) {
+            System.arraycopy(chunk, i + 1, chunk, i, moved);
+        }
+        chunk[--chunkSizes[c]] = null;
+        for (int j = c + 1; j < chunkCount; j++) {
+            chunkStarts[j]--;
+        }
+        if (chunkSizes[c] == 0 && chunkCount > 1) {
+            removeChunk(c);
+        }
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(chunks, null);
+        Arrays.fill(chunkSizes, 0);
+        Arrays.fill(chunkStarts, 0);
+        chunkCount = 0;
+        size = 0;
+        hint = 0;
+        modCount++;
+    }
+
+    @Override
+    public AbstractStruct getFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return chunks[0][0];
+    }
+
+    @Override
+    public AbstractStruct getLast() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int c = chunkCount - 1;
+        return chunks[c][chunkSizes[c] - 1];
+    }
+
+    private void appendLast(AbstractStruct struct) {
+        int c = chunkCount - 1;
+        if (c < 0 || chunkSizes[c] == CHUNK_CAPACITY) {
+            c = insertChunk(chunkCount, new AbstractStruct[INITIAL_CHUNK_CAPACITY], size);
+        }
+        AbstractStruct[] chunk = ensureChunkCapacity(c, chunkSizes[c] + 1);
+        chunk[chunkSizes[c]++] = struct;
+        size++;
+        modCount++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Find the chunk that contains the struct at {@code index}.
+     * Expects {@code 0 <= index < size}.
+     */
+    private int chunkOf(int index) {
+        int c = hint;
+        if (c < chunkCount) {
+            int start = chunkStarts[c];
+            if (index >= start) {
+                if (index < start + chunkSizes[c]) {
+                    return c;
+                }
+                // sequential access moves on to the next chunk
+                if (c + 1 < chunkCount && index < chunkStarts[c + 1] + chunkSizes[c + 1]) {
+                    hint = c + 1;
+                    return c + 1;
+                }
+            }
+        }
+        int left = 0;
+        int right = chunkCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (chunkStarts[mid] <= index) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        hint = left;
+        return left;
+    }
+
+    private AbstractStruct[] ensureChunkCapacity(int c, int minCapacity) {
+        AbstractStruct[] chunk = chunks[c];
+        if (chunk.length < minCapacity) {
+            chunk = Arrays.copyOf(chunk, Math.min(CHUNK_CAPACITY, Math.max(minCapacity, chunk.length * 2)));
+            chunks[c] = chunk;
+        }
+        return chunk;
+    }
+
+    private void splitChunk(int c) {
+        AbstractStruct[] chunk = chunks[c];
+        int half = chunkSizes[c] / 2;
+        int rightSize = chunkSizes[c] - half;
+        AbstractStruct[] rightChunk = new AbstractStruct[CHUNK_CAPACITY];
+        System.arraycopy(chunk, half, rightChunk, 0, rightSize);
+        Arrays.fill(chunk, half, chunkSizes[c], null);
+        chunkSizes[c] = half;
+        insertChunk(c + 1, rightChunk, chunkStarts[c] + half);
+        chunkSizes[c + 1] = rightSize;
+    }
+
+    private int insertChunk(int c, AbstractStruct[] chunk, int start) {
+        if (chunkCount == chunks.length) {
+            int capacity = chunks.length * 2;
+            chunks = Arrays.copyOf(chunks, capacity);
+            chunkSizes = Arrays.copyOf(chunkSizes, capacity);
+            chunkStarts = Arrays.copyOf(chunkStarts, capacity);
+        }
+        int moved = chunkCount - c;
+        if (moved > 0) {
+            System.arraycopy(chunks, c, chunks, c + 1, moved);
+            System.arraycopy(chunkSizes, c, chunkSizes, c + 1, moved);
+            System.arraycopy(chunkStarts, c, chunkStarts, c + 1, moved);
+        }
+        chunks[c] = chunk;
+        chunkSizes[c] = 0;
+        chunkStarts[c] = start;
+        chunkCount++;
+        return c;
+    }
+
+    private void removeChunk(int c) {
+        int moved = chunkCount - c - 1;
+        if (moved > 0) {
+            System.arraycopy(chunks, c + 1, chunks, c, moved);
+            System.arraycopy(chunkSizes, c + 1, chunkSizes, c, moved);
+            System.arraycopy(chunkStarts, c + 1, chunkStarts, c, moved);
+        }
+        chunkCount--;
+        chunks[chunkCount] = null;
+        chunkSizes[chunkCount] = 0;
+        chunkStarts[chunkCount] = 0;
+        if (hint >= chunkCount) {
+            hint = 0;
+        }
+    }
+}
@@ -18,9 +18,21 @@ import java.util.function.Consumer;
 public class StructStore {
 
     /**
-     * Map from client ID to list of structs (GC|Item)
+     * Map from client ID to list of structs (GC|Item).
+     * The lists are binary searched by clock, so they must support cheap random access.
      */
-    private final Map<Long, LinkedList<AbstractStruct>> clients = new LinkedHashMap<>();
+    private final LongObjectMap<StructList> clients = new LongObjectMap<>();
+
+    /**
+     * Number of structs in {@link #clients}, updated where structs are added, split and merged so that other threads
+     * can read it without walking the lists. Only the thread that owns the document writes it
+     */
+    private volatile long structCount = 0;
+
+    /**
+     * State vector, updated as structs are added
+     */
+    private final StateVector.Builder state = new StateVector.Builder();
 
     /**
      * Pending structs that couldn't be integrated yet
@@ -28,9 +40,26 @@ public class StructStore {
     public PendingStructs pendingStructs = null;
 
     /**
-     * Pending delete set
+     * Pending delete set, deletions of structs that couldn't be integrated yet
      */
-    public byte[] pendingDs = null;
+    public DeleteSet pendingDs = null;
+
+    /**
+     * Maximum number of pending structs, the clients pending the longest are dropped beyond it. 0 means no limit.
+     * Dropped structs are not part of the state vector, so peers send them again on their next sync.
+     */
+    public long maxPendingStructs = 0;
+
+    private long droppedPendingStructs = 0;
+
+    private long skippedUpdates = 0;
+    private long skippedStructs = 0;
+
+    /**
+     * Ids that redo the effect of an item. Few items are ever redone, so the id is kept here instead of in every
+     * {@link Item}, the item only carries a flag.
+     */
+    private Map<Item, ID> redone = null;
 
     public PendingStructs getPendingStructs() {
         return pendingStructs;
@@ -40,29 +69,90 @@ public class StructStore {
         this.pendingStructs = pendingStructs;
     }
 
-    public byte[] getPendingDs() {
+    public DeleteSet getPendingDs() {
         return pendingDs;
     }
 
-    public void setPendingDs(byte[] pendingDs) {
+    public void setPendingDs(DeleteSet pendingDs) {
         this.pendingDs = pendingDs;
     }
 
     /**
-     * Represents pending structs with missing dependencies
+     * Whether structs or deletions are waiting for missing structs
      */
-    public static class PendingStructs {
-        public Map<Long, Long> missing = new HashMap<>();
-        public byte[] update;
+    public boolean hasPending() {
+        return pendingStructs != null || pendingDs != null;
+    }
 
-        public PendingStructs(byte[] update) {
-            this.update = update;
-        }
+    /**
+     * Number of pending structs
+     */
+    public int getPendingStructCount() {
+        return pendingStructs == null ? 0 : pendingStructs.size();
+    }
+
+    /**
+     * Nanoseconds since the oldest pending structs were received
+     */
+    public long getPendingAgeNanos() {
+        return pendingStructs == null ? 0 : pendingStructs.getAgeNanos();
+    }
+
+    /**
+     * Number of pending structs dropped because of {@link #maxPendingStructs}
+     */
+    public long getDroppedPendingStructs() {
+        return droppedPendingStructs;
+    }
+
+    /**
+     * Number of updates dropped because the store already had all of their structs and deletions
+     */
+    public long getSkippedUpdates() {
+        return skippedUpdates;
+    }
+
+    /**
+     * Number of structs skipped without being decoded, including the structs of dropped updates
+     */
+    public long getSkippedStructs() {
+        return skippedStructs;
+    }
+
+    /**
+     * Record an update that was dropped because the store already had all of it
+     *
+     * @param structs number of structs of the update
+     */
+    public void recordSkippedUpdate(long structs) {
+        skippedUpdates++;
+        skippedStructs += structs;
+    }
+
+    /**
+     * Record already integrated structs of an update that were skipped without being decoded
+     */
+    public void recordSkippedStructs(long structs) {
+        skippedStructs += structs;
+    }
 
-        public PendingStructs(Map<Long, Long> missing, byte[] update) {
-            this.missing = missing;
-            this.update = update;
+    /**
+     * Add structs that couldn't be integrated to the pending structs, and apply the memory cap
+     *
+     * @return number of structs dropped because of the cap
+     */
+    public int addPendingStructs(PendingStructs rest) {
+        if (pendingStructs == null) {
+            pendingStructs = rest;
+        } else {
+            pendingStructs.merge(rest, this);
         }
+        int dropped = pendingStructs.evict(maxPendingStructs);
+        droppedPendingStructs += dropped;
+        if (pendingStructs.isEmpty()) {
+            pendingStructs = null;
+        }
+        return dropped;
     }
 
     public StructStore() {
@@ -72,23 +162,18 @@ public class StructStore {
     /**
      * Get structs for a client
      */
-    public LinkedList<AbstractStruct> getClientStructs(Long client) {
-        return clients.getOrDefault(client, new LinkedList<>());
+    public StructList getClientStructs(long client) {
+        StructList structs = clients.get(client);
+        return structs == null ? new StructList() : structs;
     }
 
     /**
      * Get the state vector as a Map<client,clock>
      * Note that clock refers to the next expected clock id.
+     * The snapshot is immutable and shared until the next struct is added.
      */
-    public Map<Long, Long> getStateVector() {
-        Map<Long, Long> sm = new HashMap<>();
-        clients.forEach((client, structs) -> {
-            if (!structs.isEmpty()) {
-                AbstractStruct struct = structs.getLast();
-                sm.put(client, struct.id.clock + struct.length);
-            }
-        });
-        return sm;
+    public StateVector getStateVector() {
+        return state.snapshot();
     }
 
     /**
@@ -107,9 +192,9 @@ public class StructStore {
      * Add a struct to the store
      */
     public void addStruct(AbstractStruct struct) {
-        LinkedList<AbstractStruct> structs = clients.get(struct.id.client);
+        StructList structs = clients.get(struct.id.client);
         if (structs == null) {
-            structs = new LinkedList<>();
+            structs = new StructList();
             clients.put(struct.id.client, structs);
         } else {
             AbstractStruct lastStruct = structs.getLast();
@@ -119,17 +204,23 @@ public class StructStore {
             }
         }
         structs.addLast(struct);
+        structCount++;
+        state.set(struct.id.client, struct.id.clock + struct.length);
     }
 
     /**
      * Find a struct by ID using binary search (matching original findIndexSS)
      */
     public AbstractStruct find(ID id) {
-        List<AbstractStruct> structs = clients.get(id.client);
+        return find(id.client, id.clock);
+    }
+
+    public AbstractStruct find(long client, long clock) {
+        List<AbstractStruct> structs = clients.get(client);
         if (structs == null || structs.isEmpty()) {
-            throw new IllegalStateException("Struct not found: " + id);
+            throw new IllegalStateException("Struct not found: " + ID.createId(client, clock));
         }
-        return structs.get(findIndexSS(structs, id.clock));
+        return structs.get(findIndexSS(structs, clock));
     }
 
     /**
@@ -145,20 +236,25 @@ public class StructStore {
 
 
     public static AbstractStruct getItemCleanStart(Transaction transaction, ID id) {
-        LinkedList<AbstractStruct> structs = transaction.doc.store.clients.get(id.client);
-        int index = findIndexCleanStart(transaction, structs, id.clock);
+        return getItemCleanStart(transaction, id.client, id.clock);
+    }
+
+    public static AbstractStruct getItemCleanStart(Transaction transaction, long client, long clock) {
+        StructList structs = transaction.doc.store.clients.get(client);
+        int index = findIndexCleanStart(transaction, structs, clock);
         return structs.get(index);
     }
 
     /**
      * Find index for clean start (may split items)
      */
-    public static int findIndexCleanStart(Transaction transaction, LinkedList<AbstractStruct> structs, long clock) {
+    public static int findIndexCleanStart(Transaction transaction, List<AbstractStruct> structs, long clock) {
         int index = findIndexSS(structs, clock);
         AbstractStruct struct = structs.get(index);
         if (struct.id.clock < clock && struct instanceof Item item) {
             Item rightItem = Item.splitItem(transaction, item, clock - struct.id.clock);
             structs.add(index + 1, rightItem);
+            transaction.doc.store.countStructs(1);
             return index + 1;
         }
         return index;
@@ -168,12 +264,17 @@ public class StructStore {
      * Expects that id is actually in store. This function throws or is an infinite loop otherwise.
      */
     public AbstractStruct getItemCleanEnd(Transaction transaction, ID id) {
-        List<AbstractStruct> structs = this.clients.get(id.client);
-        int index = findIndexSS(structs, id.clock);
+        return getItemCleanEnd(transaction, id.client, id.clock);
+    }
+
+    public AbstractStruct getItemCleanEnd(Transaction transaction, long client, long clock) {
+        List<AbstractStruct> structs = this.clients.get(client);
+        int index = findIndexSS(structs, clock);
         AbstractStruct struct = structs.get(index);
-        if (id.clock != struct.id.clock + struct.length - 1 && !(struct instanceof GC)) {
-            Item item = Item.splitItem(transaction, struct, id.clock - struct.id.clock + 1);
+        if (clock != struct.id.clock + struct.length - 1 && !(struct instanceof GC)) {
+            Item item = Item.splitItem(transaction, struct, clock - struct.id.clock + 1);
             structs.add(index + 1, item);
+            structCount++;
         }
         return struct;
     }
@@ -181,7 +282,7 @@ public class StructStore {
     /**
      * Optimized binary search with caching
      */
-    public static int findIndexSS(List<AbstractStruct> structs, Long clock) {
+    public static int findIndexSS(List<AbstractStruct> structs, long clock) {
         if (structs.isEmpty()) {
             throw new IllegalStateException("Empty structs list");
         }
@@ -252,7 +353,7 @@ public class StructStore {
         }
     }
 
-    public static void iterateStructs(Transaction transaction, LinkedList<AbstractStruct> structs, long clockStart, long len, Consumer<AbstractStruct> f) {
+    public static void iterateStructs(Transaction transaction, List<AbstractStruct> structs, long clockStart, long len, Consumer<AbstractStruct> f) {
         if (len == 0) {
             return;
         }
@@ -272,7 +373,7 @@ public class StructStore {
      * Perform integrity check on the store
      */
     public void integrityCheck() {
-        clients.forEach((client, structs) -> {
+        clients.forEachEntry((client, structs) -> {
             for (int i = 1; i < structs.size(); i++) {
                 AbstractStruct l = structs.get(i - 1);
                 AbstractStruct r = structs.get(i);
@@ -283,25 +384,64 @@ public class StructStore {
         });
     }
 
+    /**
+     * Get the id that redoes the item, see {@link Item#getRedone(StructStore)}
+     */
+    public ID getRedone(Item item) {
+        return redone == null ? null : redone.get(item);
+    }
+
+    /**
+     * Set the id that redoes the item, null removes it
+     */
+    public void setRedone(Item item, ID id) {
+        if (id != null) {
+            if (redone == null) {
+                // items compare by content, they must be keyed by identity
+                redone = new IdentityHashMap<>();
+            }
+            redone.put(item, id);
+        } else if (redone != null) {
+            redone.remove(item);
+        }
+    }
+
     // Getters
-    public Map<Long, LinkedList<AbstractStruct>> getClients() {
+    public LongObjectMap<StructList> getClients() {
         return clients;
     }
 
     /**
      * Get state vector matching original implementation
      */
-    public Map<Long, Long> getStateVectorMap() {
+    public StateVector getStateVectorMap() {
         return getStateVector();
     }
 
+    /**
+     * Number of structs in the store, safe to read from any thread
+     */
+    public long getStructCount() {
+        return structCount;
+    }
+
+    /**
+     * Record structs inserted into (positive) or merged out of (negative) the client lists
+     */
+    void countStructs(long delta) {
+        structCount += delta;
+    }
+
     /**
      * Clear all structs
      */
     public void clear() {
         clients.clear();
+        structCount = 0;
+        state.clear();
         pendingStructs = null;
         pendingDs = null;
+        redone = null;
     }
 
     public static long getState(StructStore store, long client) {
@@ -313,12 +453,7 @@ public class StructStore {
         return lastStruct.getId().getClock() + lastStruct.getLength();
     }
 
-    public static Map<Long, Long> getStateVector(StructStore store) {
-        Map<Long, Long> stateVector = new HashMap<>();
-        store.getClients().forEach((client, structs) -> {
-            AbstractStruct struct = structs.getLast();
-            stateVector.put(client, struct.id.clock + struct.length);
-        });
-        return stateVector;
+    public static StateVector getStateVector(StructStore store) {
+        return store.getStateVector();
     }
 }
@@ -36,12 +36,12 @@ public class Transaction {
     /**
      * Holds the state before the transaction started.
      */
-    public Map<Long, Long> beforeState;
+    public StateVector beforeState;
 
     /**
      * Holds the state after the transaction.
      */
-    public Map<Long, Long> afterState = new HashMap<>();
+    public StateVector afterState = StateVector.EMPTY;
 
     /**
      * All types that were directly modified (property added or child
@@ -166,11 +166,20 @@ public class Transaction {
     public void addChangedTypeToTransaction(AbstractType<?> type, String parentSub) {
         Item item = type == null ? null : type.getItem();
         if (item == null ||
-                (item.id.clock < (beforeState.get(item.id.client) == null ? 0 : beforeState.get(item.id.client)) && !item.isDeleted())) {
+                (item.id.clock < beforeState.getClock(item.id.client) && !item.isDeleted())) {
             changed.computeIfAbsent(type, k -> new LinkedHashSet<>()).add(parentSub);
         }
     }
 
+    /**
+     * {@link #tryToMergeWithLefts(List, int)} on a client list of the store, keeping its struct count
+     */
+    private static int mergeWithLefts(StructStore store, List<AbstractStruct> structs, int pos) {
+        int merged = tryToMergeWithLefts(structs, pos);
+        store.countStructs(-merged);
+        return merged;
+    }
+
     /**
      * 向左合并结构体数组中的指定位置项
      *
@@ -217,9 +226,7 @@ public class Transaction {
     }
 
     public static void tryGcDeleteSet(DeleteSet ds, StructStore store, Function<Item, Boolean> gcFilter) {
-        for (Map.Entry<Long, List<DeleteItem>> entry : ds.getClients().entrySet()) {
-            long client = entry.getKey();
-            List<DeleteItem> deleteItems = entry.getValue();
+        ds.getClients().forEachEntry((client, deleteItems) -> {
             List<AbstractStruct> structs = store.getClients().get(client);
 
             for (int di = deleteItems.size() - 1; di >= 0; di--) {
@@ -240,13 +247,11 @@ public class Transaction {
                     }
                 }
             }
-        }
+        });
     }
 
     public static void tryMergeDeleteSet(DeleteSet ds, StructStore store) {
-        for (Map.Entry<Long, List<DeleteItem>> entry : ds.getClients().entrySet()) {
-            long client = entry.getKey();
-            List<DeleteItem> deleteItems = entry.getValue();
+        ds.getClients().forEachEntry((client, deleteItems) -> {
             List<AbstractStruct> structs = store.getClients().get(client);
 
             for (int di = deleteItems.size() - 1; di >= 0; di--) {
@@ -259,10 +264,10 @@ public class Transaction {
                 for (int si = mostRightIndexToCheck;
                      si > 0 && structs.get(si).getId().getClock() >= del.getClock(); ) {
 
-                    si -= 1 + tryToMergeWithLefts(structs, si);
+                    si -= 1 + mergeWithLefts(store, structs, si);
                 }
             }
-        }
+        });
     }
 
     public static void tryGc(DeleteSet ds, StructStore store, Function<Item, Boolean> gcFilter) {
@@ -332,14 +337,14 @@ public class Transaction {
                 Transaction.tryMergeDeleteSet(ds, store);
 
                 // 7. 遍历 store.clients 合并
-                transaction.afterState.forEach((client, clock) -> {
-                    long beforeClock = transaction.beforeState.getOrDefault(client, 0L);
+                transaction.afterState.forEachClock((client, clock) -> {
+                    long beforeClock = transaction.beforeState.getClock(client);
                     if (beforeClock != clock) {
                         List<AbstractStruct> structs = (store.getClients().get(client));
                         // we iterate from right to left so we can safely remove entries
                         int firstChangePos = Math.max(StructStore.findIndexSS(structs, beforeClock), 1);
                         for (int j = structs.size() - 1; j >= firstChangePos; ) {
-                            j -= 1 + Transaction.tryToMergeWithLefts(structs, j);
+                            j -= 1 + mergeWithLefts(store, structs, j);
                         }
                     }
                 });
@@ -353,21 +358,23 @@ public class Transaction {
 
                     int replacedStructPos = StructStore.findIndexSS(structs, clock);
                     if (replacedStructPos + 1 < structs.size()) {
-                        if (Transaction.tryToMergeWithLefts(structs, replacedStructPos + 1) > 1) {
+                        if (mergeWithLefts(store, structs, replacedStructPos + 1) > 1) {
                             continue;
                         }
                     }
                     if (replacedStructPos > 0) {
-                        Transaction.tryToMergeWithLefts(structs, replacedStructPos);
+                        mergeWithLefts(store, structs, replacedStructPos);
                     }
                 }
                 // 9. 客户端 ID 冲突修复
-                Long beforeClient = transaction.getBeforeState().get(doc.getClientId());
-                Long afterClient = transaction.getAfterState().get(doc.getClientId());
-                if (!transaction.local && !Objects.equals(beforeClient, afterClient)) {
+                long beforeClient = transaction.beforeState.getClock(doc.getClientId());
+                long afterClient = transaction.afterState.getClock(doc.getClientId());
+                if (!transaction.local && beforeClient != afterClient) {
                     EncodingUtil.log.warn("[yjs] ⚠️ Changed the client-id because another client seems to be using it.");
                     doc.clientId = Doc.generateNewClientId();
                 }
+                // 状态向量或删除集可能已经变化，缓存的完整状态失效
+                doc.stateVersion++;
                 // 10. afterTransactionCleanup
                 doc.emit("afterTransactionCleanup", transaction, doc);
                 // 11. 发送 update/updateV2
@@ -416,6 +423,10 @@ public class Transaction {
     }
 
     public static <T> T transact(Doc doc, Function<Transaction, T> f, Object origin, boolean local) {
+        // 绑定了 mailbox 的文档只能在 mailbox 线程上修改
+        if (doc.mailbox != null && !doc.mailbox.inMailbox()) {
+            return doc.mailbox.call(() -> transact(doc, f, origin, local));
+        }
         List<Transaction> transactionCleanups = doc.transactionCleanups;
         boolean initialCall = false;
         T result;
@@ -453,11 +464,11 @@ public class Transaction {
         return deleteSet;
     }
 
-    public Map<Long, Long> getBeforeState() {
+    public StateVector getBeforeState() {
         return beforeState;
     }
 
-    public Map<Long, Long> getAfterState() {
+    public StateVector getAfterState() {
         return afterState;
     }
 
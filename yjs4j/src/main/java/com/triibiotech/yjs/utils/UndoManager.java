@@ -83,15 +83,13 @@ public class UndoManager extends ObservableV2<String> {
         }
 
         DeleteSet insertions = new DeleteSet();
-        for (Map.Entry<Long, Long> entry : transaction.getAfterState().entrySet()) {
-            long client = entry.getKey();
-            long endClock = entry.getValue();
-            long startClock = transaction.getBeforeState().getOrDefault(client, 0L);
+        transaction.getAfterState().forEachClock((client, endClock) -> {
+            long startClock = transaction.getBeforeState().getClock(client);
             long len = endClock - startClock;
             if (len > 0) {
                 DeleteSet.addToDeleteSet(insertions, client, startClock, len);
             }
-        }
+        });
 
         long now = System.currentTimeMillis();
         boolean didAdd = false;
@@ -18,9 +18,9 @@ public class UpdateDecoderV2 extends DSDecoderV2 {
     private final UintOptRleDecoder clientDecoder;
     private final IntDiffOptRleDecoder leftClockDecoder;
     private final IntDiffOptRleDecoder rightClockDecoder;
-    private final RleDecoder<Integer> infoDecoder;
+    private final Uint8RleDecoder infoDecoder;
     private final StringDecoder stringDecoder;
-    private final RleDecoder<Integer> parentInfoDecoder;
+    private final Uint8RleDecoder parentInfoDecoder;
     private final UintOptRleDecoder typeRefDecoder;
     private final UintOptRleDecoder lenDecoder;
 
@@ -28,15 +28,16 @@ public class UpdateDecoderV2 extends DSDecoderV2 {
         super(decoder);
         // read feature flag - currently unused
         Decoder.readVarUint(decoder);
-        this.keyClockDecoder = new IntDiffOptRleDecoder(Decoder.readVarUint8Array(decoder));
-        this.clientDecoder = new UintOptRleDecoder(Decoder.readVarUint8Array(decoder));
-        this.leftClockDecoder = new IntDiffOptRleDecoder(Decoder.readVarUint8Array(decoder));
-        this.rightClockDecoder = new IntDiffOptRleDecoder(Decoder.readVarUint8Array(decoder));
-        this.infoDecoder = new RleDecoder<>(Decoder.readVarUint8Array(decoder), Decoder::readUint8);
-        this.stringDecoder = new StringDecoder(Decoder.readVarUint8Array(decoder));
-        this.parentInfoDecoder = new RleDecoder<>(Decoder.readVarUint8Array(decoder), Decoder::readUint8);
-        this.typeRefDecoder = new UintOptRleDecoder(Decoder.readVarUint8Array(decoder));
-        this.lenDecoder = new UintOptRleDecoder(Decoder.readVarUint8Array(decoder));
+        // the column decoders read views of the update, the columns are not copied
+        this.keyClockDecoder = new IntDiffOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.clientDecoder = new UintOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.leftClockDecoder = new IntDiffOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.rightClockDecoder = new IntDiffOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.infoDecoder = new Uint8RleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.stringDecoder = new StringDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.parentInfoDecoder = new Uint8RleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.typeRefDecoder = new UintOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        this.lenDecoder = new UintOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
     }
 
     @Override
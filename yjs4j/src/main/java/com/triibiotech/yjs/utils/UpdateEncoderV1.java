@@ -13,14 +13,24 @@ public class UpdateEncoderV1 extends DSEncoderV1 {
 
     @Override
     public void writeLeftID(ID id) {
-        Encoder.writeVarUint(this.restEncoder, id.client);
-        Encoder.writeVarUint(this.restEncoder, id.clock);
+        writeLeftID(id.client, id.clock);
+    }
+
+    @Override
+    public void writeLeftID(long client, long clock) {
+        Encoder.writeVarUint(this.restEncoder, client);
+        Encoder.writeVarUint(this.restEncoder, clock);
     }
 
     @Override
     public void writeRightID(ID id) {
-        Encoder.writeVarUint(this.restEncoder, id.client);
-        Encoder.writeVarUint(this.restEncoder, id.clock);
+        writeRightID(id.client, id.clock);
+    }
+
+    @Override
+    public void writeRightID(long client, long clock) {
+        Encoder.writeVarUint(this.restEncoder, client);
+        Encoder.writeVarUint(this.restEncoder, clock);
     }
 
     @Override
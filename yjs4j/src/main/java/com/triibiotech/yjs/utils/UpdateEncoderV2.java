@@ -18,9 +18,9 @@ public class UpdateEncoderV2 extends DSEncoderV2 {
     private final UintOptRleEncoder clientEncoder;
     private final IntDiffOptRleEncoder leftClockEncoder;
     private final IntDiffOptRleEncoder rightClockEncoder;
-    private final RleEncoder<Long> infoEncoder;
+    private final Uint8RleEncoder infoEncoder;
     private final StringEncoder stringEncoder;
-    private final RleEncoder<Long> parentInfoEncoder;
+    private final Uint8RleEncoder parentInfoEncoder;
     private final UintOptRleEncoder typeRefEncoder;
     private final UintOptRleEncoder lenEncoder;
 
@@ -30,41 +30,62 @@ public class UpdateEncoderV2 extends DSEncoderV2 {
         this.clientEncoder = new UintOptRleEncoder();
         this.leftClockEncoder = new IntDiffOptRleEncoder();
         this.rightClockEncoder = new IntDiffOptRleEncoder();
-        this.infoEncoder = new RleEncoder<>(Encoder::write);
+        this.infoEncoder = new Uint8RleEncoder();
         this.stringEncoder = new StringEncoder();
-        this.parentInfoEncoder = new RleEncoder<>(Encoder::write);
+        this.parentInfoEncoder = new Uint8RleEncoder();
         this.typeRefEncoder = new UintOptRleEncoder();
         this.lenEncoder = new UintOptRleEncoder();
     }
 
     @Override
     public byte[] toUint8Array() {
-        Encoder encoder = Encoder.createEncoder();
+        Encoder encoder = Encoder.acquire();
+        try {
+            writeTo(encoder);
+            return Encoder.toUint8Array(encoder);
+        } finally {
+            Encoder.release(encoder);
+        }
+    }
+
+    private void writeTo(Encoder encoder) {
         Encoder.writeVarUint(encoder, 0);
-        Encoder.writeVarUint8Array(encoder, this.keyClockEncoder.toUint8Array());
-        Encoder.writeVarUint8Array(encoder, this.clientEncoder.toUint8Array());
-        Encoder.writeVarUint8Array(encoder, this.leftClockEncoder.toUint8Array());
-        Encoder.writeVarUint8Array(encoder, this.rightClockEncoder.toUint8Array());
-        Encoder.writeVarUint8Array(encoder, Encoder.toUint8Array(this.infoEncoder));
-        Encoder.writeVarUint8Array(encoder, this.stringEncoder.toUint8Array());
-        Encoder.writeVarUint8Array(encoder, Encoder.toUint8Array(this.parentInfoEncoder));
-        Encoder.writeVarUint8Array(encoder, this.typeRefEncoder.toUint8Array());
-        Encoder.writeVarUint8Array(encoder, this.lenEncoder.toUint8Array());
+        // the columns are appended to the output directly, without intermediate arrays
+        this.keyClockEncoder.writeTo(encoder);
+        this.clientEncoder.writeTo(encoder);
+        this.leftClockEncoder.writeTo(encoder);
+        this.rightClockEncoder.writeTo(encoder);
+        Encoder.writeVarUint(encoder, Encoder.length(this.infoEncoder));
+        Encoder.writeBinaryEncoder(encoder, this.infoEncoder);
+        this.stringEncoder.writeTo(encoder);
+        Encoder.writeVarUint(encoder, Encoder.length(this.parentInfoEncoder));
+        Encoder.writeBinaryEncoder(encoder, this.parentInfoEncoder);
+        this.typeRefEncoder.writeTo(encoder);
+        this.lenEncoder.writeTo(encoder);
         // @note The rest encoder is appended! (note the missing var);
-        Encoder.writeUint8Array(encoder, Encoder.toUint8Array(this.restEncoder));
-        return Encoder.toUint8Array(encoder);
+        Encoder.writeBinaryEncoder(encoder, this.restEncoder);
     }
 
     @Override
     public void writeLeftID(ID id) {
-        this.clientEncoder.write(id.client);
-        this.leftClockEncoder.write(id.clock);
+        writeLeftID(id.client, id.clock);
+    }
+
+    @Override
+    public void writeLeftID(long client, long clock) {
+        this.clientEncoder.write(client);
+        this.leftClockEncoder.write(clock);
     }
 
     @Override
     public void writeRightID(ID id) {
-        this.clientEncoder.write(id.client);
-        this.rightClockEncoder.write(id.clock);
+        writeRightID(id.client, id.clock);
+    }
+
+    @Override
+    public void writeRightID(long client, long clock) {
+        this.clientEncoder.write(client);
+        this.rightClockEncoder.write(clock);
     }
 
     @Override
@@ -74,7 +95,7 @@ public class UpdateEncoderV2 extends DSEncoderV2 {
 
     @Override
     public void writeInfo(long info) {
-        this.infoEncoder.write(info);
+        this.infoEncoder.write((int) info);
     }
 
     @Override
@@ -84,7 +105,7 @@ public class UpdateEncoderV2 extends DSEncoderV2 {
 
     @Override
     public void writeParentInfo(Boolean isYKey) {
-        this.parentInfoEncoder.write(isYKey ? 1L : 0L);
+        this.parentInfoEncoder.write(isYKey ? 1 : 0);
     }
 
     @Override
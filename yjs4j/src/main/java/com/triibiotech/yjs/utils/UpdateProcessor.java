@@ -134,12 +134,34 @@ public class UpdateProcessor {
     public static class UpdateMeta {
         private Map<Long, Long> from;
         private Map<Long, Long> to;
+        /**
+         * Whether the struct ranges contain gaps (Skip structs), i.e. [from, to) is not contiguous
+         */
+        private boolean skips;
+        /**
+         * Whether the update contains a non-empty delete set
+         */
+        private boolean deletes;
 
         public UpdateMeta(Map<Long, Long> from, Map<Long, Long> to) {
             this.from = from;
             this.to = to;
         }
 
+        public UpdateMeta(Map<Long, Long> from, Map<Long, Long> to, boolean skips, boolean deletes) {
+            this(from, to);
+            this.skips = skips;
+            this.deletes = deletes;
+        }
+
+        public boolean hasSkips() {
+            return skips;
+        }
+
+        public boolean hasDeletes() {
+            return deletes;
+        }
+
         public Map<Long, Long> getFrom() {
             return from;
         }
@@ -167,11 +189,13 @@ public class UpdateProcessor {
             DSDecoder dsDecoder = YDecoder.getDeclaredConstructor(Decoder.class).newInstance(Decoder.createDecoder(update));
             LazyStructReader updateDecoder = new LazyStructReader(dsDecoder, false);
             AbstractStruct curr = updateDecoder.current();
+            boolean skips = false;
             if (curr != null) {
                 long currClient = curr.getId().getClient();
                 long currClock = curr.getId().getClock();
                 from.put(currClient, currClock);
                 for (; curr != null; curr = updateDecoder.next()) {
+                    skips |= curr instanceof Skip;
                     if (currClient != curr.id.client) {
                         // We found a new client
                         // write the end to `to`
@@ -186,7 +210,9 @@ public class UpdateProcessor {
                 // write the end to `to`
                 to.put(currClient, currClock);
             }
-            return new UpdateMeta(from, to);
+            // all structs are consumed, the delete set follows
+            boolean deletes = Decoder.hasContent(dsDecoder.getRestDecoder()) && Decoder.readVarUint(dsDecoder.getRestDecoder()) > 0;
+            return new UpdateMeta(from, to, skips, deletes);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -401,7 +427,7 @@ public class UpdateProcessor {
     }
 
     public static byte[] diffUpdate(byte[] update, byte[] sv) {
-        return diffUpdateV2(update, sv, UpdateDecoderV1.class, UpdateEncoderV2.class);
+        return diffUpdateV2(update, sv, UpdateDecoderV1.class, UpdateEncoderV1.class);
     }
 
     public static void flushLazyStructWriter(LazyStructWriter lazyWriter) {
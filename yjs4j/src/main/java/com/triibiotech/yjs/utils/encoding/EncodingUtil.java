@@ -12,6 +12,7 @@ import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -57,31 +58,39 @@ public class EncodingUtil {
      * @param stateMap State map
      */
     public static void writeClientsStructs(DSEncoder encoder, StructStore store, Map<Long, Long> stateMap) {
-        // we filter all valid stateMap entries into sm
-        Map<Long, Long> sm = new HashMap<>();
-        stateMap.forEach((client, clock) -> {
+        // we filter the clients of the store that have new structs for stateMap, clients are sorted ascending
+        StateVector state = StructStore.getStateVector(store);
+        LongArrayList clients = new LongArrayList(state.size());
+        LongArrayList clocks = new LongArrayList(state.size());
+        state.forEachClock((client, localClock) -> {
+            long clock = getClock(stateMap, client);
             // only write if new structs are available
-            if (StructStore.getState(store, client) > clock) {
-                sm.put(client, clock);
-            }
-        });
-        StructStore.getStateVector(store).forEach((client, clock) -> {
-            if (!stateMap.containsKey(client)) {
-                sm.put(client, 0L);
+            if (localClock > clock) {
+                clients.add(client);
+                clocks.add(clock);
             }
         });
         // write # states that were updated
-        Encoder.writeVarUint(encoder.getRestEncoder(), sm.size());
-        // Write items with higher client ids first
-        // This heavily improves the conflict algorithm.
-        sm.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .forEach(entry -> {
-                    long client = entry.getKey();
-                    long clock = entry.getValue();
-                    List<AbstractStruct> clientStructs = store.getClients().get(client);
-                    writeStructs(encoder, clientStructs, client, clock);
-                });
+        Encoder.writeVarUint(encoder.getRestEncoder(), clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            long client = clients.get(i);
+            writeStructs(encoder, store.getClients().get(client), client, clocks.get(i));
+        }
+    }
+
+    /**
+     * Clock of a client in a state vector without boxing the client for the state vectors of this class
+     *
+     * @return the clock, 0 if the client is unknown
+     */
+    public static long getClock(Map<Long, Long> stateVector, long client) {
+        if (stateVector instanceof StateVector sv) {
+            return sv.getClock(client);
+        }
+        if (stateVector instanceof LongLongMap sv) {
+            return sv.get(client, 0);
+        }
+        return stateVector.getOrDefault(client, 0L);
     }
 
     public static class ClientStructRefs {
@@ -101,17 +110,31 @@ public class EncodingUtil {
      * @param doc     Document instance
      * @return Map of client refs
      */
-    public static Map<Long, ClientStructRefs> readClientsStructRefs(DSDecoder decoder, Doc doc) {
-        Map<Long, ClientStructRefs> clientRefs = new LinkedHashMap<>();
+    public static LongObjectMap<ClientStructRefs> readClientsStructRefs(DSDecoder decoder, Doc doc) {
         int numOfStateUpdates = (int) Decoder.readVarUint(decoder.getRestDecoder());
+        LongObjectMap<ClientStructRefs> clientRefs = new LongObjectMap<>(numOfStateUpdates);
         for (int i = 0; i < numOfStateUpdates; i++) {
             int numberOfStructs = (int) Decoder.readVarUint(decoder.getRestDecoder());
             List<AbstractStruct> refs = new ArrayList<>(numberOfStructs);
             long client = decoder.readClient();
             long clock = Decoder.readVarUint(decoder.getRestDecoder());
             clientRefs.put(client, new ClientStructRefs(0, refs));
+            // structs below the local state are already integrated, V1 structs can be skipped without decoding them
+            long localClock = decoder instanceof UpdateDecoderV1 ? StructStore.getState(doc.getStore(), client) : 0;
+            long skipped = 0;
             for (int j = 0; j < numberOfStructs; j++) {
                 int info = decoder.readInfo();
+                if (clock < localClock && (Binary.BITS5 & info) != 10) {
+                    Decoder restDecoder = decoder.getRestDecoder();
+                    int pos = restDecoder.getPos();
+                    long len = KnownUpdates.skipStruct(restDecoder, info);
+                    if (len != KnownUpdates.IRREGULAR && clock + len <= localClock) {
+                        clock += len;
+                        skipped++;
+                        continue;
+                    }
+                    restDecoder.setPos(pos);
+                }
                 switch (Binary.BITS5 & info) {
                     case 0: { // GC
                         long len = decoder.readLen();
@@ -142,6 +165,7 @@ public class EncodingUtil {
                     }
                 }
             }
+            doc.getStore().recordSkippedStructs(skipped);
         }
         return clientRefs;
     }
@@ -152,12 +176,11 @@ public class EncodingUtil {
      * @param transaction       Transaction instance
      * @param store             StructStore instance
      * @param clientsStructRefs Client struct refs
-     * @return Integration result
+     * @return Structs that couldn't be integrated, or null
      */
-    public static StructStore.PendingStructs integrateStructs(Transaction transaction, StructStore store, Map<Long, ClientStructRefs> clientsStructRefs) {
+    public static PendingStructs integrateStructs(Transaction transaction, StructStore store, LongObjectMap<ClientStructRefs> clientsStructRefs) {
         LinkedList<AbstractStruct> stack = new LinkedList<>();
-        List<Long> clientsStructRefsIds = new ArrayList<>(clientsStructRefs.keySet());
-        clientsStructRefsIds.sort(Long::compareTo);
+        LongArrayList clientsStructRefsIds = LongArrayList.wrap(clientsStructRefs.sortedKeys());
 
         if (clientsStructRefsIds.isEmpty()) {
             return null;
@@ -169,22 +192,23 @@ public class EncodingUtil {
         }
 
         StructStore restStructs = new StructStore();
-        Map<Long, Long> missingSV = new HashMap<>();
 
         AbstractStruct stackHead = curStructsTarget.refs.get(curStructsTarget.i++);
-        Map<Long, Long> state = new LinkedHashMap<>();
+        LongLongMap state = new LongLongMap();
 
         while (true) {
             if (!(stackHead instanceof Skip)) {
-                AbstractStruct finalStackHead = stackHead;
-                long localClock = state.computeIfAbsent(stackHead.getId().getClient(),
-                        k -> StructStore.getState(store, finalStackHead.getId().getClient()));
+                long client = stackHead.getId().getClient();
+                long localClock = state.get(client, -1);
+                if (localClock < 0) {
+                    localClock = StructStore.getState(store, client);
+                    state.put(client, localClock);
+                }
                 long offset = localClock - stackHead.getId().getClock();
 
                 if (offset < 0) {
                     // update from the same client is missing
                     stack.addLast(stackHead);
-                    updateMissingSv(missingSV, stackHead.getId().getClient(), stackHead.getId().getClock() - 1);
                     addStackToRestSS(stack, restStructs, clientsStructRefs, clientsStructRefsIds);
                 } else {
                     Long missing = stackHead.getMissing(transaction, store);
@@ -193,7 +217,6 @@ public class EncodingUtil {
                         ClientStructRefs structRefs = clientsStructRefs.getOrDefault(missing,
                                 new ClientStructRefs(0, new ArrayList<>()));
                         if (structRefs.refs.size() == structRefs.i) {
-                            updateMissingSv(missingSV, missing, StructStore.getState(store, missing));
                             addStackToRestSS(stack, restStructs, clientsStructRefs, clientsStructRefsIds);
                         } else {
                             stackHead = structRefs.refs.get(structRefs.i++);
@@ -202,7 +225,7 @@ public class EncodingUtil {
                     } else if (offset == 0 || offset < stackHead.getLength()) {
                         // all fine, apply the stackhead
                         stackHead.integrate(transaction, (int) offset);
-                        state.put(stackHead.getId().getClient(), stackHead.getId().getClock() + stackHead.getLength());
+                        state.put(client, stackHead.getId().getClock() + stackHead.getLength());
                     }
                 }
             }
@@ -223,45 +246,45 @@ public class EncodingUtil {
         }
 
         if (!restStructs.getClients().isEmpty()) {
-            UpdateEncoderV2 encoder = new UpdateEncoderV2();
-            writeClientsStructs(encoder, restStructs, new HashMap<>());
-            Encoder.writeVarUint(encoder.getRestEncoder(), 0);
-            return new StructStore.PendingStructs(missingSV, encoder.toUint8Array());
+            // keep the decoded structs, pending structs are indexed by what they wait for
+            PendingStructs pending = new PendingStructs();
+            restStructs.getClients().forEachEntry((client, structs) -> pending.add(client, structs, store));
+            return pending;
         }
         return null;
     }
 
     private static void addStackToRestSS(LinkedList<AbstractStruct> stack, StructStore restStructs,
-                                         Map<Long, ClientStructRefs> clientsStructRefs, List<Long> clientsStructRefsIds) {
+                                         LongObjectMap<ClientStructRefs> clientsStructRefs, LongArrayList clientsStructRefsIds) {
         for (AbstractStruct item : stack) {
             long client = item.getId().getClient();
             ClientStructRefs inapplicableItems = clientsStructRefs.get(client);
             if (inapplicableItems != null) {
                 // decrement because we weren't able to apply previous operation
                 inapplicableItems.i--;
-                restStructs.getClients().put(client, new LinkedList<>(inapplicableItems.refs.subList(inapplicableItems.i, inapplicableItems.refs.size())));
+                restStructs.getClients().put(client, new StructList(inapplicableItems.refs.subList(inapplicableItems.i, inapplicableItems.refs.size())));
                 clientsStructRefs.remove(client);
                 inapplicableItems.i = 0;
                 inapplicableItems.refs.clear();
             } else {
                 // item was the last item on clientsStructRefs and the field was already cleared
-                restStructs.getClients().put(client, new LinkedList<>(List.of(item)));
+                restStructs.getClients().put(client, new StructList(List.of(item)));
             }
             // remove client from clientsStructRefsIds
-            clientsStructRefsIds.removeIf(c -> c.equals(client));
+            clientsStructRefsIds.removeValue(client);
         }
         stack.clear();
     }
 
-    private static ClientStructRefs getNextStructTarget(Map<Long, ClientStructRefs> clientsStructRefs, List<Long> clientsStructRefsIds) {
+    private static ClientStructRefs getNextStructTarget(LongObjectMap<ClientStructRefs> clientsStructRefs, LongArrayList clientsStructRefsIds) {
         if (clientsStructRefsIds.isEmpty()) {
             return null;
         }
-        ClientStructRefs nextStructsTarget = clientsStructRefs.get(clientsStructRefsIds.get(clientsStructRefsIds.size() - 1));
+        ClientStructRefs nextStructsTarget = clientsStructRefs.get(clientsStructRefsIds.getLast());
         while (nextStructsTarget.refs.size() == nextStructsTarget.i) {
-            clientsStructRefsIds.remove(clientsStructRefsIds.size() - 1);
+            clientsStructRefsIds.removeLast();
             if (!clientsStructRefsIds.isEmpty()) {
-                nextStructsTarget = clientsStructRefs.get(clientsStructRefsIds.get(clientsStructRefsIds.size() - 1));
+                nextStructsTarget = clientsStructRefs.get(clientsStructRefsIds.getLast());
             } else {
                 return null;
             }
@@ -269,13 +292,6 @@ public class EncodingUtil {
         return nextStructsTarget;
     }
 
-    private static void updateMissingSv(Map<Long, Long> missingSV, long client, long clock) {
-        Long mclock = missingSV.get(client);
-        if (mclock == null || mclock > clock) {
-            missingSV.put(client, clock);
-        }
-    }
-
     /**
      * Write structs from transaction
      *
@@ -298,64 +314,89 @@ public class EncodingUtil {
         if (structDecoder == null) {
             structDecoder = new UpdateDecoderV2(decoder);
         }
+        if (structDecoder instanceof UpdateDecoderV1) {
+            DocMailbox mailbox = ydoc.getMailbox();
+            if (mailbox != null && !mailbox.inMailbox()) {
+                // check the store on the mailbox that owns it
+                DSDecoder mailboxDecoder = structDecoder;
+                mailbox.call(() -> {
+                    readUpdateV2(decoder, ydoc, transactionOrigin, mailboxDecoder);
+                    return null;
+                });
+                return;
+            }
+            if (KnownUpdates.isKnown(ydoc.getStore(), decoder)) {
+                // nothing new, no transaction and no events
+                return;
+            }
+        }
 
         final DSDecoder finalStructDecoder = structDecoder;
         Transaction.transact(ydoc, transaction -> {
             transaction.local = false;
-            boolean retry = false;
             Doc doc = transaction.getDoc();
             StructStore store = doc.getStore();
 
-            Map<Long, ClientStructRefs> ss = readClientsStructRefs(finalStructDecoder, doc);
-            StructStore.PendingStructs restStructs = integrateStructs(transaction, store, ss);
-
-            StructStore.PendingStructs pending = store.getPendingStructs();
-            if (pending != null) {
-                // check if we can apply something
-                for (Map.Entry<Long, Long> entry : pending.missing.entrySet()) {
-                    if (entry.getValue() < StructStore.getState(store, entry.getKey())) {
-                        retry = true;
-                        break;
-                    }
-                }
-                if (restStructs != null) {
-                    // merge restStructs into store.pending
-                    for (Map.Entry<Long, Long> entry : restStructs.missing.entrySet()) {
-                        Long mclock = pending.missing.get(entry.getKey());
-                        if (mclock == null || mclock > entry.getValue()) {
-                            pending.missing.put(entry.getKey(), entry.getValue());
-                        }
-                    }
-                    pending.update = UpdateProcessor.mergeUpdatesV2(Arrays.asList(pending.update, restStructs.update), null, null);
-                }
-            } else {
-                store.setPendingStructs(restStructs != null ?
-                        new StructStore.PendingStructs(restStructs.missing, restStructs.update) : null);
+            LongObjectMap<ClientStructRefs> ss = readClientsStructRefs(finalStructDecoder, doc);
+            PendingStructs restStructs = integrateStructs(transaction, store, ss);
+            if (restStructs != null) {
+                addPendingStructs(store, restStructs);
             }
+            integratePendingStructs(transaction, store);
 
-            byte[] dsRest = DeleteSet.readAndApplyDeleteSet(finalStructDecoder, transaction, store);
+            DeleteSet dsRest = DeleteSet.readAndApplyDeleteSetRanges(finalStructDecoder, transaction, store);
             if (store.getPendingDs() != null) {
-                UpdateDecoderV2 pendingDsUpdate = new UpdateDecoderV2(Decoder.createDecoder(store.getPendingDs()));
-                Decoder.readVarUint(pendingDsUpdate.getRestDecoder()); // read 0 structs
-                byte[] dsRest2 = DeleteSet.readAndApplyDeleteSet(pendingDsUpdate, transaction, store);
+                DeleteSet dsRest2 = DeleteSet.applyDeleteSet(store.getPendingDs(), transaction, store);
                 if (dsRest != null && dsRest2 != null) {
-                    store.setPendingDs(UpdateProcessor.mergeUpdatesV2(Arrays.asList(dsRest, dsRest2), null, null));
+                    store.setPendingDs(DeleteSet.mergeDeleteSets(Arrays.asList(dsRest, dsRest2)));
                 } else {
                     store.setPendingDs(dsRest != null ? dsRest : dsRest2);
                 }
             } else {
                 store.setPendingDs(dsRest);
             }
-
-            if (retry) {
-                byte[] update = store.getPendingStructs().update;
-                store.setPendingStructs(null);
-                applyUpdateV2(transaction.getDoc(), update);
-            }
             return true;
         }, transactionOrigin, false);
     }
 
+    /**
+     * Integrate the pending structs whose dependencies are available now. Integrating them can unblock further
+     * pending structs, so this repeats until nothing is ready.
+     */
+    private static void integratePendingStructs(Transaction transaction, StructStore store) {
+        while (store.getPendingStructs() != null) {
+            Map<Long, List<AbstractStruct>> ready = store.getPendingStructs().takeReady(store);
+            if (ready.isEmpty()) {
+                break;
+            }
+            LongObjectMap<ClientStructRefs> refs = new LongObjectMap<>(ready.size());
+            int readyStructs = 0;
+            for (Map.Entry<Long, List<AbstractStruct>> entry : ready.entrySet()) {
+                refs.put(entry.getKey(), new ClientStructRefs(0, entry.getValue()));
+                readyStructs += entry.getValue().size();
+            }
+            PendingStructs rest = integrateStructs(transaction, store, refs);
+            if (rest != null) {
+                addPendingStructs(store, rest);
+                if (rest.size() == readyStructs) {
+                    // nothing could be integrated, don't try again until the next update
+                    break;
+                }
+            }
+        }
+        if (store.getPendingStructs() != null && store.getPendingStructs().isEmpty()) {
+            store.setPendingStructs(null);
+        }
+    }
+
+    private static void addPendingStructs(StructStore store, PendingStructs rest) {
+        int dropped = store.addPendingStructs(rest);
+        if (dropped > 0) {
+            log.warn("Dropped {} pending structs, more than {} structs are waiting for missing updates",
+                    dropped, store.maxPendingStructs);
+        }
+    }
+
     /**
      * Read and apply document update V1
      *
@@ -408,6 +449,17 @@ public class EncodingUtil {
         applyUpdate(ydoc, update, null);
     }
 
+    /**
+     * Apply a V1 update held in the remaining bytes of the buffer, e.g. a received frame, without copying it first
+     *
+     * @param ydoc              Document instance
+     * @param update            Update bytes, the position of the buffer is not changed
+     * @param transactionOrigin Transaction origin
+     */
+    public static void applyUpdate(Doc ydoc, ByteBuffer update, Object transactionOrigin) {
+        readUpdate(Decoder.createDecoder(update), ydoc, transactionOrigin);
+    }
+
     /**
      * Write state as update
      *
@@ -417,7 +469,7 @@ public class EncodingUtil {
      */
     public static void writeStateAsUpdate(DSEncoder encoder, Doc doc, Map<Long, Long> targetStateVector) {
         if (targetStateVector == null) {
-            targetStateVector = new HashMap<>();
+            targetStateVector = StateVector.EMPTY;
         }
         writeClientsStructs(encoder, doc.getStore(), targetStateVector);
         DeleteSet.writeDeleteSet(encoder, DeleteSet.createDeleteSetFromStructStore(doc.getStore()));
@@ -429,6 +481,11 @@ public class EncodingUtil {
      * Use `writeStateAsUpdate` instead if you are working with lib0/encoding.js#Encoder
      */
     public static byte[] encodeStateAsUpdateV2(Doc doc, byte[] encodedTargetStateVector, DSEncoder encoder) {
+        if (doc.mailbox != null && !doc.mailbox.inMailbox()) {
+            final byte[] targetStateVector = encodedTargetStateVector;
+            final DSEncoder finalEncoder = encoder;
+            return doc.mailbox.call(() -> encodeStateAsUpdateV2(doc, targetStateVector, finalEncoder));
+        }
         if (encodedTargetStateVector == null) {
             encodedTargetStateVector = new byte[]{0};
         }
@@ -440,20 +497,21 @@ public class EncodingUtil {
         writeStateAsUpdate(encoder, doc, targetStateVector);
         List<byte[]> updates = new ArrayList<>();
         updates.add(encoder.toUint8Array());
-        if (doc.store.pendingDs != null) {
-            updates.add(doc.store.pendingDs);
-        }
-        if (doc.store.pendingStructs != null) {
-            updates.add(UpdateProcessor.diffUpdateV2(doc.store.pendingStructs.update, encodedTargetStateVector, null, null));
+        if (doc.store.hasPending()) {
+            // encode the pending structs and deletions directly in the requested format
+            DSEncoder pendingEncoder = encoder instanceof UpdateEncoderV1 ? new UpdateEncoderV1() : new UpdateEncoderV2();
+            if (doc.store.pendingStructs != null) {
+                doc.store.pendingStructs.writeStructs(pendingEncoder, targetStateVector);
+            } else {
+                Encoder.writeVarUint(pendingEncoder.getRestEncoder(), 0);
+            }
+            DeleteSet.writeDeleteSet(pendingEncoder, doc.store.pendingDs != null ? doc.store.pendingDs : new DeleteSet());
+            updates.add(pendingEncoder.toUint8Array());
         }
 
         if (updates.size() > 1) {
             if (encoder instanceof UpdateEncoderV1) {
-                List<byte[]> convertedUpdates = new ArrayList<>();
-                for (int i = 0; i < updates.size(); i++) {
-                    convertedUpdates.add(i == 0 ? updates.get(i) : UpdateProcessor.convertUpdateFormatV2ToV1(updates.get(i)));
-                }
-                return UpdateProcessor.mergeUpdates(convertedUpdates);
+                return UpdateProcessor.mergeUpdates(updates);
             } else if (encoder instanceof UpdateEncoderV2) {
                 return UpdateProcessor.mergeUpdatesV2(updates, null, null);
             }
@@ -472,16 +530,70 @@ public class EncodingUtil {
         return encodeStateAsUpdateV2(doc, encodedTargetStateVector, new UpdateEncoderV1());
     }
 
+    /**
+     * Same as {@link #encodeStateAsUpdate(Doc, byte[])}, but reuses the encoded state of the document between calls
+     * until the next transaction. Meant for answering SyncStep1 of many peers.
+     * <p>
+     * An empty target state vector is answered with the cached full state. Otherwise only the missing structs are
+     * written and the cached delete set is appended, so neither case walks the whole struct store to rebuild the
+     * delete set. Documents with pending updates are not cached.
+     *
+     * @param doc                      Document instance
+     * @param encodedTargetStateVector Encoded target state vector
+     * @return Encoded update bytes (V1)
+     */
+    public static byte[] encodeStateAsUpdateCached(Doc doc, byte[] encodedTargetStateVector) {
+        if (doc.mailbox != null && !doc.mailbox.inMailbox()) {
+            return doc.mailbox.call(() -> encodeStateAsUpdateCached(doc, encodedTargetStateVector));
+        }
+        if (doc.store.hasPending()) {
+            return encodeStateAsUpdate(doc, encodedTargetStateVector);
+        }
+        Map<Long, Long> targetStateVector = encodedTargetStateVector == null
+                ? StateVector.EMPTY : decodeStateVector(encodedTargetStateVector);
+        long version = doc.stateVersion;
+        StateUpdateCache cache = doc.stateUpdateCache;
+        if (targetStateVector.isEmpty()) {
+            byte[] fullState = cache.getFullState(version);
+            if (fullState == null) {
+                fullState = writeStateWithDeleteSet(doc, targetStateVector, version);
+                if (version == doc.stateVersion) {
+                    cache.putFullState(version, fullState);
+                }
+            }
+            return fullState;
+        }
+        return writeStateWithDeleteSet(doc, targetStateVector, version);
+    }
+
+    private static byte[] writeStateWithDeleteSet(Doc doc, Map<Long, Long> targetStateVector, long version) {
+        StateUpdateCache cache = doc.stateUpdateCache;
+        byte[] ds = cache.getDeleteSet(version);
+        if (ds == null) {
+            UpdateEncoderV1 dsEncoder = new UpdateEncoderV1();
+            DeleteSet.writeDeleteSet(dsEncoder, DeleteSet.createDeleteSetFromStructStore(doc.getStore()));
+            ds = dsEncoder.toUint8Array();
+            if (version == doc.stateVersion) {
+                cache.putDeleteSet(version, ds);
+            }
+        }
+        UpdateEncoderV1 encoder = new UpdateEncoderV1();
+        writeClientsStructs(encoder, doc.getStore(), targetStateVector);
+        // V1 writes everything to the rest encoder, the delete set can be appended as it is
+        Encoder.writeUint8Array(encoder.getRestEncoder(), ds);
+        return encoder.toUint8Array();
+    }
+
     /**
      * Read state vector from decoder
      *
      * @param decoder DSDecoder instance
      * @return State vector map
      */
-    public static Map<Long, Long> readStateVector(DSDecoder decoder) {
-        Map<Long, Long> ss = new HashMap<>();
-        long ssLength = Decoder.readVarUint(decoder.getRestDecoder());
-        for (long i = 0; i < ssLength; i++) {
+    public static LongLongMap readStateVector(DSDecoder decoder) {
+        int ssLength = (int) Decoder.readVarUint(decoder.getRestDecoder());
+        LongLongMap ss = new LongLongMap(ssLength);
+        for (int i = 0; i < ssLength; i++) {
             long client = Decoder.readVarUint(decoder.getRestDecoder());
             long clock = Decoder.readVarUint(decoder.getRestDecoder());
             ss.put(client, clock);
@@ -495,7 +607,7 @@ public class EncodingUtil {
      * @param decodedState Decoded state bytes
      * @return State vector map
      */
-    public static Map<Long, Long> decodeStateVector(byte[] decodedState) {
+    public static LongLongMap decodeStateVector(byte[] decodedState) {
         return readStateVector(new UpdateDecoderV1(Decoder.createDecoder(decodedState)));
     }
 
@@ -506,6 +618,10 @@ public class EncodingUtil {
      * @param sv      State vector map
      */
     public static void writeStateVector(DSEncoder encoder, Map<Long, Long> sv) {
+        if (sv instanceof StateVector stateVector) {
+            stateVector.write(encoder);
+            return;
+        }
         Encoder.writeVarUint(encoder.getRestEncoder(), sv.size());
         sv.entrySet().stream()
                 .sorted((a, b) -> Long.compare(b.getKey(), a.getKey()))
@@ -538,6 +654,12 @@ public class EncodingUtil {
         }
         if (doc instanceof Map) {
             writeStateVector(encoder, (Map<Long, Long>) doc);
+        } else if (doc instanceof Doc ydoc && ydoc.mailbox != null && !ydoc.mailbox.inMailbox()) {
+            final DSEncoder finalEncoder = encoder;
+            ydoc.mailbox.call(() -> {
+                writeDocumentStateVector(finalEncoder, ydoc);
+                return null;
+            });
         } else {
             writeDocumentStateVector(encoder, (Doc) doc);
         }
@@ -548,11 +670,36 @@ public class EncodingUtil {
      * Encode state vector V1
      *
      * @param doc Document or state vector map
-     * @return Encoded state vector bytes
+     * @return Encoded state vector bytes, a new array owned by the caller
      */
     public static byte[] encodeStateVector(Object doc) {
+        if (doc instanceof Doc ydoc) {
+            return cachedStateVector(ydoc).clone();
+        }
         return encodeStateVectorV2(doc, new UpdateEncoderV1());
     }
 
+    /**
+     * Write the V1 state vector of the document as a length prefixed array, as read by
+     * {@link Decoder#readVarUint8Array(Decoder)}. Writes the cached encoding without copying it.
+     *
+     * @param encoder Encoder instance
+     * @param doc     Document instance
+     */
+    public static void writeEncodedStateVector(Encoder encoder, Doc doc) {
+        Encoder.writeVarUint8Array(encoder, cachedStateVector(doc));
+    }
+
+    /**
+     * The encoded state vector is cached until the next change of the store, the array is shared and must not
+     * leave this class
+     */
+    private static byte[] cachedStateVector(Doc ydoc) {
+        if (ydoc.mailbox != null && !ydoc.mailbox.inMailbox()) {
+            return ydoc.mailbox.call(() -> ydoc.getStore().getStateVector().encodeV1());
+        }
+        return ydoc.getStore().getStateVector().encodeV1();
+    }
+
 
 }
@@ -0,0 +1,312 @@
+package com.triibiotech.yjs.utils.encoding;
+
+import com.triibiotech.yjs.structs.AbstractStruct;
+import com.triibiotech.yjs.utils.StructStore;
+import com.triibiotech.yjs.utils.lib0.Binary;
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
+
+import java.util.List;
+
+/**
+ * Detects the parts of an update that a document already has, before any struct of the update is decoded.
+ * <p>
+ * Multi-tab clients and reconnecting clients resend a lot of updates the document already integrated. For V1 updates
+ * {@link #isKnown(StructStore, Decoder)} walks the struct headers and the delete set by skipping over the
+ * encoded content, without creating structs, contents or strings, so a fully known update can be dropped without
+ * starting a transaction. Updates that are only partially known are trimmed by
+ * {@link EncodingUtil#readClientsStructRefs(com.triibiotech.yjs.utils.DSDecoder, com.triibiotech.yjs.utils.Doc)},
+ * which skips the V1 structs below the local state of their client instead of instantiating them.
+ *
+ * @author zbs
+ * @date 2026/10/18  19:40:08
+ */
+public final class KnownUpdates {
+
+    /**
+     * Returned by {@link #skipStruct(Decoder, int)} when the struct is not well-formed enough to compute its length
+     * without decoding it, the caller decodes it the regular way
+     */
+    static final long IRREGULAR = -1;
+
+    private KnownUpdates() {
+    }
+
+    /**
+     * Check whether every struct and every deletion of a V1 update is already applied to the store.
+     *
+     * @param update V1 update, read from its current position without moving it
+     * @return false if the update contains anything new, or cannot be scanned
+     */
+    public static boolean isKnown(StructStore store, Decoder update) {
+        Decoder decoder = Decoder.clone(update);
+        long structs = 0;
+        try {
+            long numOfStateUpdates = Decoder.readVarUint(decoder);
+            for (long i = 0; i < numOfStateUpdates; i++) {
+                long numberOfStructs = Decoder.readVarUint(decoder);
+                long client = Decoder.readVarUint(decoder);
+                long clock = Decoder.readVarUint(decoder);
+                long localClock = StructStore.getState(store, client);
+                for (long j = 0; j < numberOfStructs; j++) {
+                    int info = Decoder.readUint8(decoder);
+                    boolean skip = (info & Binary.BITS5) == 10;
+                    long len = skipStruct(decoder, info);
+                    if (len == IRREGULAR) {
+                        return false;
+                    }
+                    clock += len;
+                    if (!skip && clock > localClock) {
+                        return false;
+                    }
+                }
+                structs += numberOfStructs;
+            }
+            long numClients = Decoder.readVarUint(decoder);
+            for (long i = 0; i < numClients; i++) {
+                long client = Decoder.readVarUint(decoder);
+                long numberOfDeletes = Decoder.readVarUint(decoder);
+                List<AbstractStruct> clientStructs = store.getClients().get(client);
+                for (long j = 0; j < numberOfDeletes; j++) {
+                    long clock = Decoder.readVarUint(decoder);
+                    long len = Decoder.readVarUint(decoder);
+                    if (!isDeleted(store, clientStructs, client, clock, clock + len)) {
+                        return false;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // malformed update, let the regular path report it
+            return false;
+        }
+        store.recordSkippedUpdate(structs);
+        return true;
+    }
+
+    private static boolean isDeleted(StructStore store, List<AbstractStruct> structs, long client, long clock, long end) {
+        if (end <= clock) {
+            return true;
+        }
+        if (structs == null || end > StructStore.getState(store, client)) {
+            return false;
+        }
+        for (int index = StructStore.findIndexSS(structs, clock); index < structs.size(); index++) {
+            AbstractStruct struct = structs.get(index);
+            if (struct.id.clock >= end) {
+                break;
+            }
+            if (!struct.isDeleted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip a V1 encoded struct without allocating. The length must be the one the regular decode gives the struct,
+     * it sets the clocks of the following structs of the client.
+     *
+     * @return length of the struct, or {@link #IRREGULAR} if only the regular decode can tell it
+     */
+    static long skipStruct(Decoder decoder, int info) {
+        switch (Binary.BITS5 & info) {
+            // GC and Skip
+            case 0:
+            case 10:
+                return Decoder.readVarUint(decoder);
+            default:
+        }
+        boolean cantCopyParentInfo = (info & (Binary.BIT7 | Binary.BIT8)) == 0;
+        if ((info & Binary.BIT8) == Binary.BIT8) {
+            skipId(decoder);
+        }
+        if ((info & Binary.BIT7) == Binary.BIT7) {
+            skipId(decoder);
+        }
+        if (cantCopyParentInfo) {
+            if (Decoder.readVarUint(decoder) == 1) {
+                skipBytes(decoder);
+            } else {
+                skipId(decoder);
+            }
+            if ((info & Binary.BIT6) == Binary.BIT6) {
+                skipBytes(decoder);
+            }
+        }
+        switch (info & Binary.BITS5) {
+            // ContentDeleted
+            case 1:
+                return Decoder.readVarUint(decoder);
+            // ContentJSON
+            case 2: {
+                long len = Decoder.readVarUint(decoder);
+                for (long i = 0; i < len; i++) {
+                    skipBytes(decoder);
+                }
+                return len;
+            }
+            // ContentBinary, ContentEmbed
+            case 3:
+            case 5:
+                skipBytes(decoder);
+                return 1;
+            // ContentString, length in UTF-16 code units
+            case 4:
+                return skipString(decoder);
+            // ContentFormat
+            case 6:
+                skipBytes(decoder);
+                skipBytes(decoder);
+                return 1;
+            // ContentType, YXmlElement and YXmlHook carry a name
+            case 7: {
+                long typeRef = Decoder.readVarUint(decoder);
+                if (typeRef > 6) {
+                    // an unknown type ref decodes to an item without content
+                    return IRREGULAR;
+                }
+                if (typeRef == 3 || typeRef == 5) {
+                    skipBytes(decoder);
+                }
+                return 1;
+            }
+            // ContentAny
+            case 8: {
+                long len = Decoder.readVarUint(decoder);
+                for (long i = 0; i < len; i++) {
+                    skipAny(decoder);
+                }
+                return len;
+            }
+            // ContentDoc
+            case 9:
+                skipBytes(decoder);
+                skipAny(decoder);
+                return 1;
+            default:
+                throw new IllegalStateException("Unexpected content ref: " + (info & Binary.BITS5));
+        }
+    }
+
+    private static void skipId(Decoder decoder) {
+        Decoder.readVarUint(decoder);
+        Decoder.readVarUint(decoder);
+    }
+
+    /**
+     * Skip a length prefixed byte array or string
+     */
+    private static void skipBytes(Decoder decoder) {
+        int len = Math.toIntExact(Decoder.readVarUint(decoder));
+        advance(decoder, len);
+    }
+
+    /**
+     * Skip a var string
+     *
+     * @return number of UTF-16 code units of the string, {@link #IRREGULAR} if it is not well-formed UTF-8. The
+     * JDK decoder replaces malformed sequences, so only the decoded string tells its length then
+     */
+    private static long skipString(Decoder decoder) {
+        int len = Math.toIntExact(Decoder.readVarUint(decoder));
+        int start = decoder.getPos();
+        advance(decoder, len);
+        byte[] bytes = decoder.getArr();
+        int end = start + len;
+        long units = 0;
+        int i = start;
+        while (i < end) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                units++;
+                i++;
+                continue;
+            }
+            int n;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                n = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                n = 3;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                n = 4;
+                min = 0x10000;
+            } else {
+                return IRREGULAR;
+            }
+            if (i + n > end) {
+                return IRREGULAR;
+            }
+            int cp = b & (0x7F >> n);
+            for (int k = 1; k < n; k++) {
+                int c = bytes[i + k] & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return IRREGULAR;
+                }
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            // overlong forms, encoded surrogates and code points above U+10FFFF are malformed
+            if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp <= 0xDFFF)) {
+                return IRREGULAR;
+            }
+            // four byte sequences are encoded as a surrogate pair
+            units += n == 4 ? 2 : 1;
+            i += n;
+        }
+        return units;
+    }
+
+    private static void skipAny(Decoder decoder) {
+        int type = 127 - Decoder.readUint8(decoder);
+        switch (type) {
+            // undefined, null, false, true
+            case 0:
+            case 1:
+            case 6:
+            case 7:
+                break;
+            case 2:
+                Decoder.readVarInt(decoder);
+                break;
+            case 3:
+                advance(decoder, 4);
+                break;
+            case 4:
+            case 5:
+                advance(decoder, 8);
+                break;
+            // string, Uint8Array
+            case 8:
+            case 11:
+                skipBytes(decoder);
+                break;
+            case 9: {
+                long len = Decoder.readVarUint(decoder);
+                for (long i = 0; i < len; i++) {
+                    skipBytes(decoder);
+                    skipAny(decoder);
+                }
+                break;
+            }
+            case 10: {
+                long len = Decoder.readVarUint(decoder);
+                for (long i = 0; i < len; i++) {
+                    skipAny(decoder);
+                }
+                break;
+            }
+            // Decoder.readAny reads an unknown type as undefined
+            default:
+                break;
+        }
+    }
+
+    private static void advance(Decoder decoder, int len) {
+        int pos = decoder.getPos() + len;
+        if (len < 0 || pos > decoder.getEnd()) {
+            throw new IllegalStateException("Unexpected end of array");
+        }
+        decoder.setPos(pos);
+    }
+}
@@ -134,8 +134,7 @@ public abstract class YEvent<T extends AbstractType<?>> {
     }
 
     public boolean adds(AbstractStruct struct) {
-        Long i = this.transaction.beforeState.get(struct.id.client);
-        return struct.id.clock >= Objects.requireNonNullElse(i, 0L);
+        return struct.id.clock >= this.transaction.beforeState.getClock(struct.id.client);
     }
 
     public Changes getChanges() {
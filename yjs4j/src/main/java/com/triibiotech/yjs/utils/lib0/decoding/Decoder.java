@@ -10,6 +10,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
+ * 读取 arr 中 [pos, end) 的数据，可以是一段更大数组中的视图，嵌套的内容通过 {@link #readVarUint8ArrayView(Decoder)} 读取时不复制
+ *
  * @author zbs
  * @date 2025/7/29 14:47
  **/
@@ -17,10 +19,29 @@ import java.util.*;
 public class Decoder {
     private byte[] arr;
     private int pos;
+    private int end;
 
     public Decoder(byte[] uint8Array) {
         this.arr = uint8Array;
         this.pos = 0;
+        this.end = uint8Array.length;
+    }
+
+    /**
+     * 数组 [offset, offset + length) 的视图
+     */
+    public Decoder(byte[] uint8Array, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, uint8Array.length);
+        this.arr = uint8Array;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * 从 view 的当前位置继续读取 view 剩余的数据
+     */
+    protected Decoder(Decoder view) {
+        this(view.arr, view.pos, view.end - view.pos);
     }
 
     public byte[] getArr() {
@@ -29,6 +50,14 @@ public class Decoder {
 
     public void setArr(byte[] arr) {
         this.arr = arr;
+        this.end = arr.length;
+    }
+
+    /**
+     * 数据在 {@link #getArr()} 中的结束位置（不包含）
+     */
+    public int getEnd() {
+        return end;
     }
 
     public int getPos() {
@@ -43,13 +72,28 @@ public class Decoder {
         return new Decoder(uint8Array);
     }
 
+    /**
+     * 读取 buffer 剩余的数据，不改变 buffer 的 position。
+     * 可访问底层数组的 buffer 直接使用该数组，只读或堆外的 buffer 复制一次。
+     * 直接使用数组时 decoder 是 buffer 的视图，buffer 被复用（例如容器的帧缓冲区）之后不能再读取
+     */
+    public static Decoder createDecoder(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new Decoder(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(buffer.position(), bytes);
+        return new Decoder(bytes);
+    }
+
     public static boolean hasContent(Decoder decoder) {
-        return decoder.pos != decoder.arr.length;
+        return decoder.pos < decoder.end;
     }
 
     public static Decoder clone(Decoder decoder, int newPos) {
         Decoder d = createDecoder(decoder.arr);
         d.pos = newPos;
+        d.end = decoder.end;
         return d;
     }
 
@@ -57,19 +101,37 @@ public class Decoder {
         return clone(decoder, decoder.pos);
     }
 
+    private static void require(Decoder decoder, int len) {
+        if (len < 0 || len > decoder.end - decoder.pos) {
+            throw new RuntimeException("Unexpected end of array");
+        }
+    }
+
     public static byte[] readUint8Array(Decoder decoder, int len) {
-        byte[] view = new byte[len];
-        System.arraycopy(decoder.arr, decoder.pos, view, 0, len);
+        require(decoder, len);
+        byte[] bytes = Arrays.copyOfRange(decoder.arr, decoder.pos, decoder.pos + len);
         decoder.pos += len;
-        return view;
+        return bytes;
     }
 
     public static byte[] readVarUint8Array(Decoder decoder) {
         return readUint8Array(decoder, (int) readVarUint(decoder));
     }
 
+    /**
+     * 和 {@link #readVarUint8Array(Decoder)} 读取相同的数据，但返回原数组上的视图，不复制。
+     * 视图和原数组共享数据，需要保留内容时使用 readVarUint8Array
+     */
+    public static Decoder readVarUint8ArrayView(Decoder decoder) {
+        int len = (int) readVarUint(decoder);
+        require(decoder, len);
+        Decoder view = new Decoder(decoder.arr, decoder.pos, len);
+        decoder.pos += len;
+        return view;
+    }
+
     public static byte[] readTailAsUint8Array(Decoder decoder) {
-        return readUint8Array(decoder, decoder.arr.length - decoder.pos);
+        return readUint8Array(decoder, decoder.end - decoder.pos);
     }
 
     public static int skip8(Decoder decoder) {
@@ -77,10 +139,14 @@ public class Decoder {
     }
 
     public static int readUint8(Decoder decoder) {
+        if (decoder.pos >= decoder.end) {
+            throw new RuntimeException("Unexpected end of array");
+        }
         return decoder.arr[decoder.pos++] & 0xFF;
     }
 
     public static int readUint16(Decoder decoder) {
+        require(decoder, 2);
         int uint = (decoder.arr[decoder.pos] & 0xFF) +
                 ((decoder.arr[decoder.pos + 1] & 0xFF) << 8);
         decoder.pos += 2;
@@ -88,6 +154,7 @@ public class Decoder {
     }
 
     public static long readUint32(Decoder decoder) {
+        require(decoder, 4);
         long uint = (decoder.arr[decoder.pos] & 0xFF) +
                 ((decoder.arr[decoder.pos + 1] & 0xFF) << 8) +
                 ((decoder.arr[decoder.pos + 2] & 0xFF) << 16) +
@@ -97,6 +164,7 @@ public class Decoder {
     }
 
     public static long readUint32BigEndian(Decoder decoder) {
+        require(decoder, 4);
         long uint = ((decoder.arr[decoder.pos + 3] & 0xFF)) +
                 ((decoder.arr[decoder.pos + 2] & 0xFF) << 8) +
                 ((decoder.arr[decoder.pos + 1] & 0xFF) << 16) +
@@ -121,45 +189,64 @@ public class Decoder {
                 ((long) (decoder.arr[decoder.pos + 3] & 0xFF) << 24)) & 0xFFFFFFFFL;
     }
 
+    /**
+     * 一到两个字节的值直接返回，更长的值按位移累加，不再逐字节做乘法
+     */
     public static long readVarUint(Decoder decoder) {
-        long num = 0;
-        long mult = 1;
-        int len = decoder.arr.length;
-        while (decoder.pos < len) {
-            byte r = decoder.arr[decoder.pos++];
-            num = num + (r & Binary.BITS7) * mult;
-            mult *= 128;
-            if (Byte.toUnsignedInt(r) < Binary.BIT8) {
+        byte[] arr = decoder.arr;
+        int pos = decoder.pos;
+        int end = decoder.end;
+        if (pos < end) {
+            int r = arr[pos];
+            if (r >= 0) {
+                decoder.pos = pos + 1;
+                return r;
+            }
+            if (pos + 1 < end) {
+                int r2 = arr[pos + 1];
+                if (r2 >= 0) {
+                    decoder.pos = pos + 2;
+                    return (r & Binary.BITS7) | ((long) r2 << 7);
+                }
+            }
+        }
+        return readVarUintTail(decoder, 0, 0);
+    }
+
+    /**
+     * 从 decoder.pos 继续读取 varint 的剩余字节，num 是已经读到的值，shift 是下一个字节的位移
+     */
+    private static long readVarUintTail(Decoder decoder, long num, int shift) {
+        byte[] arr = decoder.arr;
+        int pos = decoder.pos;
+        int end = decoder.end;
+        while (pos < end) {
+            int r = arr[pos++];
+            if (shift < 64) {
+                num += (long) (r & Binary.BITS7) << shift;
+            }
+            shift += 7;
+            if (r >= 0) {
+                decoder.pos = pos;
                 return num;
             }
             if (num > NumberUtils.MAX_SAFE_INTEGER) {
+                decoder.pos = pos;
                 throw new RuntimeException("Integer out of Range");
             }
         }
+        decoder.pos = pos;
         throw new RuntimeException("Unexpected end of array");
     }
 
     public static long readVarInt(Decoder decoder) {
-        int r = decoder.arr[decoder.pos++] & 0xFF;
+        int r = readUint8(decoder);
         long num = r & Binary.BITS6;
-        long mult = 64;
-        int sign = (r & Binary.BIT7) > 0 ? -1 : 1;
+        long sign = (r & Binary.BIT7) > 0 ? -1 : 1;
         if ((r & Binary.BIT8) == 0) {
             return sign * num;
         }
-        int len = decoder.arr.length;
-        while (decoder.pos < len) {
-            r = decoder.arr[decoder.pos++] & 0xFF;
-            num = num + (r & Binary.BITS7) * mult;
-            mult *= 128;
-            if (r < Binary.BIT8) {
-                return sign * num;
-            }
-            if (num > NumberUtils.MAX_SAFE_INTEGER) {
-                throw new RuntimeException("Integer out of Range");
-            }
-        }
-        throw new RuntimeException("Unexpected end of array");
+        return sign * readVarUintTail(decoder, num, 6);
     }
 
     public static long peekVarUint(Decoder decoder) {
@@ -177,8 +264,12 @@ public class Decoder {
     }
 
     public static String readVarString(Decoder decoder) {
-        byte[] bytes = readVarUint8Array(decoder);
-        return new String(bytes, StandardCharsets.UTF_8);
+        int len = (int) readVarUint(decoder);
+        require(decoder, len);
+        // 直接从原数组解码，不经过中间数组
+        String s = new String(decoder.arr, decoder.pos, len, StandardCharsets.UTF_8);
+        decoder.pos += len;
+        return s;
     }
 
     public static byte[] readTerminatedUint8Array(Decoder decoder) {
@@ -209,6 +300,7 @@ public class Decoder {
     }
 
     public static ByteBuffer readFromDataView(Decoder decoder, int len) {
+        require(decoder, len);
         ByteBuffer bb = ByteBuffer.wrap(decoder.arr, decoder.pos, len);
         bb.order(ByteOrder.LITTLE_ENDIAN);
         decoder.pos += len;
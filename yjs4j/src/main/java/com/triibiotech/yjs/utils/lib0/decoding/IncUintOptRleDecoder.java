@@ -1,6 +1,6 @@
 package com.triibiotech.yjs.utils.lib0.decoding;
 
-import com.triibiotech.yjs.utils.lib0.MathUtils;
+import com.triibiotech.yjs.utils.lib0.Binary;
 
 /**
  * @author zbs
@@ -16,8 +16,9 @@ public class IncUintOptRleDecoder extends Decoder {
 
     public long read() {
         if (count == 0) {
+            // long 没有 -0，符号位直接从第一个字节读取
+            boolean isNegative = (peekUint8(this) & Binary.BIT7) != 0;
             s = readVarInt(this);
-            boolean isNegative = MathUtils.isNegativeZero(s);
             count = 1;
             if (isNegative) {
                 s = -s;
@@ -13,11 +13,16 @@ public class IntDiffOptRleDecoder extends Decoder {
         super(uint8Array);
     }
 
+    public IntDiffOptRleDecoder(Decoder view) {
+        super(view);
+    }
+
     public long read() {
         if (count == 0) {
             long diffValue = readVarInt(this);
             int hasCount = (int) (diffValue & 1);
-            diff = (long) Math.floor(diffValue / 2.0);
+            // 向下取整的除以 2
+            diff = diffValue >> 1;
             count = 1;
             if (hasCount != 0) {
                 count = (int) readVarUint(this) + 2;
@@ -15,6 +15,11 @@ public class RleDecoder<T> extends Decoder {
         this.reader = reader;
     }
 
+    public RleDecoder(Decoder view, Function<Decoder, T> reader) {
+        super(view);
+        this.reader = reader;
+    }
+
     public T read() {
         if (count == 0) {
             s = reader.apply(this);
@@ -1,23 +1,141 @@
 package com.triibiotech.yjs.utils.lib0.decoding;
 
+import java.nio.charset.StandardCharsets;
+
 /**
+ * 读取 {@link com.triibiotech.yjs.utils.lib0.encoding.StringEncoder} 的输出。
+ * 每个字符串直接从共享的 UTF-8 数据中解码，不先解码成一个完整的 String
+ *
  * @author zbs
  * @date 2025/7/29 14:49
  **/
 public class StringDecoder {
-    private UintOptRleDecoder decoder;
-    private String str;
-    private int spos = 0;
+    private final UintOptRleDecoder decoder;
+    private final byte[] arr;
+    private int spos;
+    private final int send;
+    /**
+     * 上一个字符串在一对代理字符中间结束时，剩下的低代理字符，没有时为 0
+     */
+    private char pendingLow = 0;
+    /**
+     * 数据不是合法的 UTF-8 时，整列解码后的字符串，按长度截取；合法时为 null
+     */
+    private final String str;
 
     public StringDecoder(byte[] uint8Array) {
-        this.decoder = new UintOptRleDecoder(uint8Array);
-        this.str = Decoder.readVarString(decoder);
+        this(Decoder.createDecoder(uint8Array));
+    }
+
+    public StringDecoder(Decoder view) {
+        Decoder str = Decoder.readVarUint8ArrayView(view);
+        this.arr = str.getArr();
+        this.spos = str.getPos();
+        this.send = str.getEnd();
+        this.decoder = new UintOptRleDecoder(view);
+        // 按首字节换算长度只对合法的 UTF-8 成立，否则和整列解码一样处理替换字符
+        if (isWellFormed(arr, spos, send)) {
+            this.str = null;
+        } else {
+            this.str = new String(arr, spos, send - spos, StandardCharsets.UTF_8);
+            this.spos = 0;
+        }
+    }
+
+    /**
+     * 检查 UTF-8 数据是否合法：续字节、过长编码、代理字符和超过 U+10FFFF 的码点
+     */
+    private static boolean isWellFormed(byte[] arr, int pos, int end) {
+        while (pos < end) {
+            int b = arr[pos] & 0xFF;
+            if (b < 0x80) {
+                pos++;
+                continue;
+            }
+            int n;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                n = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                n = 3;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                n = 4;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (pos + n > end) {
+                return false;
+            }
+            int cp = b & (0x7F >> n);
+            for (int k = 1; k < n; k++) {
+                int c = arr[pos + k] & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp <= 0xDFFF)) {
+                return false;
+            }
+            pos += n;
+        }
+        return true;
     }
 
     public String read() {
-        int end = spos + (int) decoder.read();
-        String res = str.substring(spos, end);
-        spos = end;
-        return res;
+        int units = (int) decoder.read();
+        if (str != null) {
+            int end = spos + units;
+            String res = str.substring(spos, end);
+            spos = end;
+            return res;
+        }
+        StringBuilder prefix = null;
+        if (pendingLow != 0 && units > 0) {
+            prefix = new StringBuilder().append(pendingLow);
+            pendingLow = 0;
+            units--;
+        }
+        // 长度是 UTF-16 单元数，按 UTF-8 的首字节换算成字节数
+        byte[] arr = this.arr;
+        int start = spos;
+        int pos = start;
+        boolean split = false;
+        while (units > 0 && pos < send) {
+            int b = arr[pos];
+            if (b >= 0) {
+                pos++;
+            } else if ((b & 0xF8) == 0xF0) {
+                if (units == 1) {
+                    // 字符串在一对代理字符中间结束
+                    split = true;
+                    break;
+                }
+                pos += 4;
+                units--;
+            } else if ((b & 0xF0) == 0xE0) {
+                pos += 3;
+            } else if ((b & 0xE0) == 0xC0) {
+                pos += 2;
+            } else {
+                pos++;
+            }
+            units--;
+        }
+        if ((units > 0 && !split) || pos > send || (split && pos + 4 > send)) {
+            throw new RuntimeException("Unexpected end of array");
+        }
+        String res = new String(arr, start, pos - start, StandardCharsets.UTF_8);
+        if (split) {
+            String pair = new String(arr, pos, 4, StandardCharsets.UTF_8);
+            res = res + pair.charAt(0);
+            pendingLow = pair.charAt(1);
+            pos += 4;
+        }
+        spos = pos;
+        return prefix == null ? res : prefix.append(res).toString();
     }
 }
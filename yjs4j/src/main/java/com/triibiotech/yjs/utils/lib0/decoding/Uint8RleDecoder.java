@@ -0,0 +1,35 @@
+package com.triibiotech.yjs.utils.lib0.decoding;
+
+/**
+ * 读取 {@link com.triibiotech.yjs.utils.lib0.encoding.Uint8RleEncoder} 的输出，
+ * 和 new RleDecoder&lt;&gt;(decoder, Decoder::readUint8) 相同，但不装箱
+ *
+ * @author zbs
+ * @date 2026/10/19  00:12:41
+ **/
+public class Uint8RleDecoder extends Decoder {
+    private int s = 0;
+    private int count = 0;
+
+    public Uint8RleDecoder(byte[] uint8Array) {
+        super(uint8Array);
+    }
+
+    public Uint8RleDecoder(Decoder view) {
+        super(view);
+    }
+
+    public int read() {
+        if (count == 0) {
+            s = readUint8(this);
+            if (hasContent(this)) {
+                count = (int) readVarUint(this) + 1;
+            } else {
+                // read the current value forever
+                count = -1;
+            }
+        }
+        count--;
+        return s;
+    }
+}
@@ -1,9 +1,10 @@
 package com.triibiotech.yjs.utils.lib0.encoding;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,102 +18,131 @@ import static com.triibiotech.yjs.utils.lib0.Binary.*;
  **/
 @SuppressWarnings("unused")
 public class Encoder {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * 超过这个大小的缓冲区用完后不放回池中，避免线程长期持有大数组
+     */
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    /**
+     * 每个线程缓存一个编码器，见 {@link #acquire()}
+     */
+    private static final ThreadLocal<Encoder> POOL = new ThreadLocal<>();
+
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * 写入的数据都在一个数组中，空间不够时整体扩容
+     */
+    private byte[] buf;
     private int cpos = 0;
-    private ByteBuffer cbuf;
-    private List<byte[]> bufs = new ArrayList<>();
 
     public Encoder() {
-        this.cbuf = ByteBuffer.allocate(100).order(ByteOrder.LITTLE_ENDIAN);
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Encoder(int initialCapacity) {
+        this.buf = new byte[Math.max(initialCapacity, 16)];
     }
 
     public static Encoder createEncoder() {
         return new Encoder();
     }
 
+    /**
+     * 取当前线程缓存的编码器，已被取走（嵌套使用）时新建一个。
+     * 用完后调用 {@link #release(Encoder)} 放回，放回后不能再使用它和 {@link #asByteBuffer(Encoder)} 返回的 buffer
+     * <p>
+     * 虚拟线程通常只执行一个任务，缓存在 ThreadLocal 中的编码器不会再被取到，所以虚拟线程上不使用池，每次新建。
+     * 在文档的 mailbox 中运行的代码使用 {@link com.triibiotech.yjs.utils.DocMailbox#acquireEncoder()}
+     */
+    public static Encoder acquire() {
+        if (Thread.currentThread().isVirtual()) {
+            return new Encoder();
+        }
+        Encoder encoder = POOL.get();
+        if (encoder == null) {
+            return new Encoder();
+        }
+        POOL.set(null);
+        return encoder;
+    }
+
+    public static void release(Encoder encoder) {
+        if (!Thread.currentThread().isVirtual() && reset(encoder)) {
+            POOL.set(encoder);
+        }
+    }
+
+    /**
+     * 清空编码器以便复用，缓冲区超过 {@link #MAX_POOLED_CAPACITY} 时返回 false，不应该再缓存它
+     */
+    public static boolean reset(Encoder encoder) {
+        if (encoder.buf.length > MAX_POOLED_CAPACITY) {
+            return false;
+        }
+        encoder.cpos = 0;
+        return true;
+    }
+
     public static byte[] encode(Consumer<Encoder> f) {
-        Encoder encoder = createEncoder();
-        f.accept(encoder);
-        return toUint8Array(encoder);
+        Encoder encoder = acquire();
+        try {
+            f.accept(encoder);
+            return toUint8Array(encoder);
+        } finally {
+            release(encoder);
+        }
     }
 
     public static int length(Encoder encoder) {
-        int len = encoder.cpos;
-        for (byte[] buf : encoder.bufs) {
-            len += buf.length;
-        }
-        return len;
+        return encoder.cpos;
     }
 
     public static boolean hasContent(Encoder encoder) {
-        return encoder.cpos > 0 || !encoder.bufs.isEmpty();
+        return encoder.cpos > 0;
     }
 
     public static byte[] toUint8Array(Encoder encoder) {
-        int totalLen = length(encoder);
-        byte[] result = new byte[totalLen];
-        int curPos = 0;
-
-        for (byte[] buf : encoder.bufs) {
-            System.arraycopy(buf, 0, result, curPos, buf.length);
-            curPos += buf.length;
-        }
-
-        byte[] currentBuf = new byte[encoder.cpos];
-        encoder.cbuf.position(0);
-        encoder.cbuf.get(currentBuf, 0, encoder.cpos);
-        System.arraycopy(currentBuf, 0, result, curPos, encoder.cpos);
+        return Arrays.copyOf(encoder.buf, encoder.cpos);
+    }
 
-        return result;
+    /**
+     * 写入的内容复制到 target
+     */
+    public static void writeTo(Encoder encoder, ByteBuffer target) {
+        target.put(encoder.buf, 0, encoder.cpos);
     }
 
-    private static void verifyLen(Encoder encoder, int len) {
-        int bufferLen = encoder.cbuf.capacity();
-        if (bufferLen - encoder.cpos < len) {
-            byte[] oldBuf = new byte[encoder.cpos];
-            encoder.cbuf.position(0);
-            encoder.cbuf.get(oldBuf);
-            encoder.bufs.add(oldBuf);
+    /**
+     * 不复制，直接包装写入的内容，编码器继续写入或放回池中后 buffer 失效
+     */
+    public static ByteBuffer asByteBuffer(Encoder encoder) {
+        return ByteBuffer.wrap(encoder.buf, 0, encoder.cpos).slice();
+    }
 
-            // 保持小端序
-            encoder.cbuf = ByteBuffer.allocate(Math.max(bufferLen, len) * 2)
-                    .order(ByteOrder.LITTLE_ENDIAN);
-            encoder.cpos = 0;
+    private static byte[] ensureCapacity(Encoder encoder, int len) {
+        byte[] buf = encoder.buf;
+        if (buf.length - encoder.cpos < len) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, encoder.cpos + len));
+            encoder.buf = buf;
         }
+        return buf;
     }
 
     public static void write(Encoder encoder, long num) {
-        int bufferLen = encoder.cbuf.capacity();
-        if (encoder.cpos == bufferLen) {
-            byte[] oldBuf = new byte[bufferLen];
-            encoder.cbuf.position(0);
-            encoder.cbuf.get(oldBuf);
-            encoder.bufs.add(oldBuf);
-
-            // 保持小端序
-            encoder.cbuf = ByteBuffer.allocate(bufferLen * 2).order(ByteOrder.LITTLE_ENDIAN);
-            encoder.cpos = 0;
+        byte[] buf = encoder.buf;
+        if (encoder.cpos == buf.length) {
+            buf = ensureCapacity(encoder, 1);
         }
-        encoder.cbuf.put(encoder.cpos++, (byte) num);
+        buf[encoder.cpos++] = (byte) num;
     }
 
     public static void set(Encoder encoder, int pos, int num) {
-        byte[] buffer = null;
-        int originalPos = pos;
-
-        for (byte[] b : encoder.bufs) {
-            if (pos < b.length) {
-                buffer = b;
-                break;
-            } else {
-                pos -= b.length;
-            }
-        }
-
-        if (buffer == null) {
-            encoder.cbuf.put(pos, (byte) num);
-        } else {
-            buffer[pos] = (byte) num;
-        }
+        encoder.buf[pos] = (byte) num;
     }
 
     public static void writeUint8(Encoder encoder, int num) {
@@ -125,8 +155,9 @@ public class Encoder {
     }
 
     public static void writeUint16(Encoder encoder, int num) {
-        write(encoder, num & BITS8);
-        write(encoder, (num >>> 8) & BITS8);
+        byte[] buf = ensureCapacity(encoder, 2);
+        buf[encoder.cpos++] = (byte) num;
+        buf[encoder.cpos++] = (byte) (num >>> 8);
     }
 
     public static void setUint16(Encoder encoder, int pos, int num) {
@@ -135,78 +166,169 @@ public class Encoder {
     }
 
     public static void writeUint32(Encoder encoder, long num) {
-        for (int i = 0; i < 4; i++) {
-            write(encoder, (int) (num & BITS8));
-            num >>>= 8;
-        }
+        byte[] buf = ensureCapacity(encoder, 4);
+        INT_LE.set(buf, encoder.cpos, (int) num);
+        encoder.cpos += 4;
     }
 
     public static void writeUint32BigEndian(Encoder encoder, long num) {
+        byte[] buf = ensureCapacity(encoder, 4);
         for (int i = 3; i >= 0; i--) {
-            write(encoder, (int) ((num >>> (8 * i)) & BITS8));
+            buf[encoder.cpos++] = (byte) (num >>> (8 * i));
         }
     }
 
     public static void setUint32(Encoder encoder, int pos, long num) {
-        for (int i = 0; i < 4; i++) {
-            set(encoder, pos + i, (int) (num & BITS8));
-            num >>>= 8;
-        }
+        INT_LE.set(encoder.buf, pos, (int) num);
     }
 
+    /**
+     * 一次检查容量，之后直接写数组，long 的 varint 最多 10 个字节。
+     * 一到两个字节的值（clock、长度、client 以外的大部分字段）不进入循环
+     */
     public static void writeVarUint(Encoder encoder, long num) {
+        byte[] buf = ensureCapacity(encoder, 10);
+        int pos = encoder.cpos;
+        if (num <= BITS7) {
+            // 负数和原来的实现一样只写低 7 位
+            buf[pos] = (byte) (BITS7 & num);
+            encoder.cpos = pos + 1;
+            return;
+        }
+        if (num <= BITS14) {
+            buf[pos] = (byte) (BIT8 | num);
+            buf[pos + 1] = (byte) (num >>> 7);
+            encoder.cpos = pos + 2;
+            return;
+        }
+        encoder.cpos = writeVarUintTail(buf, pos, num);
+    }
+
+    private static int writeVarUintTail(byte[] buf, int pos, long num) {
         while (num > BITS7) {
-            write(encoder, BIT8 | (int) (BITS7 & num));
-            num = num / 128;
+            buf[pos++] = (byte) (BIT8 | (BITS7 & num));
+            num >>>= 7;
         }
-        write(encoder, (int) (BITS7 & num));
+        buf[pos++] = (byte) num;
+        return pos;
     }
 
+    /**
+     * 第一个字节是继续位、符号位和 6 位数值，之后和 {@link #writeVarUint(Encoder, long)} 相同
+     */
     public static void writeVarInt(Encoder encoder, long num) {
         boolean isNegative = num < 0;
-        if (isNegative) {
-            num = -num;
+        writeVarInt(encoder, isNegative ? -num : num, isNegative);
+    }
+
+    /**
+     * 单独给出符号位，num 是绝对值。
+     * long 没有 -0，lib0 的 UintOptRle 用 -0 表示 0 的重复，需要通过这个方法写入
+     */
+    public static void writeVarInt(Encoder encoder, long num, boolean isNegative) {
+        byte[] buf = ensureCapacity(encoder, 10);
+        int pos = encoder.cpos;
+        int sign = isNegative ? BIT7 : 0;
+        if (num <= BITS6) {
+            // Long.MIN_VALUE 取反后仍是负数，和原来的实现一样只写一个字节
+            buf[pos] = (byte) (sign | (int) (BITS6 & num));
+            encoder.cpos = pos + 1;
+            return;
         }
+        buf[pos] = (byte) (BIT8 | sign | (int) (BITS6 & num));
+        encoder.cpos = writeVarUintTail(buf, pos + 1, num >>> 6);
+    }
 
-        write(encoder, (num > BITS6 ? BIT8 : 0) | (isNegative ? BIT7 : 0) | (int) (BITS6 & num));
-        num = num / 64;
+    /**
+     * UTF-8 直接编码到缓冲区，不经过 getBytes 的临时数组，先计算长度写入 varint，再写入内容。
+     * 不成对的代理字符和 {@link String#getBytes} 一样编码为 '?'
+     */
+    public static void writeVarString(Encoder encoder, String str) {
+        int len = str.length();
+        int utf8Len = utf8Length(str, 0, len);
+        writeVarUint(encoder, utf8Len);
+        writeUtf8(encoder, str, 0, len, utf8Len);
+    }
 
-        while (num > 0) {
-            write(encoder, (num > BITS7 ? BIT8 : 0) | (int) (BITS7 & num));
-            num = num / 128;
+    /**
+     * 把 str 中 [from, to) 的字符编码为 UTF-8 写入，不写长度。
+     * 范围末尾的高代理字符不会和范围之外的字符组成一对，编码为 '?'
+     */
+    public static void writeUtf8(Encoder encoder, String str, int from, int to) {
+        writeUtf8(encoder, str, from, to, utf8Length(str, from, to));
+    }
+
+    private static void writeUtf8(Encoder encoder, String str, int from, int to, int utf8Len) {
+        byte[] buf = ensureCapacity(encoder, utf8Len);
+        int pos = encoder.cpos;
+        // ASCII 前缀逐个复制，遇到其他字符再进入完整的编码
+        int i = from;
+        for (char c; i < to && (c = str.charAt(i)) < 0x80; i++) {
+            buf[pos++] = (byte) c;
         }
+        encoder.cpos = i == to ? pos : writeUtf8(buf, pos, str, i, to);
     }
 
-    public static void writeVarString(Encoder encoder, String str) {
-        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-        writeVarUint(encoder, bytes.length);
-        writeUint8Array(encoder, bytes);
+    private static int utf8Length(String str, int from, int to) {
+        int utf8Len = to - from;
+        for (int i = from; i < to; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                utf8Len += 1;
+            } else if (!Character.isSurrogate(c)) {
+                utf8Len += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(str.charAt(i + 1))) {
+                // 两个 char 共 4 个字节
+                utf8Len += 2;
+                i++;
+            }
+        }
+        return utf8Len;
     }
 
+    private static int writeUtf8(byte[] buf, int pos, String str, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[pos++] = '?';
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 追加另一个编码器写入的内容，不经过中间数组
+     */
     public static void writeBinaryEncoder(Encoder encoder, Encoder append) {
-        writeUint8Array(encoder, toUint8Array(append));
+        writeUint8Array(encoder, append.buf, 0, append.cpos);
     }
 
     public static void writeUint8Array(Encoder encoder, byte[] bytes) {
-        int bufferLen = encoder.cbuf.capacity();
-        int leftCopyLen = Math.min(bufferLen - encoder.cpos, bytes.length);
-        int rightCopyLen = bytes.length - leftCopyLen;
-
-        encoder.cbuf.position(encoder.cpos);
-        encoder.cbuf.put(bytes, 0, leftCopyLen);
-        encoder.cpos += leftCopyLen;
-
-        if (rightCopyLen > 0) {
-            byte[] oldBuf = new byte[bufferLen];
-            encoder.cbuf.position(0);
-            encoder.cbuf.get(oldBuf);
-            encoder.bufs.add(oldBuf);
-
-            encoder.cbuf = ByteBuffer.allocate(Math.max(bufferLen * 2, rightCopyLen))
-                    .order(ByteOrder.LITTLE_ENDIAN);
-            encoder.cbuf.put(bytes, leftCopyLen, rightCopyLen);
-            encoder.cpos = rightCopyLen;
-        }
+        writeUint8Array(encoder, bytes, 0, bytes.length);
+    }
+
+    public static void writeUint8Array(Encoder encoder, byte[] bytes, int offset, int len) {
+        byte[] buf = ensureCapacity(encoder, len);
+        System.arraycopy(bytes, offset, buf, encoder.cpos, len);
+        encoder.cpos += len;
     }
 
     public static void writeVarUint8Array(Encoder encoder, byte[] bytes) {
@@ -214,25 +336,22 @@ public class Encoder {
         writeUint8Array(encoder, bytes);
     }
 
-    // writeFloat32和writeFloat64方法会自动使用小端序
+    // writeFloat32和writeFloat64方法使用小端序
     public static void writeFloat32(Encoder encoder, float num) {
-        verifyLen(encoder, 4);
-        encoder.cbuf.position(encoder.cpos);
-        encoder.cbuf.putFloat(num);
+        byte[] buf = ensureCapacity(encoder, 4);
+        INT_LE.set(buf, encoder.cpos, Float.floatToRawIntBits(num));
         encoder.cpos += 4;
     }
 
     public static void writeFloat64(Encoder encoder, double num) {
-        verifyLen(encoder, 8);
-        encoder.cbuf.position(encoder.cpos);
-        encoder.cbuf.putDouble(num);
+        byte[] buf = ensureCapacity(encoder, 8);
+        LONG_LE.set(buf, encoder.cpos, Double.doubleToRawLongBits(num));
         encoder.cpos += 8;
     }
 
     public static void writeBigInt64(Encoder encoder, long num) {
-        verifyLen(encoder, 8);
-        encoder.cbuf.position(encoder.cpos);
-        encoder.cbuf.putLong(num);
+        byte[] buf = ensureCapacity(encoder, 8);
+        LONG_LE.set(buf, encoder.cpos, num);
         encoder.cpos += 8;
     }
 
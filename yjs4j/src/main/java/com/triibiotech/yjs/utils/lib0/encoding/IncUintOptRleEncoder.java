@@ -21,7 +21,8 @@ public class IncUintOptRleEncoder {
 
     private void flushUintOptRleEncoder() {
         if (count > 0) {
-            Encoder.writeVarInt(encoder, count == 1 ? s : -s);
+            // 重复的值写成负数，0 的重复是 -0
+            Encoder.writeVarInt(encoder, s, count > 1);
             if (count > 1) {
                 Encoder.writeVarUint(encoder, count - 2);
             }
@@ -32,4 +33,13 @@ public class IncUintOptRleEncoder {
         flushUintOptRleEncoder();
         return Encoder.toUint8Array(encoder);
     }
+
+    /**
+     * 和 writeVarUint8Array(target, toUint8Array()) 写入相同的内容，不经过中间数组
+     */
+    public void writeTo(Encoder target) {
+        flushUintOptRleEncoder();
+        Encoder.writeVarUint(target, Encoder.length(encoder));
+        Encoder.writeBinaryEncoder(target, encoder);
+    }
 }
@@ -36,4 +36,13 @@ public class IntDiffOptRleEncoder {
         flushIntDiffOptRleEncoder();
         return Encoder.toUint8Array(encoder);
     }
+
+    /**
+     * 和 writeVarUint8Array(target, toUint8Array()) 写入相同的内容，不经过中间数组
+     */
+    public void writeTo(Encoder target) {
+        flushIntDiffOptRleEncoder();
+        Encoder.writeVarUint(target, Encoder.length(encoder));
+        Encoder.writeBinaryEncoder(target, encoder);
+    }
 }
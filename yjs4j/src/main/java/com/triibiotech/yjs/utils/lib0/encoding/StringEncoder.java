@@ -1,32 +1,79 @@
 package com.triibiotech.yjs.utils.lib0.encoding;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
+ * V2 更新的字符串列：所有字符串拼接后的 UTF-8，后面是每个字符串的长度（UTF-16 单元数）。
+ * <p>
+ * 字符串写入时直接编码到一个缓冲区，不保留 String，输出时再在前面写入总长度。
+ * 一个字符串末尾的高代理字符会等到下一个字符串，和拼接后再编码的结果相同
+ *
  * @author zbs
  * @date 2025/7/29 14:12
  **/
 public class StringEncoder {
-    private List<String> sarr = new ArrayList<>();
-    private StringBuilder s = new StringBuilder();
-    private UintOptRleEncoder lensE = new UintOptRleEncoder();
+    private final Encoder bytes = new Encoder(256);
+    private final UintOptRleEncoder lensE = new UintOptRleEncoder();
+    /**
+     * 上一个字符串末尾还没有编码的高代理字符，没有时为 0
+     */
+    private char pendingHigh = 0;
 
     public void write(String string) {
-        s.append(string);
-        if (s.length() > 19) {
-            sarr.add(s.toString());
-            s = new StringBuilder();
+        int len = string.length();
+        lensE.write(len);
+        int from = 0;
+        if (pendingHigh != 0) {
+            if (len > 0 && Character.isLowSurrogate(string.charAt(0))) {
+                Encoder.writeUtf8(bytes, new String(new char[]{pendingHigh, string.charAt(0)}), 0, 2);
+                from = 1;
+            } else {
+                Encoder.write(bytes, '?');
+            }
+            pendingHigh = 0;
+        }
+        int to = len;
+        if (to > from && Character.isHighSurrogate(string.charAt(to - 1))) {
+            pendingHigh = string.charAt(--to);
+        }
+        Encoder.writeUtf8(bytes, string, from, to);
+    }
+
+    private void flush() {
+        if (pendingHigh != 0) {
+            Encoder.write(bytes, '?');
+            pendingHigh = 0;
         }
-        lensE.write(string.length());
+        lensE.flushUintOptRleEncoder();
     }
 
     public byte[] toUint8Array() {
-        Encoder encoder = new Encoder();
-        sarr.add(s.toString());
-        s = new StringBuilder();
-        Encoder.writeVarString(encoder, String.join("", sarr));
-        Encoder.writeUint8Array(encoder, lensE.toUint8Array());
+        flush();
+        Encoder encoder = new Encoder(Encoder.length(bytes) + Encoder.length(lensE.encoder) + 10);
+        writeContent(encoder);
         return Encoder.toUint8Array(encoder);
     }
+
+    /**
+     * 和 writeVarUint8Array(target, toUint8Array()) 写入相同的内容，总长度提前算出，不经过中间数组
+     */
+    public void writeTo(Encoder target) {
+        flush();
+        int strLen = Encoder.length(bytes);
+        Encoder.writeVarUint(target, varUintLength(strLen) + strLen + Encoder.length(lensE.encoder));
+        writeContent(target);
+    }
+
+    private void writeContent(Encoder encoder) {
+        Encoder.writeVarUint(encoder, Encoder.length(bytes));
+        Encoder.writeBinaryEncoder(encoder, bytes);
+        Encoder.writeBinaryEncoder(encoder, lensE.encoder);
+    }
+
+    private static int varUintLength(long num) {
+        int len = 1;
+        while (num > 127) {
+            num >>>= 7;
+            len++;
+        }
+        return len;
+    }
 }
@@ -0,0 +1,29 @@
+package com.triibiotech.yjs.utils.lib0.encoding;
+
+/**
+ * 值为 uint8 的 {@link RleEncoder}，run 的值保存为 int，写入时不装箱。
+ * 输出和 new RleEncoder&lt;&gt;(Encoder::writeUint8) 相同
+ *
+ * @author zbs
+ * @date 2026/10/19  00:12:06
+ **/
+public class Uint8RleEncoder extends Encoder {
+    /**
+     * -1 表示还没有写入
+     */
+    private int s = -1;
+    private int count = 0;
+
+    public void write(int v) {
+        if (s == v) {
+            count++;
+        } else {
+            if (count > 0) {
+                writeVarUint(this, count - 1);
+            }
+            count = 1;
+            writeUint8(this, v);
+            s = v;
+        }
+    }
+}
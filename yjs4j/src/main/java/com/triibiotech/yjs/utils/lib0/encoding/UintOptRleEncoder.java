@@ -5,7 +5,7 @@ package com.triibiotech.yjs.utils.lib0.encoding;
  * @date 2025/7/29 14:12
  **/
 public class UintOptRleEncoder {
-    private Encoder encoder = new Encoder();
+    final Encoder encoder = new Encoder();
     private long s = 0;
     private int count = 0;
 
@@ -19,9 +19,10 @@ public class UintOptRleEncoder {
         }
     }
 
-    private void flushUintOptRleEncoder() {
+    void flushUintOptRleEncoder() {
         if (count > 0) {
-            Encoder.writeVarInt(encoder, count == 1 ? s : -s);
+            // 重复的值写成负数，0 的重复是 -0
+            Encoder.writeVarInt(encoder, s, count > 1);
             if (count > 1) {
                 Encoder.writeVarUint(encoder, count - 2);
             }
@@ -32,4 +33,13 @@ public class UintOptRleEncoder {
         flushUintOptRleEncoder();
         return Encoder.toUint8Array(encoder);
     }
+
+    /**
+     * 和 writeVarUint8Array(target, toUint8Array()) 写入相同的内容，不经过中间数组
+     */
+    public void writeTo(Encoder target) {
+        flushUintOptRleEncoder();
+        Encoder.writeVarUint(target, Encoder.length(encoder));
+        Encoder.writeBinaryEncoder(target, encoder);
+    }
 }
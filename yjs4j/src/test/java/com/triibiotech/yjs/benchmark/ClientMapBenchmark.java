@@ -0,0 +1,104 @@
+package com.triibiotech.yjs.benchmark;
+
+import com.triibiotech.yjs.types.YText;
+import com.triibiotech.yjs.utils.DeleteSet;
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.UpdateEncoderV1;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以 client id 为键的集合（状态向量、DeleteSet）相关路径的分配基准测试
+ * <p>
+ * 关注每次操作的分配量（gc.alloc.rate.norm），运行方式：在 IDE 中直接运行 main 方法，已经带上 GC profiler
+ *
+ * @author zbs
+ * @date 2026/10/18  21:30:16
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientMapBenchmark {
+
+    /**
+     * 多个客户端编辑过的文档
+     */
+    @State(Scope.Thread)
+    public static class EditedState {
+        @Param({"8", "64"})
+        public int clients;
+
+        Doc doc;
+        YText text;
+        Random random;
+        byte[] stateVector;
+        Map<Long, Long> decodedStateVector;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            doc = new Doc();
+            random = new Random(42);
+            for (int c = 0; c < clients; c++) {
+                Doc peer = new Doc();
+                EncodingUtil.applyUpdate(peer, EncodingUtil.encodeStateAsUpdate(doc, null));
+                YText peerText = peer.getText("text");
+                for (int i = 0; i < 50; i++) {
+                    peerText.insert(random.nextLong(peerText.getLength() + 1), "ab");
+                }
+                peerText.delete(0, Math.min(20, peerText.getLength()));
+                EncodingUtil.applyUpdate(doc, EncodingUtil.encodeStateAsUpdate(peer, EncodingUtil.encodeStateVector(doc)));
+            }
+            text = doc.getText("text");
+            stateVector = EncodingUtil.encodeStateVector(doc);
+            decodedStateVector = EncodingUtil.decodeStateVector(stateVector);
+        }
+    }
+
+    /**
+     * 一次插入一次删除，两个事务
+     */
+    @Benchmark
+    public long editTransaction(EditedState state) {
+        YText text = state.text;
+        text.insert(state.random.nextLong(text.getLength() + 1), "x");
+        text.delete(state.random.nextLong(text.getLength()), 1);
+        return text.getLength();
+    }
+
+    @Benchmark
+    public Map<Long, Long> decodeStateVector(EditedState state) {
+        return EncodingUtil.decodeStateVector(state.stateVector);
+    }
+
+    /**
+     * 对方状态已是最新时回复 SyncStep1，只写删除集
+     */
+    @Benchmark
+    public byte[] diffUpToDate(EditedState state) {
+        return EncodingUtil.encodeStateAsUpdate(state.doc, state.stateVector);
+    }
+
+    @Benchmark
+    public byte[] deleteSetFromStore(EditedState state) {
+        UpdateEncoderV1 encoder = new UpdateEncoderV1();
+        DeleteSet.writeDeleteSet(encoder, DeleteSet.createDeleteSetFromStructStore(state.doc.getStore()));
+        return encoder.toUint8Array();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ClientMapBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
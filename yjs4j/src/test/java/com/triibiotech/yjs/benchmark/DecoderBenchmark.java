@@ -0,0 +1,126 @@
+package com.triibiotech.yjs.benchmark;
+
+import com.triibiotech.yjs.protocol.sync.SyncProtocol;
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * lib0 Decoder 的基准测试：varint 和字符串的读取，以及从收到的消息帧读取同步消息
+ * <p>
+ * 同步消息里的数据文档已经全部拥有，只剩下解码本身的开销，主要看每次操作的分配量（gc.alloc.rate.norm）
+ *
+ * @author zbs
+ * @date 2026/10/18  23:59:52
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+
+    Doc doc;
+    ByteBuffer frame;
+    ByteBuffer directFrame;
+    /**
+     * 256 个 varint 和 64 个字符串，分布和 EncoderBenchmark 相同
+     */
+    byte[] varUints;
+    byte[] varInts;
+    byte[] strings;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        doc = new Doc();
+        for (int i = 0; i < 2000; i++) {
+            doc.getText("text").insert(random.nextInt((int) doc.getText("text").getLength() + 1), "文档-" + i);
+        }
+        byte[] update = EncodingUtil.encodeStateAsUpdate(doc, null);
+        byte[] message = Encoder.encode(encoder -> {
+            Encoder.writeVarUint(encoder, SyncProtocol.MESSAGE_YJS_SYNC_STEP2);
+            Encoder.writeVarUint8Array(encoder, update);
+        });
+        frame = ByteBuffer.wrap(message);
+        directFrame = ByteBuffer.allocateDirect(message.length);
+        directFrame.put(message).flip();
+
+        Encoder uints = Encoder.createEncoder();
+        Encoder ints = Encoder.createEncoder();
+        for (int i = 0; i < 256; i++) {
+            long number = random.nextInt(4) == 0 ? random.nextLong() >>> random.nextInt(11, 64) : random.nextInt(200);
+            Encoder.writeVarUint(uints, number);
+            Encoder.writeVarInt(ints, i % 2 == 0 ? number : -number);
+        }
+        varUints = Encoder.toUint8Array(uints);
+        varInts = Encoder.toUint8Array(ints);
+        Encoder strs = Encoder.createEncoder();
+        for (int i = 0; i < 64; i++) {
+            Encoder.writeVarString(strs, i % 4 == 0 ? "协同编辑" + i : "key-" + i);
+        }
+        strings = Encoder.toUint8Array(strs);
+    }
+
+    @Benchmark
+    public long readVarUint() {
+        Decoder decoder = Decoder.createDecoder(varUints);
+        long sum = 0;
+        while (Decoder.hasContent(decoder)) {
+            sum += Decoder.readVarUint(decoder);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long readVarInt() {
+        Decoder decoder = Decoder.createDecoder(varInts);
+        long sum = 0;
+        while (Decoder.hasContent(decoder)) {
+            sum += Decoder.readVarInt(decoder);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int readVarString() {
+        Decoder decoder = Decoder.createDecoder(strings);
+        int len = 0;
+        while (Decoder.hasContent(decoder)) {
+            len += Decoder.readVarString(decoder).length();
+        }
+        return len;
+    }
+
+    @Benchmark
+    public int heapFrame() {
+        Encoder encoder = Encoder.createEncoder();
+        SyncProtocol.readSyncMessage(Decoder.createDecoder(frame), encoder, doc, null);
+        return Encoder.length(encoder);
+    }
+
+    @Benchmark
+    public int directFrame() {
+        Encoder encoder = Encoder.createEncoder();
+        SyncProtocol.readSyncMessage(Decoder.createDecoder(directFrame), encoder, doc, null);
+        return Encoder.length(encoder);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DecoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,131 @@
+package com.triibiotech.yjs.benchmark;
+
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * lib0 Encoder 的写入和输出基准测试
+ * <p>
+ * 同时关注耗时和每次操作的分配量（gc.alloc.rate.norm），运行方式：在 IDE 中直接运行 main 方法，已经带上 GC profiler
+ *
+ * @author zbs
+ * @date 2026/10/18  23:58:40
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+
+    @State(Scope.Thread)
+    public static class Values {
+        /**
+         * 1 到 9 个字节的 varint 混合，偏向小值，和 clock、长度的分布接近
+         */
+        long[] numbers = new long[256];
+        String[] strings = new String[64];
+        byte[] update = new byte[200];
+
+        @Setup
+        public void setup() {
+            Random random = new Random(42);
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = random.nextInt(4) == 0 ? random.nextLong() >>> random.nextInt(64) : random.nextInt(200);
+            }
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = i % 4 == 0 ? "协同编辑" + i : "key-" + i;
+            }
+            random.nextBytes(update);
+        }
+    }
+
+    /**
+     * 已经写满的编码器，只测输出
+     */
+    @State(Scope.Thread)
+    public static class Filled {
+        @Param({"64", "16384"})
+        public int size;
+
+        Encoder encoder;
+
+        @Setup
+        public void setup() {
+            encoder = Encoder.createEncoder();
+            for (int i = 0; i < size; i++) {
+                Encoder.writeUint8(encoder, i);
+            }
+        }
+    }
+
+    @Benchmark
+    public int writeVarUint(Values values) {
+        Encoder encoder = Encoder.createEncoder();
+        for (long number : values.numbers) {
+            Encoder.writeVarUint(encoder, number);
+        }
+        return Encoder.length(encoder);
+    }
+
+    @Benchmark
+    public int writeVarInt(Values values) {
+        Encoder encoder = Encoder.createEncoder();
+        for (int i = 0; i < values.numbers.length; i++) {
+            Encoder.writeVarInt(encoder, i % 2 == 0 ? values.numbers[i] >>> 11 : -(values.numbers[i] >>> 11));
+        }
+        return Encoder.length(encoder);
+    }
+
+    @Benchmark
+    public int writeVarString(Values values) {
+        Encoder encoder = Encoder.createEncoder();
+        for (String string : values.strings) {
+            Encoder.writeVarString(encoder, string);
+        }
+        return Encoder.length(encoder);
+    }
+
+    @Benchmark
+    public byte[] toUint8Array(Filled filled) {
+        return Encoder.toUint8Array(filled.encoder);
+    }
+
+    /**
+     * 一条 sync update 消息，每次新建编码器
+     */
+    @Benchmark
+    public byte[] messageFresh(Values values) {
+        Encoder encoder = Encoder.createEncoder();
+        Encoder.writeVarUint(encoder, 0);
+        Encoder.writeVarUint(encoder, 2);
+        Encoder.writeVarUint8Array(encoder, values.update);
+        return Encoder.toUint8Array(encoder);
+    }
+
+    /**
+     * 同样的消息，使用线程缓存的编码器
+     */
+    @Benchmark
+    public byte[] messagePooled(Values values) {
+        return Encoder.encode(encoder -> {
+            Encoder.writeVarUint(encoder, 0);
+            Encoder.writeVarUint(encoder, 2);
+            Encoder.writeVarUint8Array(encoder, values.update);
+        });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package com.triibiotech.yjs.benchmark;
+
+import com.triibiotech.yjs.structs.AbstractStruct;
+import com.triibiotech.yjs.structs.GC;
+import com.triibiotech.yjs.types.YText;
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.ID;
+import com.triibiotech.yjs.utils.StructList;
+import com.triibiotech.yjs.utils.StructStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StructStore 单客户端长历史基准测试
+ * <p>
+ * 对比 LinkedList 与 StructList 在 findIndexSS / 中间插入上的表现，以及随机位置输入文本（会不断拆分 Item）的整体耗时。
+ * 运行方式：在 IDE 中直接运行 main 方法
+ *
+ * @author zbs
+ * @date 2026/10/18  10:40:12
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructStoreBenchmark {
+
+    /**
+     * 单客户端长历史，每个 struct 长度为 1
+     */
+    @State(Scope.Thread)
+    public static class HistoryState {
+        @Param({"1000", "10000", "100000"})
+        public int historySize;
+
+        @Param({"linked", "chunked"})
+        public String storage;
+
+        List<AbstractStruct> structs;
+        long[] lookups;
+        int[] inserts;
+        int cursor;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            structs = "linked".equals(storage) ? new LinkedList<>() : new StructList();
+            for (int i = 0; i < historySize; i++) {
+                structs.add(new GC(ID.createId(1, i), 1));
+            }
+            Random random = new Random(42);
+            lookups = new long[1024];
+            inserts = new int[1024];
+            for (int i = 0; i < lookups.length; i++) {
+                lookups[i] = random.nextInt(historySize);
+                inserts[i] = random.nextInt(historySize);
+            }
+            cursor = 0;
+        }
+    }
+
+    @Benchmark
+    public int findIndexSS(HistoryState state) {
+        long clock = state.lookups[state.cursor++ & 1023];
+        return StructStore.findIndexSS(state.structs, clock);
+    }
+
+    @Benchmark
+    public void insertMiddle(HistoryState state, Blackhole bh) {
+        List<AbstractStruct> structs = state.structs;
+        int index = state.inserts[state.cursor++ & 1023];
+        // 模拟 Item 拆分：在原位置后插入右半部分，再移除以保持历史长度不变
+        structs.add(index + 1, structs.get(index));
+        bh.consume(structs.remove(index + 1));
+    }
+
+    /**
+     * 单客户端在随机位置输入，每次插入都会拆分已有 Item
+     */
+    @State(Scope.Thread)
+    public static class TypingState {
+        @Param({"2000", "20000"})
+        public int edits;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 5, batchSize = 1)
+    public long randomTyping(TypingState state) {
+        Doc doc = new Doc();
+        YText text = doc.getText("text");
+        Random random = new Random(7);
+        long length = 0;
+        for (int i = 0; i < state.edits; i++) {
+            text.insert(length == 0 ? 0 : random.nextLong(length + 1), "a");
+            length++;
+        }
+        return doc.getStore().getClientStructs(doc.getClientId()).size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(StructStoreBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,95 @@
+package com.triibiotech.yjs.benchmark;
+
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.UpdateEncoderV2;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * V1 和 V2 更新格式的编码、解码基准测试
+ * <p>
+ * 文档由多个客户端在随机位置输入文本、修改 map 得到，结构数量和持久化的文档接近。
+ * 运行方式：在 IDE 中直接运行 main 方法，已经带上 GC profiler
+ *
+ * @author zbs
+ * @date 2026/10/19  00:16:50
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UpdateV2Benchmark {
+
+    Doc doc;
+    byte[] updateV1;
+    byte[] updateV2;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        doc = new Doc();
+        Doc[] clients = new Doc[4];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Doc();
+        }
+        for (int i = 0; i < 4000; i++) {
+            Doc client = clients[random.nextInt(clients.length)];
+            if (i % 10 == 0) {
+                client.getMap("map").set("key-" + random.nextInt(50), "value-" + i);
+            } else {
+                client.getText("text").insert(random.nextInt((int) client.getText("text").getLength() + 1), "文本-" + i);
+            }
+            if (i % 100 == 0) {
+                // 偶尔同步，产生跨客户端的 origin
+                for (Doc other : clients) {
+                    EncodingUtil.applyUpdate(other, EncodingUtil.encodeStateAsUpdate(client, null));
+                }
+            }
+        }
+        for (Doc client : clients) {
+            EncodingUtil.applyUpdate(doc, EncodingUtil.encodeStateAsUpdate(client, null));
+        }
+        updateV1 = EncodingUtil.encodeStateAsUpdate(doc, null);
+        updateV2 = EncodingUtil.encodeStateAsUpdateV2(doc, null, new UpdateEncoderV2());
+    }
+
+    @Benchmark
+    public byte[] encodeV1() {
+        return EncodingUtil.encodeStateAsUpdate(doc, null);
+    }
+
+    @Benchmark
+    public byte[] encodeV2() {
+        return EncodingUtil.encodeStateAsUpdateV2(doc, null, new UpdateEncoderV2());
+    }
+
+    @Benchmark
+    public Doc applyV1() {
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdate(remote, updateV1);
+        return remote;
+    }
+
+    @Benchmark
+    public Doc applyV2() {
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdateV2(remote, updateV2);
+        return remote;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UpdateV2Benchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
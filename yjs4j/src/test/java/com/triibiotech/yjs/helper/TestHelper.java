@@ -122,7 +122,7 @@ public class TestHelper {
     private static void compareStructStores(StructStore ss1, StructStore ss2) {
         Assertions.assertEquals(ss1.getClients().size(), ss2.getClients().size());
         ss1.getClients().forEach((client, structs1) -> {
-            LinkedList<AbstractStruct> structs2 = ss2.getClients().get(client);
+            List<AbstractStruct> structs2 = ss2.getClients().get(client);
             Assertions.assertNotNull(structs2);
             Assertions.assertEquals(structs1.size(), structs2.size());
             for (int i = 0; i < structs1.size(); i++) {
@@ -7,6 +7,7 @@ import com.triibiotech.yjs.utils.Doc;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -172,4 +173,41 @@ public class AwarenessTest {
 
         awareness.destroy();
     }
+
+    @Test
+    void testEncodedStateCache() {
+        Doc doc1 = new Doc();
+        doc1.setClientId(0);
+        Doc doc2 = new Doc();
+        doc2.setClientId(1);
+        Awareness aw1 = new Awareness(doc1);
+        Awareness aw2 = new Awareness(doc2);
+
+        aw1.setLocalState(JSONObject.of("user", "a", "cursor", 1));
+        byte[] encoded = aw1.encodeState(0);
+        Assertions.assertSame(encoded, aw1.encodeState(0));
+        Assertions.assertEquals("{\"user\":\"a\",\"cursor\":1}", new String(encoded, StandardCharsets.UTF_8));
+
+        // received bytes are forwarded as they are
+        aw2.applyAwarenessUpdate(aw1.encodeAwarenessUpdate(List.of(0L), null), null);
+        Assertions.assertArrayEquals(encoded, aw2.encodeState(0));
+        Assertions.assertSame(aw2.encodeState(0), aw2.encodeState(0));
+        Assertions.assertArrayEquals(aw1.encodeAwarenessUpdate(List.of(0L), null), aw2.encodeAwarenessUpdate(List.of(0L), null));
+
+        // new clock, new encoding
+        aw1.setLocalState(JSONObject.of("user", "a", "cursor", 2));
+        Assertions.assertNotSame(encoded, aw1.encodeState(0));
+        Assertions.assertTrue(new String(aw1.encodeState(0), StandardCharsets.UTF_8).contains("\"cursor\":2"));
+
+        // modified in place
+        aw2.getStates().get(0L).put("cursor", 3);
+        aw2.invalidateState(0);
+        Assertions.assertTrue(new String(aw2.encodeState(0), StandardCharsets.UTF_8).contains("\"cursor\":3"));
+
+        aw2.removeAwarenessStates(List.of(0L), null);
+        Assertions.assertEquals("null", new String(aw2.encodeState(0), StandardCharsets.UTF_8));
+
+        aw1.destroy();
+        aw2.destroy();
+    }
 }
@@ -0,0 +1,74 @@
+package com.triibiotech.yjs.structs;
+
+import com.triibiotech.yjs.types.YText;
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Memory footprint of the structs, measured with JOL.
+ * The sizes assume compressed references and a 12 byte object header (64 bit JDK 21 defaults).
+ *
+ * @author zbs
+ * @date 2026/10/18  23:52:16
+ **/
+class ItemFootprintTest {
+
+    @BeforeAll
+    static void checkVm() {
+        assumeTrue(VM.current().sizeOfField("object") == 4 && VM.current().objectHeaderSize() == 12, "compressed oops layout only");
+    }
+
+    private static long instanceSize(Class<?> type) {
+        return ClassLayout.parseClass(type).instanceSize();
+    }
+
+    @Test
+    void testInstanceSizes() {
+        // redone lives in the StructStore, the doc only in ContentDoc
+        assertEquals(56, instanceSize(Item.class));
+        assertEquals(16, instanceSize(ContentString.class));
+        assertEquals(16, instanceSize(ContentAny.class));
+        assertEquals(16, instanceSize(ContentType.class));
+        assertEquals(24, instanceSize(ContentDeleted.class));
+    }
+
+    @Test
+    void testTextItemFootprint() {
+        Doc doc = new Doc();
+        int n = 1000;
+        // typing backwards, every character is its own item
+        for (int i = 0; i < n; i++) {
+            doc.getText("text").insert(0, "a");
+        }
+        // measure a loaded document, decoded items own their strings
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(doc, null));
+        YText text = remote.getText("text");
+        List<Object> owned = new ArrayList<>();
+        int items = 0;
+        for (Item item = text.getStart(); item != null; item = (Item) item.right) {
+            // origins point to the ids of the neighbours, they are counted once through the identity graph
+            owned.add(item.id);
+            if (item.rightOrigin != null) {
+                owned.add(item.rightOrigin);
+            }
+            owned.add(item.content);
+            items++;
+        }
+        assertEquals(n, items);
+        long total = GraphLayout.parseInstance(owned.toArray()).totalSize() + items * instanceSize(Item.class);
+        // Item 56 + ID 32 + ContentString 16 + String 24 + byte[] 24, was 168
+        assertTrue(total / items <= 152, "bytes per item: " + total / items);
+    }
+}
@@ -0,0 +1,123 @@
+package com.triibiotech.yjs.utils;
+
+import com.triibiotech.yjs.types.YText;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/18  13:52:10
+ **/
+class DocMailboxTest {
+
+    @Test
+    void testConcurrentEditsAreSerialized() throws Exception {
+        Doc doc = new Doc(new DocOptions().withMailbox(true));
+        YText text = doc.getText("text");
+        Set<Thread> observerThreads = ConcurrentHashMap.newKeySet();
+        doc.on("afterTransaction", new ObservableV2.Handler1<Transaction>() {
+            @Override
+            public void apply(Transaction transaction) {
+                assertTrue(doc.getMailbox().inMailbox());
+                observerThreads.add(Thread.currentThread());
+            }
+        });
+
+        int threads = 8;
+        int edits = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < edits; i++) {
+                    text.insert(0, "a");
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(threads * edits, doc.execute(text::getLength).get(30, TimeUnit.SECONDS));
+        assertFalse(observerThreads.isEmpty());
+
+        Doc copy = new Doc();
+        EncodingUtil.applyUpdate(copy, EncodingUtil.encodeStateAsUpdate(doc, null));
+        assertEquals(threads * edits, copy.getText("text").getLength());
+    }
+
+    @Test
+    void testNestedTransactRunsInline() throws Exception {
+        Doc doc = new Doc(new DocOptions().withMailbox(true));
+        YText text = doc.getText("text");
+        String result = doc.transactAsync(tr -> {
+            // 嵌套调用不能等待自身的 mailbox
+            doc.transact(nested -> {
+                text.insert(0, "nested");
+                return null;
+            });
+            return text.toString();
+        }, "origin").get(30, TimeUnit.SECONDS);
+        assertEquals("nested", result);
+    }
+
+    @Test
+    void testApplyUpdateAsync() throws Exception {
+        Doc source = new Doc();
+        source.getText("text").insert(0, "hello");
+        byte[] update = EncodingUtil.encodeStateAsUpdate(source, null);
+
+        Doc doc = new Doc(new DocOptions().withMailbox(true));
+        doc.applyUpdateAsync(update, null).get(30, TimeUnit.SECONDS);
+        assertEquals("hello", doc.execute(() -> doc.getText("text").toString()).get(30, TimeUnit.SECONDS));
+
+        CompletableFuture<Object> failed = doc.transactAsync(tr -> {
+            throw new IllegalStateException("boom");
+        }, null);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(30, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    void testWithoutMailboxRunsInline() {
+        Doc doc = new Doc();
+        assertNull(doc.getMailbox());
+        CompletableFuture<Long> length = doc.transactAsync(tr -> {
+            doc.getText("text").insert(0, "abc");
+            return doc.getText("text").getLength();
+        }, null);
+        assertTrue(length.isDone());
+        assertEquals(3L, length.join());
+    }
+
+    @Test
+    void testEncoderKeptAcrossDrains() throws Exception {
+        DocMailbox mailbox = new DocMailbox();
+        assertThrows(IllegalStateException.class, mailbox::acquireEncoder);
+        Encoder first = mailbox.submit(() -> {
+            Encoder encoder = mailbox.acquireEncoder();
+            Encoder.writeVarUint(encoder, 300);
+            // nested use gets its own encoder
+            assertNotSame(encoder, mailbox.acquireEncoder());
+            mailbox.releaseEncoder(encoder);
+            return encoder;
+        }).get(5, TimeUnit.SECONDS);
+        // the next drain runs on another virtual thread but gets the same encoder back
+        Encoder second = mailbox.submit(() -> {
+            Encoder encoder = mailbox.acquireEncoder();
+            mailbox.releaseEncoder(encoder);
+            return encoder;
+        }).get(5, TimeUnit.SECONDS);
+        assertSame(first, second);
+        assertFalse(Encoder.hasContent(second));
+    }
+}
@@ -350,4 +350,53 @@ class DocTest {
     //}
 
 
+    @Test
+    void testPlaceholderTypeConversion() {
+        Doc remote = new Doc();
+        remote.getText("text").insert(0, "hello world");
+        // 在获取类型之前应用更新，内容先集成到占位类型中
+        Doc doc = new Doc();
+        EncodingUtil.applyUpdate(doc, EncodingUtil.encodeStateAsUpdate(remote, null));
+        assertEquals("hello world", doc.getText("text").toString());
+        remote.getText("text").insert(0, ">");
+        EncodingUtil.applyUpdate(doc, EncodingUtil.encodeStateAsUpdate(remote, null));
+        assertEquals(">hello world", doc.getText("text").toString());
+    }
+
+    @Test
+    void testStructCount() {
+        Random random = new Random(7);
+        Doc doc = new Doc();
+        Doc remote = new Doc();
+        YText text = doc.getText("text");
+        for (int i = 0; i < 500; i++) {
+            // inserts in the middle split items, deletes split and merge them, remote edits add other clients
+            Doc target = random.nextBoolean() ? doc : remote;
+            YText t = target.getText("text");
+            int length = (int) t.getLength();
+            if (length > 4 && random.nextInt(3) == 0) {
+                int index = random.nextInt(length - 2);
+                t.delete(index, 1 + random.nextInt(2));
+            } else {
+                t.insert(random.nextInt(length + 1), "ab" + i);
+            }
+            if (random.nextInt(10) == 0) {
+                EncodingUtil.applyUpdate(doc, EncodingUtil.encodeStateAsUpdate(remote, EncodingUtil.encodeStateVector(doc)));
+                EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(doc, EncodingUtil.encodeStateVector(remote)));
+            }
+            assertEquals(countStructs(doc.store), doc.store.getStructCount());
+            assertEquals(countStructs(remote.store), remote.store.getStructCount());
+        }
+        assertTrue(text.getLength() > 0);
+        doc.store.clear();
+        assertEquals(0, doc.store.getStructCount());
+    }
+
+    private static long countStructs(StructStore store) {
+        long count = 0;
+        for (List<?> structs : store.getClients().values()) {
+            count += structs.size();
+        }
+        return count;
+    }
 }
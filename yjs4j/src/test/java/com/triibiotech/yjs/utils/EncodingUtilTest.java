@@ -3,7 +3,9 @@ package com.triibiotech.yjs.utils;
 import com.triibiotech.yjs.utils.encoding.EncodingUtil;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -80,4 +82,206 @@ public class EncodingUtilTest {
         assert state.get(ydoc.clientId) == 1;
         assert state.size() == 1;
     }
+
+    @Test
+    void testEncodeStateAsUpdateCached() {
+        Doc ydoc = new Doc();
+        ydoc.getText("text").insert(0, "hello world", null);
+        ydoc.getText("text").delete(0, 6);
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+        ydoc.getText("text").insert(5, "!", null);
+        byte[] remoteSv = EncodingUtil.encodeStateVector(remote);
+
+        byte[] full = EncodingUtil.encodeStateAsUpdateCached(ydoc, null);
+        assert Arrays.equals(full, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+        // served from the cache until the next transaction
+        assert full == EncodingUtil.encodeStateAsUpdateCached(ydoc, new byte[]{0});
+        byte[] diff = EncodingUtil.encodeStateAsUpdateCached(ydoc, remoteSv);
+        assert Arrays.equals(diff, EncodingUtil.encodeStateAsUpdate(ydoc, remoteSv));
+        assert ydoc.stateUpdateCache.getHits() >= 2;
+        EncodingUtil.applyUpdate(remote, diff);
+        assert "world!".equals(remote.getText("text").toString());
+
+        // deletes change the delete set but not the state vector
+        ydoc.getText("text").delete(0, 1);
+        byte[] afterDelete = EncodingUtil.encodeStateAsUpdateCached(ydoc, EncodingUtil.encodeStateVector(remote));
+        assert Arrays.equals(afterDelete, EncodingUtil.encodeStateAsUpdate(ydoc, EncodingUtil.encodeStateVector(remote)));
+        EncodingUtil.applyUpdate(remote, afterDelete);
+        assert "orld!".equals(remote.getText("text").toString());
+        assert full != EncodingUtil.encodeStateAsUpdateCached(ydoc, null);
+    }
+
+    @Test
+    void testDiffUpdate() {
+        Doc ydoc = new Doc();
+        ydoc.getText("text").insert(0, "abc", null);
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+        ydoc.getText("text").insert(3, "def", null);
+        ydoc.getText("text").delete(0, 1);
+
+        byte[] diff = UpdateProcessor.diffUpdate(EncodingUtil.encodeStateAsUpdate(ydoc, null), EncodingUtil.encodeStateVector(remote));
+        // V1 in, V1 out
+        EncodingUtil.applyUpdate(remote, diff);
+        assert "bcdef".equals(remote.getText("text").toString());
+    }
+
+    @Test
+    void testKnownUpdatesAreSkipped() {
+        Doc ydoc = new Doc();
+        ydoc.getText("text").insert(0, "h\uD83D\uDE00llo wörld", Map.of("bold", true));
+        ydoc.getText("text").format(0, 2, Map.of("italic", true));
+        ydoc.getMap("map").set("any", List.of(1, 2.5, "three", Map.of("four", 4), true));
+        ydoc.getArray("array").insert(0, 1, "two", new byte[]{3});
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+
+        List<byte[]> events = new ArrayList<>();
+        remote.on("update", (ObservableV2.Handler) args -> events.add((byte[]) args[0]));
+        long skippedUpdates = remote.store.getSkippedUpdates();
+        long version = remote.stateVersion;
+        // resending the full state does not start a transaction
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+        assert remote.store.getSkippedUpdates() == skippedUpdates + 1;
+        assert remote.stateVersion == version;
+        assert events.isEmpty();
+
+        // partially known: the known structs are skipped, the rest is integrated
+        ydoc.getText("text").insert(2, "new");
+        long skippedStructs = remote.store.getSkippedStructs();
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+        assert remote.store.getSkippedUpdates() == skippedUpdates + 1;
+        assert remote.store.getSkippedStructs() > skippedStructs;
+        assert events.size() == 1;
+        assert ydoc.getText("text").toString().equals(remote.getText("text").toString());
+
+        // new deletions of known structs are applied
+        ydoc.getText("text").delete(0, 3);
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+        assert events.size() == 2;
+        assert ydoc.getText("text").toString().equals(remote.getText("text").toString());
+        EncodingUtil.applyUpdate(remote, EncodingUtil.encodeStateAsUpdate(ydoc, null));
+        assert events.size() == 2;
+        assert remote.store.getSkippedUpdates() == skippedUpdates + 2;
+        assert ydoc.getMap("map").toJson().toString().equals(remote.getMap("map").toJson().toString());
+        assert ydoc.getArray("array").getLength() == remote.getArray("array").getLength();
+    }
+
+    /**
+     * Replace the only occurrence of {@code find} in the update
+     */
+    private static byte[] patch(byte[] update, byte[] find, byte[] with) {
+        int found = -1;
+        for (int i = 0; i + find.length <= update.length; i++) {
+            if (Arrays.equals(update, i, i + find.length, find, 0, find.length)) {
+                assert found == -1 : "ambiguous patch";
+                found = i;
+            }
+        }
+        assert found >= 0;
+        byte[] patched = update.clone();
+        System.arraycopy(with, 0, patched, found, with.length);
+        return patched;
+    }
+
+    /**
+     * The known prefix of an update is skipped without decoding, the following structs of the client must get the
+     * same clocks as with the regular decode
+     */
+    private static void assertSkipMatchesDecode(byte[] first, byte[] full) {
+        Doc fresh = new Doc();
+        EncodingUtil.applyUpdate(fresh, full);
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdate(remote, first);
+        EncodingUtil.applyUpdate(remote, full);
+        assert Arrays.equals(EncodingUtil.encodeStateVector(fresh), EncodingUtil.encodeStateVector(remote));
+        assert Arrays.equals(EncodingUtil.encodeStateAsUpdate(fresh, null), EncodingUtil.encodeStateAsUpdate(remote, null));
+        assert !remote.store.hasPending();
+    }
+
+    @Test
+    void testKnownUpdatesWithIrregularContent() {
+        Doc ydoc = new Doc();
+        ydoc.setClientId(1);
+        ydoc.getText("text").insert(0, "abcd");
+        byte[] first = EncodingUtil.encodeStateAsUpdate(ydoc, null);
+        ydoc.getText("text").insert(0, "X");
+        byte[] full = EncodingUtil.encodeStateAsUpdate(ydoc, null);
+        byte[] abcd = "abcd".getBytes(StandardCharsets.UTF_8);
+        // a lone continuation byte and a four byte lead without continuation, both decode to U+FFFD
+        for (byte[] malformed : List.of(new byte[]{(byte) 0x80, 'b', 'c', 'd'}, new byte[]{(byte) 0xF0, 'A', 'c', 'd'})) {
+            byte[] malformedFirst = patch(first, abcd, malformed);
+            byte[] malformedFull = patch(full, abcd, malformed);
+            assertSkipMatchesDecode(malformedFirst, malformedFull);
+            Doc remote = new Doc();
+            EncodingUtil.applyUpdate(remote, malformedFull);
+            assert remote.getText("text").toString().equals("X\uFFFD" + new String(malformed, 1, 3, StandardCharsets.UTF_8));
+            // irregular content is never dropped as known, the regular path applies nothing new
+            EncodingUtil.applyUpdate(remote, malformedFull);
+            assert remote.store.getSkippedUpdates() == 0;
+        }
+
+        // an unknown any type decodes as undefined
+        Doc array = new Doc();
+        array.setClientId(1);
+        array.getArray("array").insert(0, true);
+        first = EncodingUtil.encodeStateAsUpdate(array, null);
+        array.getArray("array").insert(0, 2);
+        full = EncodingUtil.encodeStateAsUpdate(array, null);
+        // the end of the parent name "array", one any value, true
+        byte[] anyTrue = {'y', 1, 120};
+        byte[] anyUnknown = {'y', 1, 100};
+        assertSkipMatchesDecode(patch(first, anyTrue, anyUnknown), patch(full, anyTrue, anyUnknown));
+    }
+
+    @Test
+    void testStateVectorSnapshot() {
+        Doc ydoc = new Doc();
+        Doc remote = new Doc();
+        remote.getText("text").insert(0, "remote");
+        EncodingUtil.applyUpdate(ydoc, EncodingUtil.encodeStateAsUpdate(remote, null));
+        StateVector sv = ydoc.store.getStateVector();
+        // shared until the store changes
+        assert sv == ydoc.store.getStateVector();
+        assert sv.encodeV1() == ydoc.store.getStateVector().encodeV1();
+        // the public encoding is a copy, changing it does not touch the cache
+        byte[] encoded = EncodingUtil.encodeStateVector(ydoc);
+        assert encoded != EncodingUtil.encodeStateVector(ydoc);
+        Arrays.fill(encoded, (byte) 0);
+        assert Arrays.equals(sv.encodeV1(), EncodingUtil.encodeStateVector(ydoc));
+        ydoc.getMap("map").set("key", "value");
+        StateVector after = ydoc.store.getStateVector();
+        assert sv != after;
+        assert sv.size() == 1 && after.size() == 2;
+        assert after.getClock(ydoc.clientId) == 1 && after.get(remote.clientId) == 6;
+        assert after.get(12345L) == null && after.getClock(12345L) == 0;
+
+        Map<Long, Long> expected = Map.of(ydoc.clientId, 1L, remote.clientId, 6L);
+        assert after.equals(expected);
+        assert EncodingUtil.decodeStateVector(EncodingUtil.encodeStateVector(ydoc)).equals(expected);
+        assert Arrays.equals(EncodingUtil.encodeStateVector(ydoc), EncodingUtil.encodeStateVector(expected));
+        assert Arrays.equals(after.encodeV2(), EncodingUtil.encodeStateVectorV2(expected, null));
+        try {
+            after.put(1L, 1L);
+            assert false;
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    void testUpdateV2WithClientZero() {
+        // runs of client 0 in the client column are written as -0
+        Doc doc = new Doc();
+        doc.setClientId(0);
+        doc.getText("text").insert(0, "abc");
+        doc.getText("text").insert(1, "x");
+        doc.getMap("map").set("a", "1");
+        doc.getMap("map").set("b", "2");
+        byte[] update = EncodingUtil.encodeStateAsUpdateV2(doc, null, new UpdateEncoderV2());
+        Doc remote = new Doc();
+        EncodingUtil.applyUpdateV2(remote, update);
+        assert remote.getText("text").toString().equals("axbc");
+        assert remote.getMap("map").toJson().equals(doc.getMap("map").toJson());
+    }
 }
@@ -0,0 +1,103 @@
+package com.triibiotech.yjs.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/18  16:31:44
+ **/
+class HashedWheelTimerTest {
+
+    @Test
+    void testScheduleOnce() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            long start = System.nanoTime();
+            HashedWheelTimer.Timeout timeout = timer.schedule(latch::countDown, 200, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+            // 200ms spans more than one round of an 8 * 10ms wheel
+            assertTrue(timeout.isExpired());
+            assertFalse(timeout.cancel());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+        try {
+            AtomicInteger runs = new AtomicInteger();
+            HashedWheelTimer.Timeout timeout = timer.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+            assertTrue(timeout.cancel());
+            assertTrue(timeout.isCancelled());
+            Thread.sleep(200);
+            assertEquals(0, runs.get());
+            assertEquals(0, timer.pendingTimeouts());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    void testFixedRate() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+        try {
+            CountDownLatch latch = new CountDownLatch(5);
+            HashedWheelTimer.Timeout timeout = timer.scheduleAtFixedRate(latch::countDown, 20, 20, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(timeout.cancel());
+            Thread.sleep(50);
+            assertEquals(0, timer.pendingTimeouts());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    void testManyTimeoutsOnOneThread() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 64);
+        try {
+            int count = 10000;
+            CountDownLatch latch = new CountDownLatch(count);
+            List<HashedWheelTimer.Timeout> cancelled = new ArrayList<>();
+            AtomicInteger cancelledRuns = new AtomicInteger();
+            for (int i = 0; i < count; i++) {
+                timer.schedule(latch::countDown, i % 500, TimeUnit.MILLISECONDS);
+                cancelled.add(timer.schedule(cancelledRuns::incrementAndGet, 100 + i % 500, TimeUnit.MILLISECONDS));
+            }
+            cancelled.forEach(HashedWheelTimer.Timeout::cancel);
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Thread.sleep(700);
+            assertEquals(0, cancelledRuns.get());
+            assertEquals(0, timer.pendingTimeouts());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    void testTaskErrorDoesNotStopTimer() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            timer.schedule(() -> {
+                throw new IllegalStateException("expected");
+            }, 10, TimeUnit.MILLISECONDS);
+            timer.schedule(latch::countDown, 50, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            timer.stop();
+        }
+    }
+}
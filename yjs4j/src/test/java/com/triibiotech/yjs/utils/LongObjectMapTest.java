@@ -0,0 +1,68 @@
+package com.triibiotech.yjs.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/18  22:31:47
+ **/
+public class LongObjectMapTest {
+
+    @Test
+    void testRandomOperationsMatchHashMap() {
+        Random random = new Random(1);
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        LongLongMap longMap = new LongLongMap();
+        Map<Long, Long> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            // few keys so that removed keys are added again, some of them collide
+            long key = random.nextInt(200) * 1024L;
+            int op = random.nextInt(10);
+            if (op < 6) {
+                long value = random.nextLong();
+                assert Objects.equals(map.put(key, (Long) value), expected.put(key, value));
+                longMap.put(key, value);
+            } else if (op < 9) {
+                boolean present = expected.containsKey(key);
+                assert Objects.equals(map.remove(key), expected.remove(key));
+                assert longMap.remove(key) == present;
+            } else {
+                assert Objects.equals(map.get(key), expected.get(key));
+                assert longMap.get(key, -1) == expected.getOrDefault(key, -1L);
+            }
+        }
+        assert map.size() == expected.size();
+        assert longMap.size() == expected.size();
+        // insertion order is kept
+        assert new ArrayList<>(map.keySet()).equals(new ArrayList<>(expected.keySet()));
+        assert map.equals(expected);
+        assert longMap.equals(expected);
+        long[] sorted = expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        assert Arrays.equals(map.sortedKeys(), sorted);
+    }
+
+    @Test
+    void testIteratorRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        LongLongMap longMap = new LongLongMap();
+        for (long i = 0; i < 100; i++) {
+            map.put(i, String.valueOf(i));
+            longMap.put(i, i);
+        }
+        map.entrySet().removeIf(entry -> entry.getKey() % 2 == 0);
+        longMap.entrySet().removeIf(entry -> entry.getKey() % 2 == 0);
+        assert map.size() == 50 && longMap.size() == 50;
+        for (long i = 0; i < 100; i++) {
+            assert map.containsKey(i) == (i % 2 == 1);
+            assert longMap.get(i, -1) == (i % 2 == 1 ? i : -1);
+        }
+        try {
+            map.forEachEntry((key, value) -> map.put(key + 1000, value));
+            assert false;
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+    }
+}
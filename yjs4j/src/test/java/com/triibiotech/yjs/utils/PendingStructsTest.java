@@ -0,0 +1,92 @@
+package com.triibiotech.yjs.utils;
+
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/18  20:48:10
+ */
+class PendingStructsTest {
+
+    private static List<byte[]> recordUpdates(Doc doc) {
+        List<byte[]> updates = new ArrayList<>();
+        doc.on("update", (ObservableV2.Handler) args -> updates.add((byte[]) args[0]));
+        return updates;
+    }
+
+    @Test
+    void testOutOfOrderUpdates() {
+        Doc doc1 = new Doc();
+        Doc doc2 = new Doc();
+        List<byte[]> updates = recordUpdates(doc1);
+        recordUpdates(doc2);
+        for (int i = 0; i < 50; i++) {
+            doc1.getText("text").insert(i, String.valueOf(i % 10));
+        }
+        // a second client that builds on the first one
+        EncodingUtil.applyUpdate(doc2, EncodingUtil.encodeStateAsUpdate(doc1, null));
+        List<byte[]> updates2 = recordUpdates(doc2);
+        doc2.getText("text").insert(10, "remote");
+        doc2.getText("text").delete(0, 5);
+        doc1.getText("text").delete(40, 5);
+
+        Doc target = new Doc();
+        // deletions and structs of the second client wait for the first client
+        updates2.forEach(update -> EncodingUtil.applyUpdate(target, update));
+        assertTrue(target.store.getPendingStructCount() > 0);
+        assertNotNull(target.store.pendingDs);
+        assertTrue(target.store.pendingStructs.getMissing().containsKey(doc1.clientId));
+        List<byte[]> reversed = new ArrayList<>(updates);
+        Collections.reverse(reversed);
+        for (byte[] update : reversed.subList(0, reversed.size() - 1)) {
+            EncodingUtil.applyUpdate(target, update);
+        }
+        assertEquals("", target.getText("text").toString());
+        assertEquals(50, target.store.getPendingStructCount());
+        assertTrue(target.store.getPendingAgeNanos() > 0);
+
+        // pending content is part of the encoded state
+        Doc copy = new Doc();
+        EncodingUtil.applyUpdate(copy, EncodingUtil.encodeStateAsUpdate(target, null));
+        assertEquals(target.store.getPendingStructCount(), copy.store.getPendingStructCount());
+
+        // the first update unblocks everything
+        EncodingUtil.applyUpdate(target, reversed.getLast());
+        EncodingUtil.applyUpdate(copy, reversed.getLast());
+        for (Doc doc : List.of(target, copy)) {
+            assertEquals(doc1.getText("text").toString().length() + "remote".length() - 5, doc.getText("text").toString().length());
+            assertNull(doc.store.pendingStructs);
+            assertNull(doc.store.pendingDs);
+        }
+        EncodingUtil.applyUpdate(doc1, EncodingUtil.encodeStateAsUpdate(doc2, EncodingUtil.encodeStateVector(doc1)));
+        assertEquals(doc1.getText("text").toString(), target.getText("text").toString());
+    }
+
+    @Test
+    void testMaxPendingStructs() {
+        Doc doc1 = new Doc();
+        List<byte[]> updates = recordUpdates(doc1);
+        for (int i = 0; i < 20; i++) {
+            doc1.getText("text").insert(i, "a");
+        }
+        Doc target = new Doc(new DocOptions().withMaxPendingStructs(10));
+        for (int i = updates.size() - 1; i > 0; i--) {
+            EncodingUtil.applyUpdate(target, updates.get(i));
+        }
+        assertTrue(target.store.getPendingStructCount() <= 10);
+        assertTrue(target.store.getDroppedPendingStructs() > 0);
+
+        // dropped structs are not in the state vector, a resync restores them
+        EncodingUtil.applyUpdate(target, updates.getFirst());
+        EncodingUtil.applyUpdate(target, EncodingUtil.encodeStateAsUpdate(doc1, EncodingUtil.encodeStateVector(target)));
+        assertEquals(doc1.getText("text").toString(), target.getText("text").toString());
+        assertNull(target.store.pendingStructs);
+    }
+}
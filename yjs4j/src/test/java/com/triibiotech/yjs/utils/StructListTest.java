@@ -0,0 +1,63 @@
+package com.triibiotech.yjs.utils;
+
+import com.triibiotech.yjs.structs.AbstractStruct;
+import com.triibiotech.yjs.structs.GC;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author zbs
+ * @date 2026/10/18  11:02:31
+ **/
+public class StructListTest {
+
+    @Test
+    void testRandomOperationsMatchArrayList() {
+        Random random = new Random(1);
+        StructList structs = new StructList();
+        List<AbstractStruct> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            GC gc = new GC(ID.createId(1, i), 1);
+            int op = random.nextInt(10);
+            if (op < 5 || expected.isEmpty()) {
+                structs.add(gc);
+                expected.add(gc);
+            } else if (op < 8) {
+                int index = random.nextInt(expected.size() + 1);
+                structs.add(index, gc);
+                expected.add(index, gc);
+            } else if (op < 9) {
+                int index = random.nextInt(expected.size());
+                assert structs.remove(index) == expected.remove(index);
+            } else {
+                int index = random.nextInt(expected.size());
+                assert structs.set(index, gc) == expected.set(index, gc);
+            }
+        }
+        assert structs.size() == expected.size();
+        for (int i = 0; i < expected.size(); i++) {
+            assert structs.get(i) == expected.get(i);
+        }
+        assert structs.equals(expected);
+        assert structs.getFirst() == expected.getFirst();
+        assert structs.getLast() == expected.getLast();
+    }
+
+    @Test
+    void testFindIndexSS() {
+        StructList structs = new StructList();
+        long clock = 0;
+        for (int i = 0; i < 5000; i++) {
+            structs.add(new GC(ID.createId(1, clock), i % 3 + 1));
+            clock += i % 3 + 1;
+        }
+        for (int i = 0; i < structs.size(); i++) {
+            AbstractStruct struct = structs.get(i);
+            assert StructStore.findIndexSS(structs, struct.getId().getClock()) == i;
+            assert StructStore.findIndexSS(structs, struct.getId().getClock() + struct.getLength() - 1) == i;
+        }
+    }
+}
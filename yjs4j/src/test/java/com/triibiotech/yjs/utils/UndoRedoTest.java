@@ -1,10 +1,13 @@
 package com.triibiotech.yjs.utils;
 
+import com.triibiotech.yjs.structs.ContentString;
+import com.triibiotech.yjs.structs.Item;
 import com.triibiotech.yjs.types.YArray;
 import com.triibiotech.yjs.types.YText;
 import com.triibiotech.yjs.types.YXmlText;
 import com.triibiotech.yjs.utils.encoding.EncodingUtil;
 import com.triibiotech.yjs.utils.event.EventOperator;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -111,10 +114,13 @@ public class UndoRedoTest {
         options.setTrackedOrigins(trackedOrigins);
         UndoManager um = new UndoManager(typeScope, options);
 
-        byte[] beforePendingDs = ydoc.store.pendingDs;
+        DeleteSet beforePendingDs = ydoc.store.pendingDs;
         byte[] beforePendingStructs = null;
         if(ydoc.store.pendingStructs != null) {
-            beforePendingStructs = ydoc.store.pendingStructs.update;
+            UpdateEncoderV2 encoder = new UpdateEncoderV2();
+            ydoc.store.pendingStructs.writeStructs(encoder, new HashMap<>());
+            Encoder.writeVarUint(encoder.getRestEncoder(), 0);
+            beforePendingStructs = encoder.toUint8Array();
         }
         try {
             EncodingUtil.applyUpdate(ydoc, update, "remote change");
@@ -155,6 +161,32 @@ public class UndoRedoTest {
         Assertions.assertEquals("12321", text.toString());
     }
 
+    @Test
+    @SuppressWarnings("deprecation")
+    void testRedoneAccessors() {
+        Doc ydoc = new Doc();
+        YText text = ydoc.getText("");
+        UndoManager um = new UndoManager(text, new UndoManagerOptions());
+        text.insert(0, "abc");
+        um.undo();
+        um.redo();
+        Assertions.assertEquals("abc", text.toString());
+        // the undone item stays in the list and points to the item that redid it
+        Item undone = text.getStart();
+        while (undone != null && !undone.isRedone()) {
+            undone = (Item) undone.right;
+        }
+        Assertions.assertNotNull(undone);
+        Assertions.assertTrue(undone.isDeleted());
+        Assertions.assertNotNull(undone.getRedone(ydoc.getStore()));
+        Assertions.assertEquals(undone.getRedone(ydoc.getStore()), undone.getRedone());
+
+        // not integrated, the parent is still an id
+        Item detached = new Item(ID.createId(1, 0), null, null, null, null, ID.createId(2, 0), null, new ContentString("x"));
+        Assertions.assertNull(detached.getRedone());
+        Assertions.assertThrows(IllegalStateException.class, () -> detached.setRedone(ID.createId(3, 0)));
+    }
+
     @Test
     void testUndoMap() {
 
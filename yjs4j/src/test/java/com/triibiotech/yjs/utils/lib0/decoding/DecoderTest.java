@@ -0,0 +1,108 @@
+package com.triibiotech.yjs.utils.lib0.decoding;
+
+import com.triibiotech.yjs.utils.Doc;
+import com.triibiotech.yjs.utils.UpdateEncoderV2;
+import com.triibiotech.yjs.utils.encoding.EncodingUtil;
+import com.triibiotech.yjs.utils.lib0.encoding.Encoder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/18  23:59:47
+ **/
+class DecoderTest {
+
+    private static byte[] message() {
+        Encoder encoder = Encoder.createEncoder();
+        Encoder.writeVarUint(encoder, 300);
+        Encoder.writeVarString(encoder, "文档");
+        Encoder.writeVarUint8Array(encoder, Encoder.encode(inner -> {
+            Encoder.writeVarUint(inner, 7);
+            Encoder.writeVarString(inner, "nested");
+        }));
+        Encoder.writeUint8(encoder, 9);
+        return Encoder.toUint8Array(encoder);
+    }
+
+    private static void readMessage(Decoder decoder) {
+        assertEquals(300, Decoder.readVarUint(decoder));
+        assertEquals("文档", Decoder.readVarString(decoder));
+        Decoder nested = Decoder.readVarUint8ArrayView(decoder);
+        // the view shares the array of the message
+        assertSame(decoder.getArr(), nested.getArr());
+        assertEquals(7, Decoder.readVarUint(nested));
+        assertEquals("nested", Decoder.readVarString(nested));
+        assertFalse(Decoder.hasContent(nested));
+        assertThrows(RuntimeException.class, () -> Decoder.readUint8(nested));
+        assertEquals(9, Decoder.readUint8(decoder));
+        assertFalse(Decoder.hasContent(decoder));
+    }
+
+    @Test
+    void testViews() {
+        byte[] message = message();
+        // the message in the middle of a larger frame
+        byte[] frame = new byte[message.length + 8];
+        System.arraycopy(message, 0, frame, 3, message.length);
+        frame[message.length + 3] = (byte) 0x80;
+
+        readMessage(Decoder.createDecoder(message));
+        readMessage(new Decoder(frame, 3, message.length));
+
+        ByteBuffer heap = ByteBuffer.wrap(frame, 1, message.length + 2).slice();
+        heap.position(2);
+        heap.limit(2 + message.length);
+        readMessage(Decoder.createDecoder(heap));
+        assertEquals(2, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+        direct.put(message).flip();
+        readMessage(Decoder.createDecoder(direct));
+        assertEquals(0, direct.position());
+        readMessage(Decoder.createDecoder(ByteBuffer.wrap(message).asReadOnlyBuffer()));
+    }
+
+    @Test
+    void testReadsStopAtEnd() {
+        byte[] frame = {(byte) 0x80, (byte) 0x80, 1, 2, 3, 4};
+        // a varint running over the end of the view must not read the bytes after it
+        assertThrows(RuntimeException.class, () -> Decoder.readVarUint(new Decoder(frame, 0, 2)));
+        assertThrows(RuntimeException.class, () -> Decoder.readUint32(new Decoder(frame, 2, 3)));
+        assertThrows(RuntimeException.class, () -> Decoder.readVarString(new Decoder(new byte[]{5, 'a', 'b'}, 0, 3)));
+        assertArrayEquals(new byte[]{2, 3}, Decoder.readTailAsUint8Array(new Decoder(frame, 3, 2)));
+        assertThrows(IndexOutOfBoundsException.class, () -> new Decoder(frame, 4, 3));
+    }
+
+    @Test
+    void testApplyUpdateFromView() {
+        Doc doc = new Doc();
+        doc.getText("text").insert(0, "hello");
+        doc.getMap("map").set("key", "value");
+        byte[] update = EncodingUtil.encodeStateAsUpdateV2(doc, null, new UpdateEncoderV2());
+        byte[] frame = Encoder.encode(encoder -> {
+            Encoder.writeVarUint(encoder, 0);
+            Encoder.writeVarUint8Array(encoder, update);
+            Encoder.writeVarUint(encoder, 1);
+        });
+
+        Decoder decoder = Decoder.createDecoder(frame);
+        Decoder.readVarUint(decoder);
+        Doc remote = new Doc();
+        EncodingUtil.readUpdateV2(Decoder.readVarUint8ArrayView(decoder), remote, null, null);
+        assertEquals("hello", remote.getText("text").toString());
+        assertEquals("value", remote.getMap("map").get("key"));
+        // the update did not read past its own bytes
+        assertEquals(1, Decoder.readVarUint(decoder));
+
+        Doc direct = new Doc();
+        byte[] updateV1 = EncodingUtil.encodeStateAsUpdate(doc, null);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(updateV1.length);
+        buffer.put(updateV1).flip();
+        EncodingUtil.applyUpdate(direct, buffer, null);
+        assertEquals("hello", direct.getText("text").toString());
+    }
+}
@@ -0,0 +1,185 @@
+package com.triibiotech.yjs.utils.lib0.encoding;
+
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/18  23:59:31
+ **/
+class EncoderTest {
+
+    @Test
+    void testRoundTripAcrossGrowth() {
+        Random random = new Random(3);
+        // starts small, so the values cross many growths of the buffer
+        Encoder encoder = new Encoder(16);
+        long[] values = new long[5000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong(1L << random.nextInt(1, 53));
+            switch (i % 6) {
+                case 0 -> Encoder.writeVarUint(encoder, values[i]);
+                case 1 -> Encoder.writeVarInt(encoder, i % 12 == 1 ? -values[i] : values[i]);
+                case 2 -> Encoder.writeVarString(encoder, "文档-" + values[i]);
+                case 3 -> Encoder.writeFloat64(encoder, values[i] / 3.0);
+                case 4 -> Encoder.writeUint32(encoder, values[i] & 0xFFFFFFFFL);
+                default -> Encoder.writeVarUint8Array(encoder, new byte[(int) (values[i] % 300)]);
+            }
+        }
+        Decoder decoder = Decoder.createDecoder(Encoder.toUint8Array(encoder));
+        for (int i = 0; i < values.length; i++) {
+            switch (i % 6) {
+                case 0 -> assertEquals(values[i], Decoder.readVarUint(decoder));
+                case 1 -> assertEquals(i % 12 == 1 ? -values[i] : values[i], Decoder.readVarInt(decoder));
+                case 2 -> assertEquals("文档-" + values[i], Decoder.readVarString(decoder));
+                case 3 -> assertEquals(values[i] / 3.0, Decoder.readFloat64(decoder));
+                case 4 -> assertEquals(values[i] & 0xFFFFFFFFL, Decoder.readUint32(decoder));
+                default -> assertEquals(values[i] % 300, Decoder.readVarUint8Array(decoder).length);
+            }
+        }
+        assertFalse(Decoder.hasContent(decoder));
+    }
+
+    @Test
+    void testOutputWithoutCopy() {
+        Encoder encoder = Encoder.createEncoder();
+        Encoder.writeVarString(encoder, "hello");
+        Encoder.writeUint16(encoder, 0xABCD);
+        Encoder.setUint8(encoder, 1, 'j');
+        byte[] bytes = Encoder.toUint8Array(encoder);
+        assertEquals((byte) 'j', bytes[1]);
+
+        ByteBuffer view = Encoder.asByteBuffer(encoder);
+        assertEquals(ByteBuffer.wrap(bytes), view);
+        ByteBuffer target = ByteBuffer.allocate(bytes.length + 2);
+        target.put((byte) 1);
+        Encoder.writeTo(encoder, target);
+        assertArrayEquals(bytes, Arrays.copyOfRange(target.array(), 1, bytes.length + 1));
+
+        Encoder outer = Encoder.createEncoder();
+        Encoder.writeUint8(outer, 7);
+        Encoder.writeBinaryEncoder(outer, encoder);
+        assertEquals(bytes.length + 1, Encoder.length(outer));
+    }
+
+    @Test
+    void testPool() {
+        Encoder encoder = Encoder.acquire();
+        Encoder.writeVarUint(encoder, 300);
+        // nested use gets its own encoder
+        Encoder nested = Encoder.acquire();
+        assertNotSame(encoder, nested);
+        Encoder.release(nested);
+        Encoder.release(encoder);
+
+        Encoder reused = Encoder.acquire();
+        assertSame(encoder, reused);
+        assertFalse(Encoder.hasContent(reused));
+        Encoder.release(reused);
+
+        assertArrayEquals(new byte[]{1, 2}, Encoder.encode(e -> {
+            Encoder.writeUint8(e, 1);
+            // encode inside encode must not share the buffer
+            Encoder.writeUint8Array(e, Encoder.encode(inner -> Encoder.writeUint8(inner, 2)));
+        }));
+    }
+
+    @Test
+    void testNoPoolOnVirtualThreads() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.submit(() -> {
+                Encoder encoder = Encoder.acquire();
+                Encoder.writeVarUint(encoder, 300);
+                Encoder.release(encoder);
+                // the thread local is not used, a released encoder is left to the gc
+                assertNotSame(encoder, Encoder.acquire());
+                assertArrayEquals(new byte[]{1}, Encoder.encode(e -> Encoder.writeUint8(e, 1)));
+            }).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * The byte-at-a-time varint writer the unrolled one replaced
+     */
+    private static void referenceVarUint(ByteArrayOutputStream out, long num) {
+        while (num > 127) {
+            out.write((int) (128 | (127 & num)));
+            num >>>= 7;
+        }
+        out.write((int) (127 & num));
+    }
+
+    private static void referenceVarInt(ByteArrayOutputStream out, long num) {
+        boolean isNegative = num < 0;
+        if (isNegative) {
+            num = -num;
+        }
+        out.write((int) ((num > 63 ? 128 : 0) | (isNegative ? 64 : 0) | (63 & num)));
+        num = num / 64;
+        while (num > 0) {
+            out.write((int) ((num > 127 ? 128 : 0) | (127 & num)));
+            num = num / 128;
+        }
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int len = random.nextInt(40);
+        for (int i = 0; i < len; i++) {
+            switch (random.nextInt(6)) {
+                case 0 -> sb.append((char) random.nextInt(0x80));
+                case 1 -> sb.append((char) random.nextInt(0x80, 0x800));
+                case 2 -> sb.append("协同");
+                case 3 -> sb.appendCodePoint(random.nextInt(0x10000, 0x110000));
+                // unpaired surrogates
+                case 4 -> sb.append((char) random.nextInt(0xD800, 0xE000));
+                default -> sb.append("text");
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testMatchesReferenceCodec() {
+        Random random = new Random(7);
+        long[] edges = {0, 1, 63, 64, 127, 128, 16383, 16384, (1L << 31) - 1, 1L << 32, (1L << 53) - 1, -1, -63, -64, -65, -(1L << 53) + 1};
+        Encoder encoder = Encoder.createEncoder();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        long[] values = new long[20000];
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i < edges.length ? edges[i] : random.nextLong(1L << random.nextInt(1, 54)) * (random.nextBoolean() ? 1 : -1);
+            strings[i] = randomString(random);
+            long uint = Math.abs(values[i]);
+            Encoder.writeVarUint(encoder, uint);
+            referenceVarUint(expected, uint);
+            Encoder.writeVarInt(encoder, values[i]);
+            referenceVarInt(expected, values[i]);
+            byte[] utf8 = strings[i].getBytes(StandardCharsets.UTF_8);
+            Encoder.writeVarString(encoder, strings[i]);
+            referenceVarUint(expected, utf8.length);
+            expected.writeBytes(utf8);
+        }
+        // byte for byte the same as before
+        assertArrayEquals(expected.toByteArray(), Encoder.toUint8Array(encoder));
+
+        Decoder decoder = Decoder.createDecoder(expected.toByteArray());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Math.abs(values[i]), Decoder.readVarUint(decoder));
+            assertEquals(values[i], Decoder.readVarInt(decoder));
+            assertEquals(new String(strings[i].getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), Decoder.readVarString(decoder));
+        }
+        assertFalse(Decoder.hasContent(decoder));
+    }
+}
@@ -0,0 +1,97 @@
+package com.triibiotech.yjs.utils.lib0.encoding;
+
+import com.triibiotech.yjs.utils.lib0.decoding.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/19  00:14:27
+ **/
+class RleEncoderTest {
+
+    /**
+     * Runs of equal values, increasing values and small random values, with many zeros
+     */
+    private static long[] values(Random random, int n) {
+        long[] values = new long[n];
+        for (int i = 0; i < n; ) {
+            int run = random.nextInt(1, 6);
+            int kind = random.nextInt(3);
+            long v = random.nextInt(4) == 0 ? 0 : random.nextLong(1L << random.nextInt(1, 40));
+            for (int j = 0; j < run && i < n; j++, i++) {
+                values[i] = kind == 0 ? v : kind == 1 ? v + j : random.nextInt(3);
+            }
+        }
+        return values;
+    }
+
+    private static byte[] encode(Encoder encoder) {
+        Encoder target = Encoder.createEncoder();
+        Encoder.writeBinaryEncoder(target, encoder);
+        return Encoder.toUint8Array(target);
+    }
+
+    @Test
+    void testZeroRuns() {
+        // lib0 writes runs of 0 as -0 followed by the count
+        UintOptRleEncoder encoder = new UintOptRleEncoder();
+        encoder.write(0);
+        encoder.write(0);
+        encoder.write(0);
+        encoder.write(5);
+        byte[] bytes = encoder.toUint8Array();
+        assertArrayEquals(new byte[]{0x40, 1, 5}, bytes);
+        UintOptRleDecoder decoder = new UintOptRleDecoder(bytes);
+        for (long expected : new long[]{0, 0, 0, 5}) {
+            assertEquals(expected, decoder.read());
+        }
+
+        IncUintOptRleEncoder inc = new IncUintOptRleEncoder();
+        inc.write(0);
+        inc.write(1);
+        inc.write(2);
+        assertArrayEquals(new byte[]{0x40, 1}, inc.toUint8Array());
+    }
+
+    @Test
+    void testRoundTrip() {
+        Random random = new Random(11);
+        long[] values = values(random, 5000);
+        UintOptRleEncoder uint = new UintOptRleEncoder();
+        IncUintOptRleEncoder incUint = new IncUintOptRleEncoder();
+        IntDiffOptRleEncoder intDiff = new IntDiffOptRleEncoder();
+        Uint8RleEncoder uint8 = new Uint8RleEncoder();
+        RleEncoder<Long> generic = new RleEncoder<>(Encoder::write);
+        for (long v : values) {
+            uint.write(v);
+            incUint.write(v);
+            // the diffs are negative as well
+            intDiff.write(v % 2 == 0 ? v : -v);
+            uint8.write((int) (v & 0xFF));
+            generic.write(v & 0xFF);
+        }
+        // writeTo appends the same bytes as writeVarUint8Array(toUint8Array())
+        Encoder columns = Encoder.createEncoder();
+        uint.writeTo(columns);
+        incUint.writeTo(columns);
+        intDiff.writeTo(columns);
+        assertArrayEquals(encode(generic), encode(uint8));
+
+        Decoder decoder = Decoder.createDecoder(Encoder.toUint8Array(columns));
+        UintOptRleDecoder uintDecoder = new UintOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        IncUintOptRleDecoder incUintDecoder = new IncUintOptRleDecoder(Decoder.readVarUint8Array(decoder));
+        IntDiffOptRleDecoder intDiffDecoder = new IntDiffOptRleDecoder(Decoder.readVarUint8ArrayView(decoder));
+        Uint8RleDecoder uint8Decoder = new Uint8RleDecoder(encode(uint8));
+        assertFalse(Decoder.hasContent(decoder));
+        for (long v : values) {
+            assertEquals(v, uintDecoder.read());
+            assertEquals(v, incUintDecoder.read());
+            assertEquals(v % 2 == 0 ? v : -v, intDiffDecoder.read());
+            assertEquals(v & 0xFF, uint8Decoder.read());
+        }
+    }
+}
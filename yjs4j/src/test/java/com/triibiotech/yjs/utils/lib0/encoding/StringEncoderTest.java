@@ -0,0 +1,110 @@
+package com.triibiotech.yjs.utils.lib0.encoding;
+
+import com.triibiotech.yjs.utils.lib0.decoding.Decoder;
+import com.triibiotech.yjs.utils.lib0.decoding.StringDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author zbs
+ * @date 2026/10/19  00:21:38
+ **/
+class StringEncoderTest {
+
+    private static List<String> strings(Random random, int n) {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(12);
+            for (int j = 0; j < len; j++) {
+                switch (random.nextInt(7)) {
+                    case 0 -> sb.append("协同");
+                    case 1 -> sb.append((char) random.nextInt(0x80, 0x800));
+                    case 2 -> sb.appendCodePoint(random.nextInt(0x10000, 0x110000));
+                    // a pair split over two strings, or an unpaired surrogate
+                    case 3 -> sb.append((char) random.nextInt(0xD800, 0xE000));
+                    default -> sb.append((char) random.nextInt(0x20, 0x80));
+                }
+            }
+            strings.add(sb.toString());
+        }
+        return strings;
+    }
+
+    @Test
+    void testMatchesJoinedEncoding() {
+        List<String> strings = strings(new Random(5), 3000);
+        StringEncoder encoder = new StringEncoder();
+        StringEncoder streamed = new StringEncoder();
+        // what the encoder wrote before: the joined string, then the lengths
+        Encoder expected = Encoder.createEncoder();
+        UintOptRleEncoder lens = new UintOptRleEncoder();
+        for (String s : strings) {
+            encoder.write(s);
+            streamed.write(s);
+            lens.write(s.length());
+        }
+        Encoder.writeVarUint8Array(expected, String.join("", strings).getBytes(StandardCharsets.UTF_8));
+        Encoder.writeUint8Array(expected, lens.toUint8Array());
+        byte[] bytes = encoder.toUint8Array();
+        assertArrayEquals(Encoder.toUint8Array(expected), bytes);
+
+        Encoder column = Encoder.createEncoder();
+        streamed.writeTo(column);
+        Decoder decoder = Decoder.createDecoder(Encoder.toUint8Array(column));
+        assertArrayEquals(bytes, Decoder.readVarUint8Array(decoder));
+        assertFalse(Decoder.hasContent(decoder));
+
+        String joined = new String(String.join("", strings).getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        StringDecoder stringDecoder = new StringDecoder(bytes);
+        int pos = 0;
+        for (String s : strings) {
+            assertEquals(joined.substring(pos, pos + s.length()), stringDecoder.read());
+            pos += s.length();
+        }
+    }
+
+    @Test
+    void testSplitSurrogatePair() {
+        String emoji = "😀";
+        StringEncoder encoder = new StringEncoder();
+        encoder.write("a" + emoji.charAt(0));
+        encoder.write(emoji.charAt(1) + "b");
+        encoder.write("");
+        encoder.write(emoji);
+        StringDecoder decoder = new StringDecoder(encoder.toUint8Array());
+        assertEquals("a" + emoji.charAt(0), decoder.read());
+        assertEquals(emoji.charAt(1) + "b", decoder.read());
+        assertEquals("", decoder.read());
+        assertEquals(emoji, decoder.read());
+    }
+
+    @Test
+    void testMalformedColumn() {
+        // a four byte lead followed by ascii, a stray continuation byte, a truncated
+        // three byte sequence, an overlong form and an encoded surrogate
+        byte[] utf8 = {'a', (byte) 0xF0, 'b', 'c', 'd', (byte) 0x80, 'e', (byte) 0xE4, (byte) 0xB8, 'f',
+                (byte) 0xC0, (byte) 0xAF, (byte) 0xED, (byte) 0xA0, (byte) 0x80, 'g', (byte) 0xF0, (byte) 0x9F};
+        String joined = new String(utf8, StandardCharsets.UTF_8);
+        int[] lengths = {2, 3, 1, 4, joined.length() - 10, 0};
+        Encoder column = Encoder.createEncoder();
+        UintOptRleEncoder lens = new UintOptRleEncoder();
+        for (int len : lengths) {
+            lens.write(len);
+        }
+        Encoder.writeVarUint8Array(column, utf8);
+        Encoder.writeUint8Array(column, lens.toUint8Array());
+        StringDecoder decoder = new StringDecoder(Encoder.toUint8Array(column));
+        int pos = 0;
+        for (int len : lengths) {
+            assertEquals(joined.substring(pos, pos + len), decoder.read());
+            pos += len;
+        }
+    }
+}